@@ -0,0 +1,57 @@
+package raytracer.accel;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Child slab test of all children of a node at once with the Vector API.
+ *
+ * Only loaded by WideBVH when the jdk.incubator.vector module is present.
+ * It lives in the optional src-incubator source root, compiling it needs
+ * --add-modules jdk.incubator.vector (see README).
+ *
+ * @author Manuel Nunes
+ *
+ */
+final class VectorChildIntersector implements ChildIntersector {
+	private final VectorSpecies<Float> species;
+
+	/**
+	 * Constructor
+	 *
+	 * @param width Number of children per node, 4 or 8.
+	 */
+	VectorChildIntersector(int width) {
+		species = species(width);
+	}
+
+	/**
+	 * @param width Number of children per node, 4 or 8.
+	 * @return Does the CPU have vectors that wide? Emulated vectors are much
+	 *   slower than the scalar test.
+	 */
+	static boolean isSupported(int width) {
+		return (species(width).length() <= FloatVector.SPECIES_PREFERRED.length());
+	}
+
+	private static VectorSpecies<Float> species(int width) {
+		return (width == 8) ? FloatVector.SPECIES_256 : FloatVector.SPECIES_128;
+	}
+
+	@Override
+	public int intersect(int first, float nearX[], float nearY[], float nearZ[], float farX[], float farY[],
+			float farZ[], float nearOx, float nearOy, float nearOz, float farOx, float farOy, float farOz,
+			float invDx, float invDy, float invDz, float tMax, float dists[]) {
+		FloatVector tNear = FloatVector.fromArray(species, nearX, first).sub(nearOx).mul(invDx)
+				.max(FloatVector.fromArray(species, nearY, first).sub(nearOy).mul(invDy))
+				.max(FloatVector.fromArray(species, nearZ, first).sub(nearOz).mul(invDz))
+				.max(0.0f);
+		FloatVector tFar = FloatVector.fromArray(species, farX, first).sub(farOx).mul(invDx)
+				.min(FloatVector.fromArray(species, farY, first).sub(farOy).mul(invDy))
+				.min(FloatVector.fromArray(species, farZ, first).sub(farOz).mul(invDz))
+				.min(tMax).mul(WideBVH.FAR_SCALE);
+		tNear.intoArray(dists, 0);
+		return (int) tNear.compare(VectorOperators.LE, tFar).toLong();
+	}
+}
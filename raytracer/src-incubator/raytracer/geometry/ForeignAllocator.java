@@ -0,0 +1,31 @@
+package raytracer.geometry;
+
+import java.nio.ByteBuffer;
+
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * Allocator of native memory segments of the Foreign Memory API, all of them
+ * released at once when the allocator is closed.
+ *
+ * Only loaded by OffHeapStore when the jdk.incubator.foreign module is
+ * present. It lives in the optional src-incubator source root, compiling it
+ * needs --add-modules jdk.incubator.foreign (see README).
+ *
+ * @author Manuel Nunes
+ *
+ */
+final class ForeignAllocator implements OffHeapAllocator {
+	private final ResourceScope scope = ResourceScope.newSharedScope();
+
+	@Override
+	public ByteBuffer allocate(int bytes) {
+		return MemorySegment.allocateNative(bytes, Long.BYTES, scope).asByteBuffer();
+	}
+
+	@Override
+	public void close() {
+		scope.close();
+	}
+}
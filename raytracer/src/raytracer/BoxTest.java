@@ -0,0 +1,53 @@
+package raytracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import raytracer.geometry.Box;
+
+class BoxTest {
+
+	@Test
+	void test() {
+		Box box = new Box(new Vector3f(1, 2, 3), new Vector3f(-1, -2, -3));
+
+		// along an axis, the other direction components are zero
+		Ray r = new Ray(new Vector3d(0.0, 0.0, -10.0), new Vector3d(0, 0, 1));
+		HitRecord record = new HitRecord();
+		assertTrue(box.hit(r, record));
+		assertEquals(7.0d, record.t, box.kEpsilon);
+		assertEquals(0.0d, record.nx, 0.0);
+		assertEquals(0.0d, record.ny, 0.0);
+		assertEquals(-1.0d, record.nz, 0.0);
+		assertTrue(box.occluded(r, 8.0));
+		assertFalse(box.occluded(r, 6.0));
+
+		// from -x towards the greater faces, entering through x = -1
+		r = new Ray(new Vector3d(-5.0, 1.0, 2.0), new Vector3d(4, -0.5, -1));
+		record = new HitRecord();
+		assertTrue(box.hit(r, record));
+		assertEquals(Math.sqrt(16.0 + 0.25 + 1.0), record.t, 1e-9);
+		assertEquals(-1.0d, record.nx, 0.0);
+		assertEquals(0.0d, record.ny, 0.0);
+		assertEquals(0.0d, record.nz, 0.0);
+
+		// from inside, leaving through y = -2
+		r = new Ray(new Vector3d(0.5, 0.0, 0.0), new Vector3d(0, -1, 0));
+		record = new HitRecord();
+		assertTrue(box.hit(r, record));
+		assertEquals(2.0d, record.t, box.kEpsilon);
+		assertEquals(-1.0d, record.ny, 0.0);
+
+		// parallel to a face outside of the box
+		r = new Ray(new Vector3d(2.0, 0.0, -10.0), new Vector3d(0, 0, 1));
+		assertFalse(box.hit(r, new HitRecord()));
+		assertFalse(box.occluded(r, Double.MAX_VALUE));
+
+		// away from the box
+		r = new Ray(new Vector3d(0.0, 0.0, -10.0), new Vector3d(0, 0, -1));
+		assertFalse(box.hit(r, new HitRecord()));
+	}
+}
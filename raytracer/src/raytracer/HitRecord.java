@@ -0,0 +1,49 @@
+package raytracer;
+
+import raytracer.material.Material;
+
+/**
+ * Caller owned record of the closest intersection found along a ray.
+ * 
+ * A render thread keeps one record and reuses it for every ray, so the
+ * intersection code passes results back without allocating. Geometric objects
+ * only overwrite the record with an intersection closer than the one it holds.
+ * 
+ * @author Manuel Nunes
+ *
+ */
+public class HitRecord {
+	public double t; /** < distance to the closest intersection, Double.MAX_VALUE if none */
+	public double nx, ny, nz; /** < surface normal at the closest intersection */
+	public Material material; /** < material of the primitive hit */
+	public int primitiveId; /** < index of the primitive hit in the scene, -1 if none */
+
+	/**
+	 * Default constructor
+	 */
+	public HitRecord() {
+		reset();
+	}
+
+	/**
+	 * Forget the previous intersection before tracing a new ray.
+	 */
+	public void reset() {
+		t = Double.MAX_VALUE;
+		material = null;
+		primitiveId = -1;
+	}
+
+	/**
+	 * Setter
+	 * 
+	 * @param nx
+	 * @param ny
+	 * @param nz
+	 */
+	public void setNormal(double nx, double ny, double nz) {
+		this.nx = nx;
+		this.ny = ny;
+		this.nz = nz;
+	}
+}
@@ -1,5 +1,7 @@
 package raytracer;
 
+import java.io.Serializable;
+
 /**
  * Point Light
  * 
@@ -7,7 +9,9 @@ package raytracer;
  *
  */
 
-public class Light {
+public class Light implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	private boolean castsShadows;
 	/** < true if shadow processing is enabled otherwise false */
 	private Vector3d color;
@@ -1,5 +1,7 @@
 package raytracer;
 
+import java.io.Serializable;
+
 /**
  * Matrix class
  * 
@@ -7,7 +9,9 @@ package raytracer;
  * 
  */
 
-public class Matrix {
+public class Matrix implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	private double m[][] = new double[4][4];
 	/** < 4x4 matrix */
 	public double kEpsilon = 0.000000001;
@@ -46,10 +50,9 @@ public class Matrix {
 	 * @param[in] v matrix to copy
 	 */
 	public Matrix(Matrix rhs) {
-		Matrix obj = new Matrix();
 		for (int column = 0; column < 4; ++column) {
 			for (int row = 0; row < 4; ++row) {
-				obj.m[column][row] = rhs.m[column][row];
+				m[column][row] = rhs.m[column][row];
 			}
 		}
 	}
@@ -153,6 +156,47 @@ public class Matrix {
 		return result;
 	}
 
+	/**
+	 * Getter
+	 *
+	 * @param[in] column
+	 * @param[in] row
+	 * @return Element of the matrix.
+	 */
+	public double get(int column, int row) {
+		return (m[column][row]);
+	}
+
+	/**
+	 * Translates the matrix.
+	 *
+	 * @param[in] x Translation along the x axis.
+	 * @param[in] y Translation along the y axis.
+	 * @param[in] z Translation along the z axis.
+	 */
+	public void T(double x, double y, double z) {
+		this.m[3][0] = x;
+		this.m[3][1] = y;
+		this.m[3][2] = z;
+
+		this.m[3][3] = 1.0;
+	}
+
+	/**
+	 * Scales the matrix.
+	 *
+	 * @param[in] x Scale along the x axis.
+	 * @param[in] y Scale along the y axis.
+	 * @param[in] z Scale along the z axis.
+	 */
+	public void S(double x, double y, double z) {
+		this.m[0][0] = x;
+		this.m[1][1] = y;
+		this.m[2][2] = z;
+
+		this.m[3][3] = 1.0;
+	}
+
 	/**
 	 * Rotate the matrix about the x axis.
 	 *
@@ -284,7 +328,7 @@ public class Matrix {
 				double s = 0.0;
 
 				for (int i = 0; i < 4; ++i) {
-					s += m[i][row] * m[column][i];
+					s += m[i][row] * rhs.m[column][i];
 				}
 
 				result.m[column][row] = s;
@@ -302,57 +346,38 @@ public class Matrix {
 	}
 
 	/**
-	 * Calculate the adjunct matrix of this matrix.
+	 * Calculate the determinant of the 3x3 matrix left after removing a column
+	 * and a row from this matrix.
+	 *
+	 * @param[in] column Column to remove.
+	 * @param[in] row Row to remove.
+	 * @return minor of this matrix
+	 */
+	private double minor(int column, int row) {
+		int c0 = (column == 0) ? 1 : 0;
+		int c1 = (column <= 1) ? 2 : 1;
+		int c2 = (column <= 2) ? 3 : 2;
+		int r0 = (row == 0) ? 1 : 0;
+		int r1 = (row <= 1) ? 2 : 1;
+		int r2 = (row <= 2) ? 3 : 2;
+		return (m[c0][r0] * (m[c1][r1] * m[c2][r2] - m[c2][r1] * m[c1][r2])
+				- m[c1][r0] * (m[c0][r1] * m[c2][r2] - m[c2][r1] * m[c0][r2])
+				+ m[c2][r0] * (m[c0][r1] * m[c1][r2] - m[c1][r1] * m[c0][r2]));
+	}
+
+	/**
+	 * Calculate the adjunct matrix of this matrix, the transpose of its
+	 * cofactor matrix.
 	 */
 	public Matrix adj() {
 		Matrix result = new Matrix();
-		result.m[0][0] = m[1][1] * m[2][2] * m[3][3] + m[2][1] * m[3][2] * m[1][3] + m[3][1] * m[1][2] * m[2][3]
-				- m[1][1] * m[3][2] * m[2][3] - m[2][1] * m[1][2] * m[3][3] - m[3][1] * m[2][2] * m[1][3];
-
-		result.m[1][0] = -(m[0][1] * m[2][2] * m[3][3] + m[2][1] * m[3][2] * m[0][3] + m[3][1] * m[0][2] * m[2][3]
-				- m[0][1] * m[3][2] * m[2][3] - m[2][1] * m[0][2] * m[3][3] - m[3][1] * m[2][2] * m[0][3]);
-
-		result.m[2][0] = m[0][1] * m[1][2] * m[3][3] + m[1][1] * m[3][2] * m[0][3] + m[3][1] * m[0][2] * m[1][3]
-				- m[0][1] * m[3][2] * m[1][3] - m[1][1] * m[0][2] * m[3][3] - m[3][1] * m[1][2] * m[0][3];
-
-		result.m[3][0] = -(m[0][1] * m[1][2] * m[2][3] + m[1][1] * m[2][2] * m[0][3] + m[2][1] * m[0][2] * m[1][3]
-				- m[0][1] * m[2][2] * m[1][3] - m[1][1] * m[0][2] * m[2][3] - m[2][1] * m[1][2] * m[0][3]);
-
-		result.m[0][1] = -(m[1][0] * m[2][2] * m[3][3] + m[2][0] * m[3][2] * m[1][3] + m[3][0] * m[1][2] * m[2][3]
-				- m[1][0] * m[3][2] * m[2][3] - m[2][0] * m[1][2] * m[3][3] - m[3][0] * m[2][2] * m[1][3]);
-
-		result.m[1][1] = m[0][0] * m[2][2] * m[3][3] + m[2][0] * m[3][2] * m[0][3] + m[3][0] * m[0][2] * m[2][3]
-				- m[0][0] * m[3][2] * m[2][3] - m[2][0] * m[0][2] * m[3][3] - m[3][0] * m[2][2] * m[0][3];
-
-		result.m[2][1] = -(m[0][0] * m[1][2] * m[3][3] + m[1][0] * m[3][2] * m[0][3] + m[3][0] * m[0][2] * m[1][3]
-				- m[0][0] * m[3][2] * m[1][3] - m[1][0] * m[0][2] * m[3][3] - m[3][0] * m[1][2] * m[0][3]);
-
-		result.m[3][1] = m[0][0] * m[1][2] * m[2][3] + m[1][0] * m[2][2] * m[0][3] + m[2][0] * m[0][2] * m[1][3]
-				- m[0][0] * m[2][2] * m[1][3] - m[1][0] * m[0][2] * m[2][3] - m[2][0] * m[1][2] * m[0][3];
-
-		result.m[0][2] = m[1][0] * m[2][1] * m[3][3] + m[2][0] * m[3][1] * m[1][3] + m[3][0] * m[1][1] * m[2][3]
-				- m[1][0] * m[3][1] * m[2][3] - m[2][0] * m[1][1] * m[3][3] - m[3][0] * m[2][1] * m[1][3];
 
-		result.m[1][2] = -(m[0][0] * m[2][1] * m[3][3] + m[2][0] * m[3][1] * m[0][3] + m[3][0] * m[0][1] * m[2][3]
-				- m[0][0] * m[3][1] * m[2][3] - m[2][0] * m[0][1] * m[3][3] - m[3][0] * m[2][1] * m[0][3]);
-
-		result.m[2][2] = m[0][0] * m[1][1] * m[3][3] + m[1][0] * m[3][1] * m[0][3] + m[3][0] * m[0][1] * m[1][3]
-				- m[0][0] * m[3][1] * m[1][3] - m[1][0] * m[0][1] * m[3][3] - m[3][0] * m[1][1] * m[0][3];
-
-		result.m[3][2] = -(m[0][0] * m[1][1] * m[2][3] + m[1][0] * m[2][1] * m[0][3] + m[2][0] * m[0][1] * m[1][3]
-				- m[0][0] * m[2][1] * m[1][3] - m[1][0] * m[0][1] * m[2][3] - m[2][0] * m[1][1] * m[0][3]);
-
-		result.m[0][3] = -(m[1][0] * m[2][1] * m[3][2] + m[2][0] * m[3][1] * m[1][2] + m[3][0] * m[1][1] * m[2][2]
-				- m[1][0] * m[3][1] * m[2][2] - m[2][0] * m[1][1] * m[3][2] - m[3][0] * m[2][1] * m[1][2]);
-
-		result.m[1][3] = m[0][0] * m[2][1] * m[3][2] + m[2][0] * m[3][1] * m[0][2] + m[3][0] * m[0][1] * m[2][2]
-				- m[0][0] * m[3][1] * m[2][2] - m[2][0] * m[0][1] * m[3][2] - m[3][0] * m[2][1] * m[0][2];
-
-		result.m[2][3] = -(m[0][0] * m[1][1] * m[3][2] + m[1][0] * m[3][1] * m[0][2] + m[3][0] * m[0][1] * m[1][2]
-				- m[0][0] * m[3][1] * m[1][2] - m[1][0] * m[0][1] * m[3][2] - m[3][0] * m[1][1] * m[0][2]);
-
-		result.m[3][3] = m[0][0] * m[1][1] * m[2][2] + m[1][0] * m[2][1] * m[0][2] + m[2][0] * m[0][1] * m[1][2]
-				- m[0][0] * m[2][1] * m[1][2] - m[1][0] * m[0][1] * m[2][2] - m[2][0] * m[1][1] * m[0][2];
+		for (int column = 0; column < 4; ++column) {
+			for (int row = 0; row < 4; ++row) {
+				double cofactor = minor(row, column);
+				result.m[column][row] = ((column + row) % 2 == 0) ? cofactor : -cofactor;
+			}
+		}
 
 		return (result);
 	}
@@ -372,10 +397,11 @@ public class Matrix {
 	 * @return determininant of this matrix
 	 */
 	public double determinant() {
-		double v = m[0][0] * m[1][1] * m[2][2] * m[3][3] + m[1][0] * m[2][1] * m[3][2] * m[0][3]
-				+ m[2][0] * m[3][1] * m[0][2] * m[1][3] + m[3][0] * m[0][1] * m[1][2] * m[2][3]
-				- m[0][0] * m[3][1] * m[2][2] * m[1][3] - m[1][0] * m[0][1] * m[3][2] * m[2][3]
-				- m[2][0] * m[1][1] * m[0][2] * m[3][3] - m[3][0] * m[2][1] * m[1][2] * m[0][3];
+		double v = 0.0;
+		for (int row = 0; row < 4; ++row) {
+			double cofactor = minor(0, row);
+			v += m[0][row] * ((row % 2 == 0) ? cofactor : -cofactor);
+		}
 		return (v);
 	}
 
@@ -0,0 +1,294 @@
+package raytracer;
+
+import java.io.Serializable;
+
+/**
+ * Mutable vector class for three double values.
+ *
+ * Unlike Vector3d every operation writes its result into this vector and
+ * returns it, so that the render loop can reuse a few scratch vectors instead
+ * of allocating a new vector for every intermediate result.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class MutableVector3d implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public double x, y, z; /** < elements */
+
+	/**
+	 * Default constructor
+	 *
+	 * Initializes all elements to 0.
+	 */
+	public MutableVector3d() {
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public MutableVector3d(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	/**
+	 * Copy constructor
+	 *
+	 * @param another
+	 */
+	public MutableVector3d(MutableVector3d another) {
+		this(another.x, another.y, another.z);
+	}
+
+	/**
+	 * Copy constructor for conversion of Vector3d to MutableVector3d
+	 *
+	 * @param another
+	 */
+	public MutableVector3d(Vector3d another) {
+		this(another.get(0), another.get(1), another.get(2));
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return This vector.
+	 */
+	public MutableVector3d set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return (this);
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param another
+	 * @return This vector.
+	 */
+	public MutableVector3d set(MutableVector3d another) {
+		return set(another.x, another.y, another.z);
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param another
+	 * @return This vector.
+	 */
+	public MutableVector3d set(Vector3d another) {
+		return set(another.get(0), another.get(1), another.get(2));
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param another
+	 * @return This vector.
+	 */
+	public MutableVector3d set(Vector3f another) {
+		return set(another.get(0), another.get(1), another.get(2));
+	}
+
+	/**
+	 * Add another vector to this vector.
+	 *
+	 * @param another
+	 * @return This vector.
+	 */
+	public MutableVector3d add(MutableVector3d another) {
+		x += another.x;
+		y += another.y;
+		z += another.z;
+		return (this);
+	}
+
+	/**
+	 * Add another vector multiplied by a scalar to this vector.
+	 *
+	 * @param another
+	 * @param scalar
+	 * @return This vector.
+	 */
+	public MutableVector3d addScaled(MutableVector3d another, double scalar) {
+		x += another.x * scalar;
+		y += another.y * scalar;
+		z += another.z * scalar;
+		return (this);
+	}
+
+	/**
+	 * Subtract another vector from this vector.
+	 *
+	 * @param another
+	 * @return This vector.
+	 */
+	public MutableVector3d subtract(MutableVector3d another) {
+		x -= another.x;
+		y -= another.y;
+		z -= another.z;
+		return (this);
+	}
+
+	/**
+	 * Multiply this vector by a scalar.
+	 *
+	 * @param scalar
+	 * @return This vector.
+	 */
+	public MutableVector3d multiply(double scalar) {
+		x *= scalar;
+		y *= scalar;
+		z *= scalar;
+		return (this);
+	}
+
+	/**
+	 * Multiply this vector element by element with another vector.
+	 *
+	 * @param another
+	 * @return This vector.
+	 */
+	public MutableVector3d multiply(MutableVector3d another) {
+		x *= another.x;
+		y *= another.y;
+		z *= another.z;
+		return (this);
+	}
+
+	/**
+	 * Multiply this vector element by element with another vector.
+	 *
+	 * @param another
+	 * @return This vector.
+	 */
+	public MutableVector3d multiply(Vector3d another) {
+		x *= another.get(0);
+		y *= another.get(1);
+		z *= another.get(2);
+		return (this);
+	}
+
+	/**
+	 * Divide this vector by a scalar.
+	 *
+	 * @param scalar
+	 * @return This vector.
+	 */
+	public MutableVector3d divide(double scalar) {
+		x /= scalar;
+		y /= scalar;
+		z /= scalar;
+		return (this);
+	}
+
+	/**
+	 * Negate this vector.
+	 *
+	 * @return This vector.
+	 */
+	public MutableVector3d negate() {
+		x = -x;
+		y = -y;
+		z = -z;
+		return (this);
+	}
+
+	/**
+	 * Set this vector to the cross product of two vectors, either of which
+	 * may be this vector.
+	 *
+	 * @param a
+	 * @param b
+	 * @return This vector.
+	 */
+	public MutableVector3d cross(MutableVector3d a, MutableVector3d b) {
+		return set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y - a.y * b.x);
+	}
+
+	/**
+	 * Dot product
+	 *
+	 * @param another
+	 * @return Dot product of this vector and another vector.
+	 */
+	public double dot(MutableVector3d another) {
+		return (x * another.x + y * another.y + z * another.z);
+	}
+
+	/**
+	 * @return Magnitude squared of this vector.
+	 */
+	public double magnitudeSquared() {
+		return this.dot(this);
+	}
+
+	/**
+	 * Calculate magnitude of this vector.
+	 *
+	 * @return Magnitude of this vector.
+	 */
+	public double magnitude() {
+		return Math.sqrt(magnitudeSquared());
+	}
+
+	/**
+	 * Normalize this vector.
+	 *
+	 * @return This vector.
+	 */
+	public MutableVector3d normalize() {
+		return this.divide(magnitude());
+	}
+
+	/**
+	 * Construct 3D orthonormal basis with this vector as w.
+	 *
+	 * @param u vector set to u
+	 * @param v vector set to v
+	 */
+	public void orthonormalBasis(MutableVector3d u, MutableVector3d v) {
+		v.set(0.00424, 1.0, 0.00764);
+		v.cross(v, this).normalize();
+		u.cross(v, this);
+	}
+
+	/**
+	 * Get element of vector.
+	 *
+	 * @param idx (0,1,2) -> (x,y,z)
+	 * @return vector element indexed by idx.
+	 */
+	public double get(int idx) {
+		switch (idx) {
+		case 0:
+			return (x);
+		case 1:
+			return (y);
+		case 2:
+			return (z);
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Conversion to an immutable vector.
+	 *
+	 * @return Vector3d with the current elements of this vector.
+	 */
+	public Vector3d toVector3d() {
+		return new Vector3d(x, y, z);
+	}
+}
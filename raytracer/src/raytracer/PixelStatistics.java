@@ -0,0 +1,116 @@
+package raytracer;
+
+/**
+ * Running mean and variance of the luminance of the samples of every pixel,
+ * used by adaptive sampling to decide when a pixel has converged.
+ *
+ * The statistics of a pixel are only updated by the worker rendering it, so
+ * there is no synchronization per pixel.
+ *
+ * @author Manuel Nunes
+ *
+ */
+class PixelStatistics {
+	private final static double MIN_LUMINANCE = 1.0 / 255.0; /** < floor of the mean when measuring the relative error */
+
+	private final int width;
+	private final int counts[]; /** < samples per pixel */
+	private final double means[]; /** < running mean of the luminance */
+	private final double m2s[]; /** < running sum of squared differences from the mean */
+
+	/**
+	 * Constructor
+	 *
+	 * @param width image width
+	 * @param height image height
+	 */
+	PixelStatistics(int width, int height) {
+		this.width = width;
+		counts = new int[width * height];
+		means = new double[width * height];
+		m2s = new double[width * height];
+	}
+
+	/**
+	 * Add a sample to pixel (x,y) (Welford's algorithm).
+	 *
+	 * @param x
+	 * @param y
+	 * @param r red radiance of the sample
+	 * @param g green radiance of the sample
+	 * @param b blue radiance of the sample
+	 */
+	void add(int x, int y, double r, double g, double b) {
+		int idx = y * width + x;
+		double luminance = 0.2126 * r + 0.7152 * g + 0.0722 * b;
+		int count = ++counts[idx];
+		double delta = luminance - means[idx];
+		means[idx] += delta / count;
+		m2s[idx] += delta * (luminance - means[idx]);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of samples of pixel (x,y).
+	 */
+	int getCount(int x, int y) {
+		return counts[y * width + x];
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Running mean of the luminance of pixel (x,y).
+	 */
+	double getMean(int x, int y) {
+		return means[y * width + x];
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Running sum of squared differences from the mean of pixel (x,y).
+	 */
+	double getM2(int x, int y) {
+		return m2s[y * width + x];
+	}
+
+	/**
+	 * Setter, restores the statistics of pixel (x,y), e.g. from a checkpoint.
+	 *
+	 * @param x
+	 * @param y
+	 * @param count number of samples
+	 * @param mean running mean of the luminance
+	 * @param m2 running sum of squared differences from the mean
+	 */
+	void set(int x, int y, int count, double mean, double m2) {
+		int idx = y * width + x;
+		counts[idx] = count;
+		means[idx] = mean;
+		m2s[idx] = m2;
+	}
+
+	/**
+	 * Has pixel (x,y) converged?
+	 *
+	 * @param x
+	 * @param y
+	 * @param minSamples samples a pixel needs before it can converge
+	 * @param errorThreshold relative standard error of the mean luminance
+	 *   below which the pixel has converged
+	 * @return boolean Does the pixel have at least minSamples samples and a
+	 *   standard error below errorThreshold times its mean luminance?
+	 */
+	boolean isConverged(int x, int y, int minSamples, double errorThreshold) {
+		int idx = y * width + x;
+		int count = counts[idx];
+		if (count < minSamples || count < 2) {
+			return (false);
+		}
+		double variance = m2s[idx] / (count - 1);
+		double standardError = Math.sqrt(variance / count);
+		return (standardError <= errorThreshold * Math.max(means[idx], MIN_LUMINANCE));
+	}
+}
@@ -1,5 +1,7 @@
 package raytracer;
 
+import java.io.Serializable;
+
 import raytracer.geometry.GeometricObject;
 import raytracer.material.Material;
 
@@ -9,14 +11,17 @@ import raytracer.material.Material;
  * @author Manuel Nunes
  *
  */
-public class Primitive {
+public class Primitive implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	private GeometricObject geometricObject;
 	private Material material;
 
 	/**
 	 * Constructor
 	 * 
-	 * @param material
+	 * @param material Material of the object or null to use the materials
+	 *   reported by the object, e.g. an instance of a Group.
 	 * @param obj
 	 */
 	public Primitive(Material material, GeometricObject geometricObject) {
@@ -0,0 +1,91 @@
+package raytracer;
+
+/**
+ * Sampler backed by a xoroshiro128+ generator.
+ * 
+ * The generator state is two longs, so restarting it per pixel sample is
+ * cheap and needs no allocation. The state is derived from the seed and the
+ * (pixel, sample index) pair with the SplitMix64 finalizer.
+ * 
+ * Not thread safe, each render thread needs its own instance.
+ * 
+ * @author Manuel Nunes
+ *
+ */
+public class RandomSampler implements Sampler {
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private final long seed; /** < seed of the whole render */
+	private long s0, s1; /** < generator state */
+
+	/**
+	 * Default constructor
+	 */
+	public RandomSampler() {
+		this(0);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param seed Seed of the whole render, renders with the same seed are identical.
+	 */
+	public RandomSampler(long seed) {
+		this.seed = seed;
+		startPixelSample(0, 0, 0);
+	}
+
+	/**
+	 * @see Sampler#startPixelSample(int, int, int)
+	 */
+	@Override
+	public void startPixelSample(int x, int y, int sample) {
+		long key = mix64(seed + mix64(((long) x << 32) ^ (y & 0xFFFFFFFFL)) + sample);
+		s0 = mix64(key + GOLDEN_GAMMA);
+		s1 = mix64(key + 2 * GOLDEN_GAMMA);
+		if ((s0 | s1) == 0) {
+			s1 = GOLDEN_GAMMA;
+		}
+	}
+
+	/**
+	 * @see Sampler#nextDouble()
+	 */
+	@Override
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @see Sampler#nextFloat()
+	 */
+	@Override
+	public float nextFloat() {
+		return (nextLong() >>> 40) * 0x1.0p-24f;
+	}
+
+	/**
+	 * xoroshiro128+ step
+	 * 
+	 * @return next 64 random bits
+	 */
+	private long nextLong() {
+		long s0 = this.s0;
+		long s1 = this.s1;
+		long result = s0 + s1;
+
+		s1 ^= s0;
+		this.s0 = Long.rotateLeft(s0, 24) ^ s1 ^ (s1 << 16);
+		this.s1 = Long.rotateLeft(s1, 37);
+		return result;
+	}
+
+	/**
+	 * SplitMix64 finalizer
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
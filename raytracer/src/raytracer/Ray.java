@@ -3,12 +3,30 @@ package raytracer;
 /**
  * Ray Class
  * 
+ * A ray owns its origin and direction, so the render loop can keep one ray per
+ * worker and set it for every sample instead of allocating a new one.
+ * 
+ * The reciprocal of the direction and the sign of every component are
+ * computed whenever the ray is set, so that the slab tests of boxes and
+ * bounding volumes multiply instead of divide and pick the planes the ray
+ * enters and leaves through without comparing.
+ * 
  * @author Manuel Nunes
  *
  */
 public class Ray {
-	final private Vector3d origin;
-	final private Vector3d direction;
+	final private MutableVector3d origin = new MutableVector3d();
+	final private MutableVector3d direction = new MutableVector3d();
+	final private double invDirection[] = new double[3]; /** < reciprocal of the direction per axis */
+	final private int sign[] = new int[3]; /** < 1 where the reciprocal direction is negative, 0 otherwise */
+
+	/**
+	 * Default constructor
+	 * 
+	 * Ray at the origin with a zero direction, to be set before use.
+	 */
+	public Ray() {
+	}
 
 	/**
 	 * Copy Constructor
@@ -16,8 +34,10 @@ public class Ray {
 	 * @param ray
 	 */
 	public Ray(Ray ray) {
-		origin = ray.origin;
-		direction = ray.direction;
+		origin.set(ray.origin);
+		direction.set(ray.direction);
+		System.arraycopy(ray.invDirection, 0, invDirection, 0, 3);
+		System.arraycopy(ray.sign, 0, sign, 0, 3);
 	}
 
 	/**
@@ -27,36 +47,113 @@ public class Ray {
 	 * @param direction
 	 */
 	public Ray(Vector3d origin, Vector3d direction) {
-		this.origin = new Vector3d(origin);
-		this.direction = new Vector3d(direction.normalize());
+		this.origin.set(origin);
+		this.direction.set(direction).normalize();
+		updateInvDirection();
+	}
+
+	/**
+	 * Setter
+	 * 
+	 * @param ox origin x
+	 * @param oy origin y
+	 * @param oz origin z
+	 * @param dx direction x
+	 * @param dy direction y
+	 * @param dz direction z, the direction is normalized.
+	 * @return This ray.
+	 */
+	public Ray set(double ox, double oy, double oz, double dx, double dy, double dz) {
+		origin.set(ox, oy, oz);
+		direction.set(dx, dy, dz).normalize();
+		updateInvDirection();
+		return (this);
+	}
+
+	/**
+	 * Setter for a direction that is already normalized, e.g. to move a ray
+	 * into the space of an object and back without rounding it again.
+	 * 
+	 * @param ox origin x
+	 * @param oy origin y
+	 * @param oz origin z
+	 * @param dx direction x
+	 * @param dy direction y
+	 * @param dz direction z
+	 * @return This ray.
+	 */
+	public Ray setNormalized(double ox, double oy, double oz, double dx, double dy, double dz) {
+		origin.set(ox, oy, oz);
+		direction.set(dx, dy, dz);
+		updateInvDirection();
+		return (this);
+	}
+
+	private void updateInvDirection() {
+		for (int idx = 0; idx < 3; ++idx) {
+			invDirection[idx] = 1.0 / direction.get(idx);
+			sign[idx] = (invDirection[idx] < 0.0) ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Setter
+	 * 
+	 * @param origin
+	 * @param direction the direction is normalized.
+	 * @return This ray.
+	 */
+	public Ray set(MutableVector3d origin, MutableVector3d direction) {
+		return set(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z);
 	}
 
 	/**
 	 * Getter
 	 * 
-	 * @return direction
+	 * @return direction, owned by the ray and only to be changed through set.
 	 */
-	public Vector3d getDirection() {
+	public MutableVector3d getDirection() {
 		return direction;
 	}
 
 	/**
 	 * Getter
 	 * 
-	 * @return origin
+	 * @return origin, owned by the ray and only to be changed through set.
 	 */
-	public Vector3d getOrigin() {
+	public MutableVector3d getOrigin() {
 		return origin;
 	}
 
+	/**
+	 * Getter
+	 * 
+	 * @param idx vector component index where (0,1,2) -> (x,y,z)
+	 * @return reciprocal of the direction, infinite for a zero component.
+	 */
+	public double getInvDirection(int idx) {
+		return invDirection[idx];
+	}
+
+	/**
+	 * Getter
+	 * 
+	 * @param idx vector component index where (0,1,2) -> (x,y,z)
+	 * @return 1 if the direction is negative (or -0.0), 0 otherwise.
+	 */
+	public int getSign(int idx) {
+		return sign[idx];
+	}
+
 	/**
 	 * Calculate a hit point given a value t
 	 * 
 	 * @param t distance
-	 * @return hit point
+	 * @param hitPoint vector set to the hit point
+	 * @return hitPoint
 	 */
-	public Vector3d getHitPoint(double t) {
-		return origin.add(direction.multiply(t));
+	public MutableVector3d getHitPoint(double t, MutableVector3d hitPoint) {
+		return hitPoint.set(origin).addScaled(direction, t);
 	}
 
 	/**
@@ -0,0 +1,126 @@
+package raytracer;
+
+/**
+ * Block of coherent rays, e.g. the primary rays of neighbouring pixels, that
+ * are traced through the scene together.
+ *
+ * The rays and their hit records are owned by the packet and reused, like
+ * the ray and record of a render thread. prepare copies the origins and the
+ * reciprocal directions into flat arrays for the hierarchy traversal, with
+ * their ranges over the packet, which bound every ray of the packet so that
+ * a node can be culled for the whole packet at once.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class RayPacket {
+	public final Ray rays[]; /** < rays of the packet */
+	public final HitRecord records[]; /** < closest intersection of every ray */
+	public final boolean hits[]; /** < did the ray hit a primitive */
+	public final double ox[], oy[], oz[]; /** < origins of the rays */
+	public final double invDx[], invDy[], invDz[]; /** < reciprocal directions of the rays */
+	public final double originMin[] = new double[3]; /** < lesser corner of the origins */
+	public final double originMax[] = new double[3]; /** < greater corner of the origins */
+	public final double invDirectionMin[] = new double[3]; /** < least reciprocal direction per axis */
+	public final double invDirectionMax[] = new double[3]; /** < greatest reciprocal direction per axis */
+	private int size; /** < number of rays in use */
+	private boolean coherent; /** < do the directions of all rays have the same signs */
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity Largest number of rays in the packet.
+	 */
+	public RayPacket(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid packet size.");
+		}
+		rays = new Ray[capacity];
+		records = new HitRecord[capacity];
+		for (int idx = 0; idx < capacity; ++idx) {
+			rays[idx] = new Ray();
+			records[idx] = new HitRecord();
+		}
+		hits = new boolean[capacity];
+		ox = new double[capacity];
+		oy = new double[capacity];
+		oz = new double[capacity];
+		invDx = new double[capacity];
+		invDy = new double[capacity];
+		invDz = new double[capacity];
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Largest number of rays in the packet.
+	 */
+	public int getCapacity() {
+		return rays.length;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of rays in use.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Do the directions of all rays have the same sign along every
+	 *   axis? Only a coherent packet is traced as a packet.
+	 */
+	public boolean isCoherent() {
+		return coherent;
+	}
+
+	/**
+	 * Readies the first rays of the packet for tracing, after they have been
+	 * set, and resets their hit records.
+	 *
+	 * @param size Number of rays in use.
+	 */
+	public void prepare(int size) {
+		if (size < 0 || size > rays.length) {
+			throw new IllegalArgumentException("Invalid packet size.");
+		}
+		this.size = size;
+		for (int k = 0; k < 3; ++k) {
+			originMin[k] = invDirectionMin[k] = Double.POSITIVE_INFINITY;
+			originMax[k] = invDirectionMax[k] = Double.NEGATIVE_INFINITY;
+		}
+		for (int idx = 0; idx < size; ++idx) {
+			Ray ray = rays[idx];
+			MutableVector3d origin = ray.getOrigin();
+			ox[idx] = origin.x;
+			oy[idx] = origin.y;
+			oz[idx] = origin.z;
+			invDx[idx] = ray.getInvDirection(0);
+			invDy[idx] = ray.getInvDirection(1);
+			invDz[idx] = ray.getInvDirection(2);
+			include(0, ox[idx], invDx[idx]);
+			include(1, oy[idx], invDy[idx]);
+			include(2, oz[idx], invDz[idx]);
+			records[idx].reset();
+			hits[idx] = false;
+		}
+
+		coherent = true;
+		for (int k = 0; k < 3; ++k) {
+			if (invDirectionMin[k] < 0.0 && invDirectionMax[k] > 0.0) {
+				coherent = false;
+			}
+		}
+	}
+
+	private void include(int axis, double origin, double invDirection) {
+		originMin[axis] = Math.min(originMin[axis], origin);
+		originMax[axis] = Math.max(originMax[axis], origin);
+		invDirectionMin[axis] = Math.min(invDirectionMin[axis], invDirection);
+		invDirectionMax[axis] = Math.max(invDirectionMax[axis], invDirection);
+	}
+}
@@ -2,9 +2,17 @@ package raytracer;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingWorker;
 
 import raytracer.camera.ImageSensor;
 import raytracer.camera.PinHole;
@@ -25,36 +33,107 @@ public class RayTracer extends JFrame {
 	Renderer renderer;
 	Scene scene;
 
+	/**
+	 * Panel showing the last rendered image. Rendering happens in a
+	 * RenderJob, painting only draws the image. The image is only touched on
+	 * the event dispatch thread.
+	 */
 	class RenderArea extends JPanel {
 		/**
 		 * 
 		 */
 		private static final long serialVersionUID = 5905875225160086819L;
 
+		private final BufferedImage image; /** < tone-mapped image, y down */
+		private final int raster[]; /** < packed 0xRRGGBB pixels backing image */
+
 		RenderArea(int width, int height) {
 			setPreferredSize(new Dimension(width, height));
+			setBackground(Color.black);
+			image = new BufferedImage(imageSensor.getWidth(), imageSensor.getHeight(), BufferedImage.TYPE_INT_RGB);
+			raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		}
+
+		/**
+		 * Shows a tone-mapped image, called on the event dispatch thread.
+		 * 
+		 * @param pixels Packed 0xRRGGBB pixels, y down.
+		 */
+		void setPixels(int pixels[]) {
+			System.arraycopy(pixels, 0, raster, 0, raster.length);
+			repaint();
 		}
 
 		public void paintComponent(Graphics g) {
 			super.paintComponent(g);
+			g.drawImage(image, 0, 0, null);
+		}
+	}
 
-			Rectangle r = new Rectangle();
-			g.getClipBounds(r);
-			g.setColor(Color.black);
-			g.fillRect(r.x, r.y, r.width, r.height);
+	/**
+	 * Background job rendering the scene progressively. After every pass the
+	 * image is tone-mapped into a back buffer on the render thread and copied
+	 * into the render area on the event dispatch thread, so a noisy preview
+	 * shows up after the first pass and Swing never paints a half written
+	 * image. A back buffer the render area has copied is reused by a later
+	 * pass.
+	 *
+	 * With the raytracer.coordinatorPort property set the scene is rendered
+	 * by RenderWorker processes connecting to that port instead, and the
+	 * image shows up once they have rendered every tile.
+	 */
+	class RenderJob extends SwingWorker<Long, int[]> implements RenderListener {
+		private final AtomicReference<int[]> spare = new AtomicReference<>(); /** < back buffer copied to the render area, null if none */
+
+		RenderJob() {
+			// a cancel from here on stops this render, even before it starts
+			renderer.prepare();
+		}
 
+		@Override
+		protected Long doInBackground() throws IOException {
 			long start = System.currentTimeMillis();
-			renderer.render(scene);
-			long finish = System.currentTimeMillis();
-			long timeElapsed = finish - start;
-			System.out.println("Render Time : " + timeElapsed);
-
-			for (int y = 0; y < r.height; ++y) {
-				for (int x = 0; x < r.width; ++x) {
-					Color color = imageSensor.getPixelColor(x, y);
-					g.setColor(color);
-					g.fillRect(x, r.height - y - 1, 1, 1);
+			Integer port = Integer.getInteger("raytracer.coordinatorPort");
+			if (port != null) {
+				try (RenderCoordinator coordinator = new RenderCoordinator(scene, renderer, port)) {
+					coordinator.render();
 				}
+				passCompleted(imageSensor, renderer.getNumSamples());
+			} else {
+				renderer.renderProgressive(scene, this);
+			}
+			long finish = System.currentTimeMillis();
+			return (finish - start);
+		}
+
+		@Override
+		public void passCompleted(ImageSensor imageSensor, int numSamples) {
+			int pixels[] = spare.getAndSet(null);
+			if (pixels == null) {
+				pixels = new int[imageSensor.getWidth() * imageSensor.getHeight()];
+			}
+			imageSensor.toneMap(pixels, true);
+			publish(pixels);
+		}
+
+		@Override
+		protected void process(List<int[]> images) {
+			// only the last of the passes published since the last call is shown
+			int pixels[] = images.get(images.size() - 1);
+			panel.setPixels(pixels);
+			spare.set(pixels);
+		}
+
+		@Override
+		protected void done() {
+			try {
+				long timeElapsed = get();
+				System.out.println("Render Time : " + timeElapsed);
+				System.out.println("Shadow Cache Hit Rate : " + renderer.getShadowCacheHitRate());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
 			}
 		}
 	}
@@ -160,14 +239,24 @@ public class RayTracer extends JFrame {
 
 		}
 
+		// e.g. -Draytracer.checkpoint=render.ckpt -Draytracer.resume=true
+		String checkpoint = System.getProperty("raytracer.checkpoint");
+		if (checkpoint != null) {
+			renderer.setCheckpoint(Paths.get(checkpoint), 60000);
+			renderer.setResume(Boolean.getBoolean("raytracer.resume"));
+		}
+
 		panel = new RenderArea(600, 400);
 		add(panel);
 		pack();
 
 		setVisible(true);
 
+		new RenderJob().execute();
+
 		this.addWindowListener(new WindowAdapter() {
 			public void windowClosing(WindowEvent e) {
+				renderer.cancel();
 				dispose();
 				System.exit(0);
 			}
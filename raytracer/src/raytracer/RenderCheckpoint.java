@@ -0,0 +1,338 @@
+package raytracer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import raytracer.camera.ImageSensor;
+
+/**
+ * Periodic snapshot of a render in progress, from which a render that was
+ * interrupted (e.g. by a crash) can be resumed.
+ *
+ * A render is checkpointed per tile: the number of samples every tile has
+ * taken, the radiance and weight sums of its pixels and, for an adaptive
+ * render, their luminance statistics. The random numbers of a sample only
+ * depend on the seed, the pixel and the sample index (see RandomSampler), so
+ * the seed and the sample counts are the whole generator state, and a
+ * resumed render takes the same samples an uninterrupted one would.
+ *
+ * Render threads hold the lock of a tile while rendering it, the checkpoint
+ * thread copies a tile under the same lock, so it only sees whole tiles and
+ * never blocks more than the one render thread that wants that tile.
+ *
+ * The file is little endian: a header (MAGIC, width, height, tile size,
+ * number of tiles, seed, minimum samples, error threshold, statistics flag)
+ * followed by the bounds and sample count of every tile and, for a tile that
+ * took samples, its pixels in row order. Tiles are found by their bounds, so
+ * a render may be resumed with another tile order. It is written to a
+ * temporary file that is then moved in place, so a crash while writing keeps
+ * the previous one.
+ *
+ * @author Manuel Nunes
+ *
+ */
+class RenderCheckpoint implements Runnable {
+	private static final int MAGIC = 0x52434B31; /** < "RCK1" */
+	private static final int HEADER_SIZE = 41; /** < bytes before the tiles */
+	private static final int CHUNK_SIZE = 1 << 16; /** < bytes written at a time */
+
+	private final Path file;
+	private final Tile tiles[];
+	private final int tileSamples[]; /** < samples taken by every tile, guarded by the tile */
+	private final ImageSensor imageSensor;
+	private final PixelStatistics statistics; /** < null unless the render is adaptive */
+	private final long seed;
+	private final int tileSize;
+	private final int minSamples;
+	private final double errorThreshold;
+
+	private long interval; /** < milliseconds between checkpoints */
+	private Thread thread;
+	private boolean stopping; /** < has stop been called, guarded by this */
+	private IOException failure; /** < first error writing a checkpoint */
+
+	/**
+	 * Constructor
+	 *
+	 * @param file Checkpoint file.
+	 * @param tiles Tiles of the render.
+	 * @param tileSamples Samples taken by every tile, written by the render
+	 *   threads while holding the lock of the tile.
+	 * @param imageSensor Image of the render.
+	 * @param statistics Luminance statistics of an adaptive render, null if none.
+	 * @param seed Seed of the render.
+	 * @param tileSize Width and height of a tile.
+	 * @param minSamples Samples a pixel takes before adaptive sampling can stop it.
+	 * @param errorThreshold Relative standard error at which a pixel stops.
+	 */
+	RenderCheckpoint(Path file, Tile tiles[], int tileSamples[], ImageSensor imageSensor, PixelStatistics statistics,
+			long seed, int tileSize, int minSamples, double errorThreshold) {
+		this.file = file;
+		this.tiles = tiles;
+		this.tileSamples = tileSamples;
+		this.imageSensor = imageSensor;
+		this.statistics = statistics;
+		this.seed = seed;
+		this.tileSize = tileSize;
+		this.minSamples = minSamples;
+		this.errorThreshold = errorThreshold;
+	}
+
+	/**
+	 * Start writing a checkpoint every interval on a background thread.
+	 *
+	 * @param interval Milliseconds between checkpoints.
+	 */
+	void start(long interval) {
+		this.interval = interval;
+		thread = new Thread(this, "Renderer-checkpoint");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the background thread once it has written a last checkpoint.
+	 *
+	 * @throws UncheckedIOException if a checkpoint could not be written.
+	 */
+	void stop() {
+		// not interrupted, that would close the file channel of a write
+		synchronized (this) {
+			stopping = true;
+			notifyAll();
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw new UncheckedIOException("Checkpoint failed.", failure);
+		}
+	}
+
+	@Override
+	public void run() {
+		boolean stopped = false;
+		while (!stopped) {
+			synchronized (this) {
+				long deadline = System.currentTimeMillis() + interval;
+				long remaining = interval;
+				while (!stopping && remaining > 0) {
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						stopping = true;
+					}
+					remaining = deadline - System.currentTimeMillis();
+				}
+				stopped = stopping;
+			}
+			try {
+				write();
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write a checkpoint of the tiles rendered so far.
+	 *
+	 * @throws IOException
+	 */
+	void write() throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				int pixelSize = pixelSize();
+				byte tile[] = new byte[5 * Integer.BYTES + tileSize * tileSize * pixelSize];
+				ByteBuffer tileBuffer = ByteBuffer.wrap(tile).order(ByteOrder.LITTLE_ENDIAN);
+				ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, HEADER_SIZE + tile.length))
+						.order(ByteOrder.LITTLE_ENDIAN);
+				buffer.putInt(MAGIC);
+				buffer.putInt(imageSensor.getWidth());
+				buffer.putInt(imageSensor.getHeight());
+				buffer.putInt(tileSize);
+				buffer.putInt(tiles.length);
+				buffer.putLong(seed);
+				buffer.putInt(minSamples);
+				buffer.putDouble(errorThreshold);
+				buffer.put((byte) (statistics != null ? 1 : 0));
+
+				for (int idx = 0; idx < tiles.length; ++idx) {
+					tileBuffer.clear();
+					copyTile(idx, tileBuffer);
+					tileBuffer.flip();
+					if (buffer.remaining() < tileBuffer.remaining()) {
+						flush(channel, buffer);
+					}
+					buffer.put(tileBuffer);
+				}
+				flush(channel, buffer);
+				channel.force(false);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private static long position(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private int pixelSize() {
+		return ImageSensor.NUM_CHANNELS * Float.BYTES
+				+ ((statistics != null) ? Integer.BYTES + 2 * Double.BYTES : 0);
+	}
+
+	/**
+	 * Copy the samples of a tile while no render thread renders it.
+	 */
+	private void copyTile(int idx, ByteBuffer buffer) {
+		Tile tile = tiles[idx];
+		synchronized (tile) {
+			int samples = tileSamples[idx];
+			buffer.putInt(tile.getX0());
+			buffer.putInt(tile.getY0());
+			buffer.putInt(tile.getX1());
+			buffer.putInt(tile.getY1());
+			buffer.putInt(samples);
+			if (samples == 0) {
+				return;
+			}
+			for (int y = tile.getY0(); y < tile.getY1(); ++y) {
+				for (int x = tile.getX0(); x < tile.getX1(); ++x) {
+					buffer.putFloat(imageSensor.getRadianceSum(x, y, 0));
+					buffer.putFloat(imageSensor.getRadianceSum(x, y, 1));
+					buffer.putFloat(imageSensor.getRadianceSum(x, y, 2));
+					buffer.putFloat(imageSensor.getWeight(x, y));
+					if (statistics != null) {
+						buffer.putInt(statistics.getCount(x, y));
+						buffer.putDouble(statistics.getMean(x, y));
+						buffer.putDouble(statistics.getM2(x, y));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restore the render from the checkpoint file, into a cleared image and
+	 * statistics, before the render threads start.
+	 *
+	 * @return Was there a checkpoint of a render with the same image size,
+	 *   tiles, seed and adaptive sampling settings? Nothing is restored
+	 *   otherwise.
+	 * @throws IOException
+	 */
+	boolean read() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				return (false);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != imageSensor.getWidth()
+					|| buffer.getInt() != imageSensor.getHeight() || buffer.getInt() != tileSize
+					|| buffer.getInt() != tiles.length || buffer.getLong() != seed || buffer.getInt() != minSamples
+					|| buffer.getDouble() != errorThreshold || buffer.get() != (statistics != null ? 1 : 0)) {
+				return (false);
+			}
+
+			// match the tiles of the file, checking the whole file before
+			// changing anything
+			HashMap<Long, Integer> indices = new HashMap<>();
+			for (int idx = 0; idx < tiles.length; ++idx) {
+				indices.put(position(tiles[idx].getX0(), tiles[idx].getY0()), idx);
+			}
+			int start = buffer.position();
+			int pixelSize = pixelSize();
+			int fileTiles[] = new int[tiles.length];
+			for (int k = 0; k < tiles.length; ++k) {
+				Integer idx = indices.remove(position(buffer.getInt(), buffer.getInt()));
+				if (idx == null || buffer.getInt() != tiles[idx].getX1() || buffer.getInt() != tiles[idx].getY1()) {
+					return (false);
+				}
+				int samples = buffer.getInt();
+				if (samples < 0) {
+					return (false);
+				}
+				if (samples > 0) {
+					Tile tile = tiles[idx];
+					int numPixels = (tile.getX1() - tile.getX0()) * (tile.getY1() - tile.getY0());
+					buffer.position(buffer.position() + numPixels * pixelSize);
+				}
+				fileTiles[k] = idx;
+			}
+			if (buffer.hasRemaining()) {
+				return (false);
+			}
+
+			buffer.position(start);
+			imageSensor.clear();
+			for (int k = 0; k < tiles.length; ++k) {
+				int idx = fileTiles[k];
+				buffer.position(buffer.position() + 4 * Integer.BYTES);
+				int samples = buffer.getInt();
+				tileSamples[idx] = samples;
+				if (samples == 0) {
+					continue;
+				}
+				Tile tile = tiles[idx];
+				for (int y = tile.getY0(); y < tile.getY1(); ++y) {
+					for (int x = tile.getX0(); x < tile.getX1(); ++x) {
+						float r = buffer.getFloat();
+						float g = buffer.getFloat();
+						float b = buffer.getFloat();
+						float weight = buffer.getFloat();
+						imageSensor.accumulate(x, y, r, g, b, weight);
+						if (statistics != null) {
+							int count = buffer.getInt();
+							double mean = buffer.getDouble();
+							double m2 = buffer.getDouble();
+							statistics.set(x, y, count, mean, m2);
+						}
+					}
+				}
+			}
+			return (true);
+		} catch (NoSuchFileException e) {
+			return (false);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			// truncated file
+			return (false);
+		}
+	}
+}
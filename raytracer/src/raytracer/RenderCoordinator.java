@@ -0,0 +1,316 @@
+package raytracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+
+import raytracer.camera.ImageSensor;
+
+/**
+ * Coordinator of a render distributed over RenderWorker processes, on the
+ * same machine or on other machines of a network.
+ *
+ * The scene and the renderer, with its camera and settings, are serialized
+ * once and sent to every worker that connects. A worker then asks for as
+ * many tiles as it has threads, renders every sample of them and sends their
+ * radiance sums back, which are accumulated into the image sensor of the
+ * camera. Workers may connect at any time during the render.
+ *
+ * The tiles held by a worker whose connection breaks, e.g. because its
+ * process died, go back to the queue and are handed to another worker. A
+ * tile is only added to the image once all of it has been received, so the
+ * image is the same as that of Renderer#render with the same settings.
+ * A worker that does not answer within the read timeout, e.g. because its
+ * machine hangs without closing the connection, is dropped the same way.
+ *
+ * Protocol, big endian ints and floats over TCP:
+ * coordinator: MAGIC, payload length, payload (serialized Scene and Renderer)
+ * worker: number of tiles wanted
+ * coordinator: number of tiles n, 0 once the render is complete, then
+ *   index, x0, y0, x1, y1 of every tile
+ * worker: for every tile its index then (r,g,b,weight) sums of its pixels
+ *   in row order, then the next request
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class RenderCoordinator implements Closeable {
+	static final int MAGIC = 0x52545231; /** < "RTR1" */
+	public static final int DEFAULT_READ_TIMEOUT = 600000; /** < ms */
+
+	private final Scene scene;
+	private final Renderer renderer;
+	private final ServerSocket serverSocket;
+
+	private Tile tiles[];
+	private boolean done[]; /** < is the tile in the image */
+	private final ArrayDeque<Integer> pending = new ArrayDeque<>(); /** < tiles not handed to a worker */
+	private int numDone; /** < tiles added to the image */
+	private int numWorkers; /** < workers connected so far */
+	private volatile int readTimeout = DEFAULT_READ_TIMEOUT; /** < ms a worker may take to answer, 0 for no limit */
+
+	/**
+	 * Constructor
+	 *
+	 * @param scene Scene to render.
+	 * @param renderer Camera and settings of the render.
+	 * @param port TCP port the workers connect to, 0 for any free port.
+	 * @throws IOException
+	 */
+	public RenderCoordinator(Scene scene, Renderer renderer, int port) throws IOException {
+		if (scene == null || renderer == null) {
+			throw new IllegalArgumentException("Invalid scene or renderer.");
+		}
+		this.scene = scene;
+		this.renderer = renderer;
+		serverSocket = new ServerSocket(port);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return TCP port the workers connect to.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of workers that connected so far.
+	 */
+	public synchronized int getNumWorkers() {
+		return (numWorkers);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Time in ms a worker may take to answer, 0 for no limit.
+	 */
+	public int getReadTimeout() {
+		return (readTimeout);
+	}
+
+	/**
+	 * Setter
+	 *
+	 * The timeout must cover the time a worker takes to prepare the scene and
+	 * to render all the tiles it asked for.
+	 *
+	 * @param readTimeout Time in ms a worker may take to answer, 0 for no
+	 *   limit. Applies to workers that connect afterwards.
+	 */
+	public void setReadTimeout(int readTimeout) {
+		if (readTimeout < 0) {
+			throw new IllegalArgumentException("Invalid read timeout.");
+		}
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Renders the scene on the workers that connect, until every tile has
+	 * been added to the image sensor of the camera. The coordinator stops
+	 * accepting workers when it returns.
+	 *
+	 * @throws IOException if the scene cannot be serialized or the render is
+	 *   interrupted.
+	 */
+	public void render() throws IOException {
+		ImageSensor imageSensor = renderer.getCamera().getImageSensor();
+		Tile tiles[] = renderer.createTiles();
+		imageSensor.clear();
+		byte payload[] = serialize();
+
+		synchronized (this) {
+			this.tiles = tiles;
+			done = new boolean[tiles.length];
+			pending.clear();
+			for (int idx = 0; idx < tiles.length; ++idx) {
+				pending.add(idx);
+			}
+			numDone = 0;
+		}
+
+		Thread acceptor = new Thread(() -> accept(payload), "RenderCoordinator");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		try {
+			synchronized (this) {
+				while (numDone < tiles.length) {
+					wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Render interrupted.");
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Stop accepting workers.
+	 */
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	/**
+	 * Serialize the scene and the renderer into one stream, so that the
+	 * camera they share is sent once.
+	 */
+	private byte[] serialize() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(scene);
+			out.writeObject(renderer);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void accept(byte payload[]) {
+		while (!serverSocket.isClosed()) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				// closed at the end of the render
+				return;
+			}
+			synchronized (this) {
+				++numWorkers;
+			}
+			Thread thread = new Thread(() -> serve(socket, payload),
+					"RenderCoordinator-" + socket.getRemoteSocketAddress());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Hand out tiles to one worker and collect its results until the render
+	 * is complete or the connection breaks.
+	 */
+	private void serve(Socket socket, byte payload[]) {
+		int assigned[] = new int[0];
+		int numAssigned = 0;
+		try (socket) {
+			socket.setKeepAlive(true);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(readTimeout);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(MAGIC);
+			out.writeInt(payload.length);
+			out.write(payload);
+			out.flush();
+
+			while (true) {
+				int numWanted = in.readInt();
+				if (numWanted < 1) {
+					throw new IOException("Invalid tile request.");
+				}
+				if (assigned.length < numWanted) {
+					assigned = new int[numWanted];
+				}
+				numAssigned = take(assigned, numWanted);
+				out.writeInt(numAssigned);
+				for (int k = 0; k < numAssigned; ++k) {
+					Tile tile = tiles[assigned[k]];
+					out.writeInt(assigned[k]);
+					out.writeInt(tile.getX0());
+					out.writeInt(tile.getY0());
+					out.writeInt(tile.getX1());
+					out.writeInt(tile.getY1());
+				}
+				out.flush();
+				if (numAssigned == 0) {
+					return;
+				}
+
+				for (int k = 0; k < numAssigned; ++k) {
+					int idx = in.readInt();
+					if (idx != assigned[k]) {
+						throw new IOException("Unexpected tile " + idx + ".");
+					}
+					Tile tile = tiles[idx];
+					float sums[] = new float[(tile.getX1() - tile.getX0()) * (tile.getY1() - tile.getY0())
+							* ImageSensor.NUM_CHANNELS];
+					for (int c = 0; c < sums.length; ++c) {
+						sums[c] = in.readFloat();
+					}
+					complete(idx, sums);
+				}
+				numAssigned = 0;
+			}
+		} catch (SocketTimeoutException e) {
+			// the worker hangs, its tiles go to the other workers
+		} catch (IOException e) {
+			// the worker died or left, its tiles go to the other workers
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			requeue(assigned, numAssigned);
+		}
+	}
+
+	/**
+	 * Take up to numWanted tiles, waiting while all remaining tiles are held
+	 * by other workers which may still die.
+	 *
+	 * @return Number of tiles taken, 0 once every tile is in the image.
+	 */
+	private synchronized int take(int assigned[], int numWanted) throws InterruptedException {
+		while (pending.isEmpty() && numDone < tiles.length) {
+			wait();
+		}
+		int n = 0;
+		while (n < numWanted && !pending.isEmpty()) {
+			assigned[n++] = pending.poll();
+		}
+		return (n);
+	}
+
+	/**
+	 * Add a rendered tile to the image.
+	 */
+	private synchronized void complete(int idx, float sums[]) {
+		ImageSensor imageSensor = renderer.getCamera().getImageSensor();
+		Tile tile = tiles[idx];
+		int c = 0;
+		for (int y = tile.getY0(); y < tile.getY1(); ++y) {
+			for (int x = tile.getX0(); x < tile.getX1(); ++x) {
+				imageSensor.accumulate(x, y, sums[c], sums[c + 1], sums[c + 2], sums[c + 3]);
+				c += ImageSensor.NUM_CHANNELS;
+			}
+		}
+		done[idx] = true;
+		++numDone;
+		notifyAll();
+	}
+
+	/**
+	 * Return the tiles a worker did not complete to the queue.
+	 */
+	private synchronized void requeue(int assigned[], int numAssigned) {
+		for (int k = numAssigned - 1; k >= 0; --k) {
+			if (!done[assigned[k]]) {
+				pending.addFirst(assigned[k]);
+			}
+		}
+		notifyAll();
+	}
+}
@@ -0,0 +1,127 @@
+package raytracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static raytracer.RenderFixture.assertSameImage;
+import static raytracer.RenderFixture.createScene;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import raytracer.camera.ImageSensor;
+
+class RenderCoordinatorTest {
+
+	private static Renderer createRenderer(Scene scene) {
+		Renderer renderer = RenderFixture.createRenderer(2, 1);
+		scene.add(renderer.getCamera());
+		return (renderer);
+	}
+
+	@Test
+	void testDistributedRenderMatchesLocalRender() throws Exception {
+		Scene scene = createScene();
+		Renderer renderer = createRenderer(scene);
+		renderer.render(scene);
+		ImageSensor expected = renderer.getCamera().getImageSensor();
+
+		Scene distributedScene = createScene();
+		Renderer distributedRenderer = createRenderer(distributedScene);
+		RenderCoordinator coordinator = new RenderCoordinator(distributedScene, distributedRenderer, 0);
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			try {
+				coordinator.render();
+			} catch (IOException e) {
+				failure.set(e);
+			}
+		});
+		thread.start();
+
+		// a worker that dies holding tiles, which go to the other workers
+		try (Socket socket = new Socket("localhost", coordinator.getPort())) {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			assertEquals(RenderCoordinator.MAGIC, in.readInt());
+			in.readFully(new byte[in.readInt()]);
+			out.writeInt(3);
+			out.flush();
+			assertEquals(3, in.readInt());
+		}
+
+		RenderWorker worker = new RenderWorker("localhost", coordinator.getPort());
+		worker.setNumThreads(2);
+		Thread other = new Thread(() -> {
+			try {
+				new RenderWorker("localhost", coordinator.getPort()).run();
+			} catch (IOException e) {
+				// the render may complete before it connects
+			}
+		});
+		other.start();
+		worker.run();
+		thread.join();
+		other.join();
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		assertSameImage(expected, distributedRenderer.getCamera().getImageSensor());
+	}
+
+	@Test
+	void testHungWorkerTilesAreRequeued() throws Exception {
+		Scene scene = createScene();
+		Renderer renderer = createRenderer(scene);
+		renderer.render(scene);
+		ImageSensor expected = renderer.getCamera().getImageSensor();
+
+		Scene distributedScene = createScene();
+		Renderer distributedRenderer = createRenderer(distributedScene);
+		RenderCoordinator coordinator = new RenderCoordinator(distributedScene, distributedRenderer, 0);
+		coordinator.setReadTimeout(500);
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		Thread thread = new Thread(() -> {
+			try {
+				coordinator.render();
+			} catch (IOException e) {
+				failure.set(e);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+
+		// a worker that takes tiles and never answers nor closes its connection
+		try (Socket socket = new Socket("localhost", coordinator.getPort())) {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			assertEquals(RenderCoordinator.MAGIC, in.readInt());
+			in.readFully(new byte[in.readInt()]);
+			out.writeInt(3);
+			out.flush();
+			assertEquals(3, in.readInt());
+
+			Thread worker = new Thread(() -> {
+				try {
+					new RenderWorker("localhost", coordinator.getPort()).run();
+				} catch (IOException e) {
+					failure.set(e);
+				}
+			});
+			worker.setDaemon(true);
+			worker.start();
+			thread.join(30000);
+			assertFalse("Render waits for the hung worker.", thread.isAlive());
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		assertSameImage(expected, distributedRenderer.getCamera().getImageSensor());
+	}
+}
@@ -0,0 +1,63 @@
+package raytracer;
+
+import static org.junit.Assert.assertEquals;
+
+import raytracer.camera.ImageSensor;
+import raytracer.camera.PinHole;
+import raytracer.geometry.Plane;
+import raytracer.geometry.Sphere;
+import raytracer.material.MatteMaterial;
+
+/**
+ * Scene, renderer and image assertions shared by the render tests.
+ *
+ * @author Manuel Nunes
+ *
+ */
+final class RenderFixture {
+	private RenderFixture() {
+	}
+
+	/**
+	 * @return Row of five spheres on a plane, lit by one light casting shadows.
+	 */
+	static Scene createScene() {
+		Scene scene = new Scene();
+		scene.add(new Light(new Vector3f(50.0f, 80.0f, 50.0f), new Vector3f(2.0f), true));
+		for (int idx = 0; idx < 5; ++idx) {
+			Sphere sphere = new Sphere(new Vector3f(idx * 15.0f - 30.0f, 8.0f, 0.0f), 6.0f);
+			scene.add(new Primitive(new MatteMaterial(new Vector3f(0.2f * idx, 0.5f, 0.5f)), sphere));
+		}
+		scene.add(new Primitive(new MatteMaterial(new Vector3f(0.5f)),
+				new Plane(new Vector3f(0.0f), new Vector3f(0.0f, 1.0f, 0.0f))));
+		return (scene);
+	}
+
+	/**
+	 * @param numSamples Samples per pixel.
+	 * @param numThreads Number of worker threads.
+	 * @return Renderer of a 48x32 image of the scene in 8x8 tiles.
+	 */
+	static Renderer createRenderer(int numSamples, int numThreads) {
+		ImageSensor imageSensor = new ImageSensor(48, 32);
+		PinHole pinhole = new PinHole(imageSensor);
+		pinhole.setLookAt(new Vector3d(0.0, 20.0, 100.0), new Vector3d(0.0, 1.0, 0.0), new Vector3d(0.0));
+		pinhole.setViewDistance(40.0);
+		Renderer renderer = new Renderer(pinhole);
+		renderer.setNumSamples(numSamples);
+		renderer.setTileSize(8);
+		renderer.setNumThreads(numThreads);
+		return (renderer);
+	}
+
+	static void assertSameImage(ImageSensor expected, ImageSensor image) {
+		for (int y = 0; y < image.getHeight(); ++y) {
+			for (int x = 0; x < image.getWidth(); ++x) {
+				assertEquals(expected.getWeight(x, y), image.getWeight(x, y), 0.0f);
+				for (int channel = 0; channel < 3; ++channel) {
+					assertEquals(expected.getRadianceSum(x, y, channel), image.getRadianceSum(x, y, channel), 0.0f);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package raytracer;
+
+import raytracer.camera.ImageSensor;
+
+/**
+ * Receiver of the intermediate images of a progressive render, for example
+ * a viewer or a file sink.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public interface RenderListener {
+	/**
+	 * Called on the thread running the render after every pass, while no
+	 * worker writes to the image sensor. The image has to be read before
+	 * returning, the next pass starts once this returns.
+	 *
+	 * @param imageSensor accumulated samples, normalised by
+	 *   {@link ImageSensor#getRGB(int, int)} and
+	 *   {@link ImageSensor#getRadiance(int, int, int)}.
+	 * @param numSamples samples per pixel accumulated so far.
+	 */
+	void passCompleted(ImageSensor imageSensor, int numSamples);
+}
@@ -0,0 +1,145 @@
+package raytracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.Socket;
+import java.util.Arrays;
+
+import raytracer.camera.ImageSensor;
+
+/**
+ * Worker process of a distributed render, see RenderCoordinator.
+ *
+ * The worker receives the scene and the renderer, builds the scene hierarchy
+ * and renders the tiles it is handed with its own threads until the
+ * coordinator reports that the render is complete.
+ *
+ * Usage: java raytracer.RenderWorker host port [threads]
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class RenderWorker {
+	private final String host;
+	private final int port;
+	private int numThreads; /** < render threads, also the number of tiles asked for at a time */
+
+	/**
+	 * Constructor
+	 *
+	 * @param host Host of the coordinator.
+	 * @param port TCP port of the coordinator.
+	 */
+	public RenderWorker(String host, int port) {
+		this.host = host;
+		this.port = port;
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param numThreads Number of render threads.
+	 */
+	public void setNumThreads(int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads.");
+		}
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Connects to the coordinator and renders tiles until the render is
+	 * complete.
+	 *
+	 * @return Number of tiles rendered.
+	 * @throws IOException if the connection breaks or the coordinator does
+	 *   not follow the protocol.
+	 */
+	public int run() throws IOException {
+		try (Socket socket = new Socket(host, port)) {
+			socket.setKeepAlive(true);
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			if (in.readInt() != RenderCoordinator.MAGIC) {
+				throw new IOException("Not a render coordinator.");
+			}
+			byte payload[] = new byte[in.readInt()];
+			in.readFully(payload);
+
+			Scene scene;
+			Renderer renderer;
+			try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+				scene = (Scene) objects.readObject();
+				renderer = (Renderer) objects.readObject();
+			} catch (ClassNotFoundException | ClassCastException e) {
+				throw new IOException("Invalid scene.", e);
+			}
+			renderer.setNumThreads(numThreads);
+			ImageSensor imageSensor = renderer.getCamera().getImageSensor();
+			scene.build();
+			renderer.start(imageSensor);
+
+			int numRendered = 0;
+			int indices[] = new int[numThreads];
+			Tile tiles[] = new Tile[numThreads];
+			while (true) {
+				out.writeInt(numThreads);
+				out.flush();
+				int n = in.readInt();
+				if (n == 0) {
+					return (numRendered);
+				}
+				if (n < 0 || n > numThreads) {
+					throw new IOException("Invalid number of tiles.");
+				}
+				for (int k = 0; k < n; ++k) {
+					indices[k] = in.readInt();
+					int x0 = in.readInt();
+					int y0 = in.readInt();
+					int x1 = in.readInt();
+					int y1 = in.readInt();
+					if (x0 < 0 || y0 < 0 || x1 > imageSensor.getWidth() || y1 > imageSensor.getHeight() || x0 >= x1
+							|| y0 >= y1) {
+						throw new IOException("Invalid tile.");
+					}
+					tiles[k] = new Tile(x0, y0, x1, y1);
+				}
+
+				renderer.renderTiles(scene, (n == numThreads) ? tiles : Arrays.copyOf(tiles, n));
+
+				for (int k = 0; k < n; ++k) {
+					Tile tile = tiles[k];
+					out.writeInt(indices[k]);
+					for (int y = tile.getY0(); y < tile.getY1(); ++y) {
+						for (int x = tile.getX0(); x < tile.getX1(); ++x) {
+							out.writeFloat(imageSensor.getRadianceSum(x, y, 0));
+							out.writeFloat(imageSensor.getRadianceSum(x, y, 1));
+							out.writeFloat(imageSensor.getRadianceSum(x, y, 2));
+							out.writeFloat(imageSensor.getWeight(x, y));
+						}
+					}
+				}
+				numRendered += n;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: java raytracer.RenderWorker host port [threads]");
+			System.exit(1);
+		}
+		RenderWorker worker = new RenderWorker(args[0], Integer.parseInt(args[1]));
+		if (args.length > 2) {
+			worker.setNumThreads(Integer.parseInt(args[2]));
+		}
+		System.out.println("Tiles rendered : " + worker.run());
+	}
+}
@@ -1,16 +1,92 @@
 package raytracer;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import raytracer.camera.Camera;
+import raytracer.camera.ImageSensor;
 import raytracer.material.BxDF;
 import raytracer.material.Material;
 
 /**
  * Renderer Class
+ *
+ * The image sensor is split into tiles which a pool of worker threads take
+ * one at a time from a shared counter, so that a thread that finishes a cheap
+ * tile moves on to the next instead of waiting for an expensive one. The pool
+ * is created by the first render and kept for the passes and tile batches
+ * that follow, its idle threads time out.
+ *
+ * The tiles are taken in the tile order, e.g. from the centre out, with the
+ * tiles of the region of interest first. A crop window limits the render to
+ * part of the image, the pixels outside of it are left black. A render that
+ * is cancelled stops once every worker has finished its current tile. A
+ * cancel stays in effect until the next render is prepared, so a render that
+ * is cancelled before its thread gets to start it renders nothing.
+ *
+ * A progressive render takes one sample per pixel per pass and hands the
+ * image accumulated so far to a RenderListener after every pass. Sample n of
+ * a pixel is the same in both modes, so a progressive render that runs to
+ * its sample target gives the same image as render.
+ *
+ * With an error threshold set, sampling is adaptive: a pixel stops taking
+ * samples once it has the minimum number of samples and the standard error of
+ * its mean luminance is below the threshold relative to that mean, or once it
+ * reaches the number of samples per pixel.
+ *
+ * With a packet size set, primary rays are traced in packets, one ray for
+ * each pixel of a square block of a tile that still takes samples, which
+ * share their traversal of the scene hierarchy. Blocks with only a few such
+ * pixels left are traced one ray at a time. Packets pay off on a binary
+ * hierarchy, a wide hierarchy traces single rays about as fast.
+ *
+ * Neighbouring shadow rays towards a light are usually blocked by the same
+ * primitive, so every worker remembers the primitive that last blocked a
+ * shadow ray towards each light and tests it before the scene hierarchy.
+ *
+ * With a checkpoint file set, a background thread saves the tiles rendered so
+ * far to it periodically and at the end of a render, and a render set to
+ * resume continues from the checkpoint instead of starting over. The samples
+ * of a pixel do not depend on when they are taken, so a resumed render gives
+ * the same image as an uninterrupted one.
+ *
  * @author Manuel Nunes
  *
  */
-public class Renderer {
+public class Renderer implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	private Camera camera;
+	private int numSamples = 16; /** < samples per pixel */
+	private int numThreads; /** < number of worker threads */
+	private transient ThreadPoolExecutor executor; /** < pool of numThreads worker threads, null until the first render */
+	private int tileSize = 16; /** < width and height of a tile in pixels */
+	private int packetSize = 1; /** < width and height of a block of pixels traced as a packet, 1 disables packets */
+	private TileOrder tileOrder = TileOrder.ROWS; /** < order in which the tiles are rendered */
+	private Tile cropWindow; /** < part of the image that is rendered, null for the whole image */
+	private Tile regionOfInterest; /** < part of the image whose tiles are rendered first, null if none */
+	private long seed; /** < seed of the random samples, renders with the same seed are identical */
+	private int minSamples = 4; /** < samples a pixel takes before adaptive sampling can stop it */
+	private double errorThreshold; /** < relative standard error at which a pixel stops, 0 disables adaptive sampling */
+	private transient PixelStatistics statistics; /** < per pixel luminance statistics of an adaptive render */
+	private transient volatile boolean cancelled; /** < set by cancel to stop the render in progress, cleared by prepare */
+	private transient Path checkpointFile; /** < file of the checkpoints of a render, null disables them */
+	private transient long checkpointInterval = 60000; /** < milliseconds between checkpoints */
+	private transient boolean resume; /** < does the next render continue from the checkpoint file */
+	private transient boolean resumed; /** < did the last render continue from a checkpoint */
+	private transient long numShadowRays; /** < shadow rays traced by the last render */
+	private transient long numShadowCacheHits; /** < shadow rays of the last render blocked by the last occluder of their light */
+
+	private static final int MIN_PACKET_RAYS = 4; /** < blocks with fewer pixels taking samples trace single rays */
 
 	/**
 	 * Constructor
@@ -18,67 +94,792 @@ public class Renderer {
 	 */
 	Renderer(Camera camera) {
 		this.camera = camera;
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param numSamples Samples per pixel, the target of a progressive render.
+	 */
+	public void setNumSamples(int numSamples) {
+		if (numSamples < 1) {
+			throw new IllegalArgumentException("Invalid number of samples.");
+		}
+		this.numSamples = numSamples;
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param minSamples Samples a pixel takes before adaptive sampling can stop it.
+	 */
+	public void setMinSamples(int minSamples) {
+		if (minSamples < 1) {
+			throw new IllegalArgumentException("Invalid number of samples.");
+		}
+		this.minSamples = minSamples;
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param errorThreshold Relative standard error of the mean luminance at
+	 *   which a pixel stops taking samples, 0 disables adaptive sampling.
+	 */
+	public void setErrorThreshold(double errorThreshold) {
+		if (!(errorThreshold >= 0.0)) {
+			throw new IllegalArgumentException("Invalid error threshold.");
+		}
+		this.errorThreshold = errorThreshold;
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param numThreads Number of worker threads used by render.
+	 */
+	public synchronized void setNumThreads(int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("Invalid number of threads.");
+		}
+		this.numThreads = numThreads;
+		if (executor != null) {
+			// the core size may never exceed the maximum size
+			if (numThreads > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(numThreads);
+				executor.setCorePoolSize(numThreads);
+			} else {
+				executor.setCorePoolSize(numThreads);
+				executor.setMaximumPoolSize(numThreads);
+			}
+		}
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param tileSize Width and height of a tile in pixels.
+	 */
+	public void setTileSize(int tileSize) {
+		if (tileSize < 1) {
+			throw new IllegalArgumentException("Invalid tile size.");
+		}
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param packetSize Width and height of a block of pixels whose primary
+	 *   rays are traced as a packet, 1 traces every ray on its own.
+	 */
+	public void setPacketSize(int packetSize) {
+		if (packetSize < 1) {
+			throw new IllegalArgumentException("Invalid packet size.");
+		}
+		this.packetSize = packetSize;
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param tileOrder Order in which the tiles are rendered.
+	 */
+	public void setTileOrder(TileOrder tileOrder) {
+		if (tileOrder == null) {
+			throw new IllegalArgumentException("Invalid tile order.");
+		}
+		this.tileOrder = tileOrder;
+	}
+
+	/**
+	 * Setter
+	 * Limits the render to the pixels [x0,x1) x [y0,y1).
+	 *
+	 * @param x0 First column.
+	 * @param y0 First row.
+	 * @param x1 Column one past the last.
+	 * @param y1 Row one past the last.
+	 */
+	public void setCropWindow(int x0, int y0, int x1, int y1) {
+		cropWindow = window(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Render the whole image again after setCropWindow.
+	 */
+	public void clearCropWindow() {
+		cropWindow = null;
+	}
+
+	/**
+	 * Setter
+	 * Renders the tiles overlapping the pixels [x0,x1) x [y0,y1) first,
+	 * ordered around the centre of the region.
+	 *
+	 * @param x0 First column.
+	 * @param y0 First row.
+	 * @param x1 Column one past the last.
+	 * @param y1 Row one past the last.
+	 */
+	public void setRegionOfInterest(int x0, int y0, int x1, int y1) {
+		regionOfInterest = window(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Order the tiles around the centre of the image or crop window again
+	 * after setRegionOfInterest.
+	 */
+	public void clearRegionOfInterest() {
+		regionOfInterest = null;
+	}
+
+	private Tile window(int x0, int y0, int x1, int y1) {
+		ImageSensor imageSensor = camera.getImageSensor();
+		if (x0 < 0 || y0 < 0 || x1 > imageSensor.getWidth() || y1 > imageSensor.getHeight() || x0 >= x1 || y0 >= y1) {
+			throw new IllegalArgumentException("Invalid window.");
+		}
+		return new Tile(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param checkpointFile File the render in progress is saved to, null
+	 *   disables checkpoints.
+	 * @param checkpointInterval Milliseconds between checkpoints.
+	 */
+	public void setCheckpoint(Path checkpointFile, long checkpointInterval) {
+		if (checkpointInterval < 1) {
+			throw new IllegalArgumentException("Invalid checkpoint interval.");
+		}
+		this.checkpointFile = checkpointFile;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param resume Should the next render continue from the checkpoint file?
+	 *   It starts over if there is no checkpoint of a render of the same
+	 *   image size, tile size, seed and adaptive sampling settings.
+	 */
+	public void setResume(boolean resume) {
+		this.resume = resume;
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param seed Seed of the random samples, renders with the same seed are identical.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Samples per pixel, the target of a progressive render.
+	 */
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Samples a pixel takes before adaptive sampling can stop it.
+	 */
+	public int getMinSamples() {
+		return minSamples;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Relative standard error of the mean luminance at which a pixel
+	 *   stops taking samples, 0 when adaptive sampling is disabled.
+	 */
+	public double getErrorThreshold() {
+		return errorThreshold;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of worker threads used by render.
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Camera whose image sensor receives the image.
+	 */
+	public Camera getCamera() {
+		return camera;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Width and height of a tile in pixels.
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Width and height of a block of pixels traced as a packet.
+	 */
+	public int getPacketSize() {
+		return packetSize;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Order in which the tiles are rendered.
+	 */
+	public TileOrder getTileOrder() {
+		return tileOrder;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Part of the image that is rendered, null for the whole image.
+	 */
+	public Tile getCropWindow() {
+		return cropWindow;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Part of the image whose tiles are rendered first, null if none.
+	 */
+	public Tile getRegionOfInterest() {
+		return regionOfInterest;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Was the last render cancelled?
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return File the render in progress is saved to, null if none.
+	 */
+	public Path getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Did the last render continue from a checkpoint?
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Fraction of the shadow rays of the last render that were
+	 *   blocked by the primitive that blocked the previous shadow ray
+	 *   towards the same light, 0 if no shadow rays were traced.
+	 */
+	public double getShadowCacheHitRate() {
+		return (numShadowRays > 0) ? (double) numShadowCacheHits / numShadowRays : 0.0;
 	}
 
 	/**
 	 * Renders the scene
-	 * @param scene 
+	 * @param scene
 	 */
 	void render(Scene scene) {
-		int numSamples = 16;
-		int width = camera.getImageSensor().getWidth();
-		int height = camera.getImageSensor().getHeight();
-		Vector3d La = scene.getAmbientLight();
-
-		for (int y = 0; y < height; ++y) {
-			for (int x = 0; x < width; ++x) {
-				Vector3d Lo = new Vector3d(0.0f, 0.0f, 0.0f);
-				for (int sample = 0; sample < numSamples; sample++) {
-					Mutable<Double> mTmin = Mutable.valueOf(null);
-					Mutable<Vector3d> mNormal = Mutable.valueOf(null);
-					Mutable<Material> mMaterial = Mutable.valueOf(null);
-
-					Ray ray = camera.sampleRay(x, y);
-					if (scene.hit(ray, mTmin, mNormal, mMaterial)) {
-						Vector3d wo = ray.getDirection().negated();
-						Vector3d rho = mMaterial.get().rho(mNormal.get(), wo, BxDF.REFLECTIVE);
-						Lo = Lo.add(La.multiply(rho));
-
-						Vector3d hitPoint = ray.getHitPoint(mTmin.get());
-						int numLights = scene.getNumLights();
-						for (int i = 0; i < numLights; i++) {
-							Vector3d surfaceToLightVec = (scene.getLight(i).getPosition()).subtract(hitPoint);
-
-							Vector3d wi = surfaceToLightVec.normalize(); // normalized vec
-							double nDotWi = mNormal.get().dot(wi);
-
-							if (nDotWi > 0.0) {
-								boolean inShadow = false;
-
-								if (scene.getLight(i).castsShadows()) {
-									Ray shadowRay = new Ray(hitPoint, wi);
-									double d = surfaceToLightVec.magnitude();
-									Mutable<Double> mTmin_ = Mutable.valueOf(Double.valueOf(Double.MAX_VALUE));
-									if (scene.hit(shadowRay, mTmin_) && mTmin_.get() < d) {
-										inShadow = true;
-									}
-								}
-
-								if (!inShadow) {
-									Vector3d Li = scene.getLight(i).Le();
-									Lo = Lo.add(mMaterial.get().f(mNormal.get(), wo, wi, BxDF.REFLECTIVE)
-											.multiply(Li).multiply(nDotWi));
-								}
-							}
+		ImageSensor imageSensor = camera.getImageSensor();
+		Tile tiles[] = createTiles();
+
+		// build once here, the workers only read the scene
+		scene.build();
+		start(imageSensor);
+		int tileSamples[] = new int[tiles.length];
+		RenderCheckpoint checkpoint = startCheckpoints(imageSensor, tiles, tileSamples);
+
+		try {
+			renderPass(scene, tiles, tileSamples, 0, numSamples);
+		} finally {
+			if (checkpoint != null) {
+				checkpoint.stop();
+			}
+		}
+	}
+
+	/**
+	 * Renders the scene progressively, one sample per pixel per pass, until
+	 * the number of samples per pixel is reached or the render is cancelled.
+	 *
+	 * @param scene
+	 * @param listener Receiver of the image after every pass.
+	 * @return Number of passes completed.
+	 */
+	int renderProgressive(Scene scene, RenderListener listener) {
+		ImageSensor imageSensor = camera.getImageSensor();
+		Tile tiles[] = createTiles();
+
+		scene.build();
+		start(imageSensor);
+		int tileSamples[] = new int[tiles.length];
+		RenderCheckpoint checkpoint = startCheckpoints(imageSensor, tiles, tileSamples);
+
+		// a checkpoint may have been taken in the middle of a pass
+		int firstPass = Arrays.stream(tileSamples).min().orElse(0);
+		boolean partialPass = Arrays.stream(tileSamples).anyMatch(samples -> samples != firstPass);
+		int pass;
+		try {
+			for (pass = firstPass; pass < numSamples && !cancelled; ++pass) {
+				long numSamplesTaken = renderPass(scene, tiles, tileSamples, pass, pass + 1);
+				if (cancelled || (numSamplesTaken == 0 && !partialPass)) {
+					// all pixels converged in an earlier pass
+					break;
+				}
+				partialPass = false;
+				listener.passCompleted(imageSensor, pass + 1);
+			}
+		} finally {
+			if (checkpoint != null) {
+				checkpoint.stop();
+			}
+		}
+		return (pass);
+	}
+
+	/**
+	 * Split the crop window, or the whole image, into tiles in the order in
+	 * which they are rendered.
+	 *
+	 * @return tiles
+	 */
+	Tile[] createTiles() {
+		ImageSensor imageSensor = camera.getImageSensor();
+		Tile tiles[] = Tile.split(imageSensor.getWidth(), imageSensor.getHeight(), tileSize);
+		Tile window = new Tile(0, 0, imageSensor.getWidth(), imageSensor.getHeight());
+		if (cropWindow != null) {
+			tiles = Tile.crop(tiles, cropWindow);
+			window = cropWindow;
+		}
+		tileOrder.sort(tiles, (regionOfInterest != null) ? regionOfInterest : window, tileSize);
+		return (tiles);
+	}
+
+	/**
+	 * Renders every sample of some tiles, adding them to the image. Unlike
+	 * render the image is not reset, a RenderWorker starts once and then
+	 * renders the tiles handed out by its coordinator a batch at a time.
+	 *
+	 * @param scene
+	 * @param tiles Tiles to render, each rendered once per start.
+	 */
+	void renderTiles(Scene scene, Tile tiles[]) {
+		scene.build();
+		renderPass(scene, tiles, new int[tiles.length], 0, numSamples);
+	}
+
+	/**
+	 * Reset the image and the state of the previous render.
+	 */
+	void start(ImageSensor imageSensor) {
+		imageSensor.clear();
+		statistics = (errorThreshold > 0.0)
+				? new PixelStatistics(imageSensor.getWidth(), imageSensor.getHeight())
+				: null;
+		numShadowRays = 0;
+		numShadowCacheHits = 0;
+		resumed = false;
+	}
+
+	/**
+	 * Restore the render from the checkpoint file if it is to be resumed and
+	 * start writing checkpoints.
+	 *
+	 * @return Checkpoint writer, null if checkpoints are disabled.
+	 */
+	private RenderCheckpoint startCheckpoints(ImageSensor imageSensor, Tile tiles[], int tileSamples[]) {
+		if (checkpointFile == null) {
+			return (null);
+		}
+		RenderCheckpoint checkpoint = new RenderCheckpoint(checkpointFile, tiles, tileSamples, imageSensor, statistics,
+				seed, tileSize, minSamples, errorThreshold);
+		if (resume) {
+			try {
+				resumed = checkpoint.read();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Checkpoint cannot be read.", e);
+			}
+		}
+		checkpoint.start(checkpointInterval);
+		return (checkpoint);
+	}
+
+	/**
+	 * Prepare the next render, clearing the cancel of an earlier one. Called
+	 * when the render is set up (e.g. on the event dispatch thread before the
+	 * render is handed to a background thread), so that a cancel that arrives
+	 * before the render starts still stops it.
+	 */
+	public void prepare() {
+		cancelled = false;
+	}
+
+	/**
+	 * Cancel the render in progress, or the prepared render if it has not
+	 * started yet. Workers stop at the next tile, leaving the image with the
+	 * samples accumulated so far.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Render samples [firstSample, lastSample) of every pixel on the worker
+	 * threads and wait for them. Tiles that have already taken some of these
+	 * samples, according to tileSamples, only take the others.
+	 *
+	 * @return Number of samples taken, less than requested for pixels that
+	 *   adaptive sampling stopped.
+	 */
+	private long renderPass(Scene scene, Tile tiles[], int tileSamples[], int firstSample, int lastSample) {
+		AtomicInteger nextTile = new AtomicInteger();
+		ThreadPoolExecutor executor = getExecutor();
+
+		Worker workers[] = new Worker[numThreads];
+		Future<?> futures[] = new Future<?>[numThreads];
+		for (int idx = 0; idx < numThreads; ++idx) {
+			workers[idx] = new Worker(scene, tiles, tileSamples, nextTile, firstSample, lastSample);
+			futures[idx] = executor.submit(workers[idx]);
+		}
+
+		boolean interrupted = false;
+		for (int idx = 0; idx < numThreads; ++idx) {
+			while (true) {
+				try {
+					futures[idx].get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					// workers record their own failures
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (int idx = 0; idx < numThreads; ++idx) {
+			if (workers[idx].failure != null) {
+				throw new RuntimeException("Render worker failed.", workers[idx].failure);
+			}
+		}
+
+		long numSamplesTaken = 0;
+		for (int idx = 0; idx < numThreads; ++idx) {
+			numSamplesTaken += workers[idx].numSamplesTaken;
+			numShadowRays += workers[idx].numShadowRays;
+			numShadowCacheHits += workers[idx].numShadowCacheHits;
+		}
+		return (numSamplesTaken);
+	}
+
+	/**
+	 * Getter, creates the pool of worker threads on first use. The threads
+	 * are daemons so that an idle pool does not keep the JVM alive.
+	 *
+	 * @return Pool of numThreads worker threads.
+	 */
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			AtomicInteger nextThread = new AtomicInteger();
+			executor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(), runnable -> {
+						Thread thread = new Thread(runnable, "Renderer-" + nextThread.getAndIncrement());
+						thread.setDaemon(true);
+						return (thread);
+					});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return (executor);
+	}
+
+	/**
+	 * Render thread, owns the scratch state and sampler used while rendering
+	 * its tiles. The sampler is restarted for every pixel sample, so the image
+	 * does not depend on which worker rendered a tile. The rays and vectors are
+	 * reused for every sample so the render loop does not allocate.
+	 */
+	private class Worker implements Runnable {
+		private final Scene scene;
+		private final Tile tiles[];
+		private final int tileSamples[]; /** < samples taken by every tile, guarded by the tile */
+		private final AtomicInteger nextTile;
+		private final int firstSample;
+		private final int lastSample;
+		private final ImageSensor imageSensor = camera.getImageSensor();
+		private final HitRecord record = new HitRecord();
+		private final RayPacket packet; /** < primary rays of a block, null if packets are disabled */
+		private final int pixels[]; /** < index in the block of the pixels of the packet */
+		private final int xs[], ys[]; /** < coordinates of the pixels of the packet */
+		private final double sums[]; /** < sum of the samples of every pixel of the block */
+		private final int counts[]; /** < number of samples of every pixel of the block */
+		private final Sampler sampler = new RandomSampler(seed);
+		private final Ray ray = new Ray();
+		private final Ray shadowRay = new Ray();
+		private final MutableVector3d pixel = new MutableVector3d(); /** < sum of the samples of a pixel */
+		private final MutableVector3d L = new MutableVector3d(); /** < radiance of a sample */
+		private final MutableVector3d normal = new MutableVector3d();
+		private final MutableVector3d wo = new MutableVector3d();
+		private final MutableVector3d wi = new MutableVector3d();
+		private final MutableVector3d hitPoint = new MutableVector3d();
+		private final MutableVector3d f = new MutableVector3d();
+		private final int lastOccluders[]; /** < primitive that last blocked a shadow ray towards every light, -1 if none */
+		private long numSamplesTaken;
+		private long numShadowRays;
+		private long numShadowCacheHits;
+		private Throwable failure;
+
+		Worker(Scene scene, Tile tiles[], int tileSamples[], AtomicInteger nextTile, int firstSample, int lastSample) {
+			this.scene = scene;
+			this.tiles = tiles;
+			this.tileSamples = tileSamples;
+			this.nextTile = nextTile;
+			this.firstSample = firstSample;
+			this.lastSample = lastSample;
+
+			int blockSize = packetSize * packetSize;
+			packet = (packetSize > 1) ? new RayPacket(blockSize) : null;
+			pixels = new int[blockSize];
+			xs = new int[blockSize];
+			ys = new int[blockSize];
+			sums = new double[blockSize * 3];
+			counts = new int[blockSize];
+			lastOccluders = new int[scene.getNumLights()];
+			Arrays.fill(lastOccluders, -1);
+		}
+
+		@Override
+		public void run() {
+			try {
+				int idx;
+				while (!cancelled && (idx = nextTile.getAndIncrement()) < tiles.length) {
+					// the lock keeps a checkpoint from seeing half a tile
+					synchronized (tiles[idx]) {
+						int first = Math.max(firstSample, tileSamples[idx]);
+						if (first < lastSample) {
+							renderTile(tiles[idx], first);
+							tileSamples[idx] = lastSample;
+						}
+					}
+				}
+			} catch (Throwable t) {
+				failure = t;
+				// stop the other workers from taking more tiles
+				nextTile.set(tiles.length);
+			}
+		}
+
+		/**
+		 * Render samples [first, lastSample) of every pixel of a tile.
+		 */
+		void renderTile(Tile tile, int first) {
+			if (packet != null) {
+				for (int y = tile.getY0(); y < tile.getY1(); y += packetSize) {
+					for (int x = tile.getX0(); x < tile.getX1(); x += packetSize) {
+						renderBlock(x, y, Math.min(x + packetSize, tile.getX1()),
+								Math.min(y + packetSize, tile.getY1()), first);
+					}
+				}
+				return;
+			}
+
+			for (int y = tile.getY0(); y < tile.getY1(); ++y) {
+				for (int x = tile.getX0(); x < tile.getX1(); ++x) {
+					pixel.set(0.0, 0.0, 0.0);
+					int sample;
+					for (sample = first; sample < lastSample; sample++) {
+						if (statistics != null && statistics.isConverged(x, y, minSamples, errorThreshold)) {
+							break;
+						}
+						sampler.startPixelSample(x, y, sample);
+						MutableVector3d L = sample(x, y);
+						pixel.add(L);
+						if (statistics != null) {
+							statistics.add(x, y, L.x, L.y, L.z);
+						}
+					}
+
+					if (sample > first) {
+						imageSensor.accumulate(x, y, pixel.x, pixel.y, pixel.z, sample - first);
+						numSamplesTaken += sample - first;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Render samples [first, lastSample) of the block of pixels
+		 * [x0,x1) x [y0,y1) one sample at a time, tracing the primary rays of
+		 * the pixels that still take samples as a packet.
+		 */
+		void renderBlock(int x0, int y0, int x1, int y1, int first) {
+			int width = x1 - x0;
+			int numPixels = width * (y1 - y0);
+			for (int p = 0; p < numPixels; ++p) {
+				sums[p * 3] = sums[p * 3 + 1] = sums[p * 3 + 2] = 0.0;
+				counts[p] = 0;
+			}
+
+			for (int sample = first; sample < lastSample; sample++) {
+				int n = 0;
+				for (int p = 0; p < numPixels; ++p) {
+					int x = x0 + p % width;
+					int y = y0 + p / width;
+					if (statistics != null && statistics.isConverged(x, y, minSamples, errorThreshold)) {
+						continue;
+					}
+					pixels[n] = p;
+					xs[n] = x;
+					ys[n++] = y;
+				}
+				if (n == 0) {
+					break;
+				}
+
+				if (n < MIN_PACKET_RAYS) {
+					for (int idx = 0; idx < n; ++idx) {
+						sampler.startPixelSample(xs[idx], ys[idx], sample);
+						add(pixels[idx], xs[idx], ys[idx], sample(xs[idx], ys[idx]));
+					}
+				} else {
+					camera.sampleRays(xs, ys, n, sample, sampler, packet);
+					scene.hit(packet);
+					for (int idx = 0; idx < n; ++idx) {
+						add(pixels[idx], xs[idx], ys[idx],
+								shade(packet.rays[idx], packet.records[idx], packet.hits[idx]));
+					}
+				}
+			}
+
+			for (int p = 0; p < numPixels; ++p) {
+				if (counts[p] > 0) {
+					imageSensor.accumulate(x0 + p % width, y0 + p / width, sums[p * 3], sums[p * 3 + 1],
+							sums[p * 3 + 2], counts[p]);
+					numSamplesTaken += counts[p];
+				}
+			}
+		}
+
+		/**
+		 * Add a sample to pixel p of the block being rendered.
+		 */
+		private void add(int p, int x, int y, MutableVector3d L) {
+			sums[p * 3] += L.x;
+			sums[p * 3 + 1] += L.y;
+			sums[p * 3 + 2] += L.z;
+			counts[p]++;
+			if (statistics != null) {
+				statistics.add(x, y, L.x, L.y, L.z);
+			}
+		}
+
+		/**
+		 * Trace a single sample through pixel (x,y).
+		 *
+		 * @return Radiance of the sample, valid until the next call.
+		 */
+		MutableVector3d sample(int x, int y) {
+			camera.sampleRay(x, y, sampler, ray);
+			return shade(ray, record, scene.hit(ray, record));
+		}
+
+		/**
+		 * Shade the closest intersection of a primary ray.
+		 *
+		 * @param ray Primary ray.
+		 * @param record Closest intersection of the ray.
+		 * @param hit Did the ray hit a primitive?
+		 * @return Radiance along the ray, valid until the next call.
+		 */
+		MutableVector3d shade(Ray ray, HitRecord record, boolean hit) {
+			L.set(0.0, 0.0, 0.0);
+
+			if (hit) {
+				Material material = record.material;
+				normal.set(record.nx, record.ny, record.nz);
+				wo.set(ray.getDirection()).negate();
+				material.rho(normal, wo, BxDF.REFLECTIVE, f);
+				L.add(f.multiply(scene.getAmbientLight()));
+
+				ray.getHitPoint(record.t, hitPoint);
+				int numLights = scene.getNumLights();
+				for (int i = 0; i < numLights; i++) {
+					Light light = scene.getLight(i);
+					Vector3d position = light.getPosition();
+					wi.set(position.get(0) - hitPoint.x, position.get(1) - hitPoint.y, position.get(2) - hitPoint.z);
+
+					double d = wi.magnitude();
+					wi.divide(d); // normalized vec
+					double nDotWi = normal.dot(wi);
+
+					if (nDotWi > 0.0) {
+						boolean inShadow = false;
+
+						if (light.castsShadows()) {
+							shadowRay.set(hitPoint, wi);
+							inShadow = occluded(i, shadowRay, d);
+						}
+
+						if (!inShadow) {
+							material.f(normal, wo, wi, BxDF.REFLECTIVE, f);
+							L.addScaled(f.multiply(light.Le()), nDotWi);
 						}
-					} else {
-						Lo.add(scene.getBackgroundColor());
 					}
 				}
+			}
+			return (L);
+		}
 
-				Vector3f pixel = new Vector3f(Lo.divide((double) numSamples));
-				camera.getImageSensor().setPixel(x, y, pixel);
+		/**
+		 * Test a shadow ray towards light i, trying the primitive that blocked
+		 * the previous shadow ray towards that light before the whole scene.
+		 */
+		private boolean occluded(int i, Ray shadowRay, double d) {
+			numShadowRays++;
+			int lastOccluder = lastOccluders[i];
+			if (lastOccluder >= 0 && scene.occludedBy(lastOccluder, shadowRay, d)) {
+				numShadowCacheHits++;
+				return (true);
+			}
+			int occluder = scene.occluder(shadowRay, d);
+			if (occluder >= 0) {
+				lastOccluders[i] = occluder;
 			}
+			return (occluder >= 0);
 		}
 	}
 }
@@ -0,0 +1,220 @@
+package raytracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static raytracer.RenderFixture.assertSameImage;
+import static raytracer.RenderFixture.createScene;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import raytracer.camera.ImageSensor;
+import raytracer.geometry.BBox;
+import raytracer.geometry.GeometricObject;
+
+class RendererTest {
+
+	private static Renderer createRenderer(double errorThreshold) {
+		Renderer renderer = RenderFixture.createRenderer(8, 2);
+		renderer.setErrorThreshold(errorThreshold);
+		return (renderer);
+	}
+
+	private static int countRenderedPixels(ImageSensor image) {
+		int count = 0;
+		for (int y = 0; y < image.getHeight(); ++y) {
+			for (int x = 0; x < image.getWidth(); ++x) {
+				if (image.getWeight(x, y) > 0.0f) {
+					++count;
+				}
+			}
+		}
+		return (count);
+	}
+
+	/**
+	 * Unbounded object that every ray misses, cancels a render when the first
+	 * ray is tested against it.
+	 */
+	private static class CancellingObject implements GeometricObject {
+		private static final long serialVersionUID = 1L;
+
+		private final Renderer renderer;
+
+		CancellingObject(Renderer renderer) {
+			this.renderer = renderer;
+		}
+
+		@Override
+		public boolean hit(Ray ray, HitRecord record) {
+			renderer.cancel();
+			return (false);
+		}
+
+		@Override
+		public boolean occluded(Ray ray, double tMax) {
+			return (false);
+		}
+
+		@Override
+		public BBox getBoundingBox() {
+			return (null);
+		}
+	}
+
+	/**
+	 * Unbounded object that every ray misses, records the threads that test
+	 * rays against it.
+	 */
+	private static class ThreadRecordingObject implements GeometricObject {
+		private static final long serialVersionUID = 1L;
+
+		private final Set<Thread> threads;
+
+		ThreadRecordingObject(Set<Thread> threads) {
+			this.threads = threads;
+		}
+
+		@Override
+		public boolean hit(Ray ray, HitRecord record) {
+			threads.add(Thread.currentThread());
+			return (false);
+		}
+
+		@Override
+		public boolean occluded(Ray ray, double tMax) {
+			return (false);
+		}
+
+		@Override
+		public BBox getBoundingBox() {
+			return (null);
+		}
+	}
+
+	@Test
+	void testCroppedRenderMatchesWholeRender() {
+		Scene scene = createScene();
+		Renderer renderer = createRenderer(0.0);
+		renderer.render(scene);
+		ImageSensor expected = renderer.getCamera().getImageSensor();
+
+		for (TileOrder tileOrder : TileOrder.values()) {
+			Renderer cropped = createRenderer(0.0);
+			cropped.setTileOrder(tileOrder);
+			cropped.setCropWindow(5, 3, 37, 30);
+			cropped.setRegionOfInterest(20, 10, 30, 20);
+			Tile tiles[] = cropped.createTiles();
+			assertTrue(tiles[0].overlaps(cropped.getRegionOfInterest()));
+			cropped.render(scene);
+
+			ImageSensor image = cropped.getCamera().getImageSensor();
+			for (int y = 0; y < image.getHeight(); ++y) {
+				for (int x = 0; x < image.getWidth(); ++x) {
+					boolean inside = x >= 5 && x < 37 && y >= 3 && y < 30;
+					assertEquals(inside ? expected.getWeight(x, y) : 0.0f, image.getWeight(x, y), 0.0f);
+					assertEquals(inside ? expected.getRadianceSum(x, y, 0) : 0.0f, image.getRadianceSum(x, y, 0),
+							0.0f);
+				}
+			}
+		}
+	}
+
+	@Test
+	void testResumedRenderMatchesUninterruptedRender() throws Exception {
+		checkResumedProgressiveRender(0.0);
+		checkResumedProgressiveRender(0.05);
+	}
+
+	private void checkResumedProgressiveRender(double errorThreshold) throws Exception {
+		Scene scene = createScene();
+		Renderer renderer = createRenderer(errorThreshold);
+		renderer.renderProgressive(scene, (imageSensor, numSamples) -> {
+		});
+
+		Path file = Files.createTempFile("checkpoint", ".bin");
+		try {
+			Renderer interrupted = createRenderer(errorThreshold);
+			interrupted.setCheckpoint(file, 60000);
+			interrupted.renderProgressive(scene, (imageSensor, numSamples) -> {
+				if (numSamples == 3) {
+					interrupted.cancel();
+				}
+			});
+
+			Renderer resumed = createRenderer(errorThreshold);
+			resumed.setCheckpoint(file, 60000);
+			resumed.setResume(true);
+			resumed.renderProgressive(scene, (imageSensor, numSamples) -> {
+			});
+			assertTrue(resumed.isResumed());
+			assertSameImage(renderer.getCamera().getImageSensor(), resumed.getCamera().getImageSensor());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	void testPassesReuseWorkerThreads() {
+		Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		Scene scene = createScene();
+		scene.add(new Primitive(null, new ThreadRecordingObject(threads)));
+		Renderer renderer = createRenderer(0.0);
+		assertEquals(8, renderer.renderProgressive(scene, (imageSensor, numSamples) -> {
+		}));
+		assertTrue(threads.size() <= renderer.getNumThreads());
+
+		renderer.setNumThreads(3);
+		renderer.render(scene);
+		assertTrue(threads.size() <= 3);
+	}
+
+	@Test
+	void testCancelBeforeRenderStopsIt() {
+		Scene scene = createScene();
+		Renderer renderer = createRenderer(0.0);
+		renderer.prepare();
+		renderer.cancel();
+		renderer.render(scene);
+		assertTrue(renderer.isCancelled());
+		assertEquals(0, countRenderedPixels(renderer.getCamera().getImageSensor()));
+
+		renderer.prepare();
+		renderer.render(scene);
+		assertFalse(renderer.isCancelled());
+		assertEquals(48 * 32, countRenderedPixels(renderer.getCamera().getImageSensor()));
+	}
+
+	@Test
+	void testResumedTileRenderMatchesUninterruptedRender() throws Exception {
+		Scene scene = createScene();
+		Renderer renderer = createRenderer(0.0);
+		renderer.render(scene);
+
+		Path file = Files.createTempFile("checkpoint", ".bin");
+		try {
+			// cancelled by the first primary ray, the workers finish their first tiles
+			Renderer interrupted = createRenderer(0.0);
+			interrupted.setCheckpoint(file, 1);
+			Scene cancelling = createScene();
+			cancelling.add(new Primitive(null, new CancellingObject(interrupted)));
+			interrupted.render(cancelling);
+			assertTrue(interrupted.isCancelled());
+			assertTrue(countRenderedPixels(interrupted.getCamera().getImageSensor()) < 48 * 32);
+
+			Renderer resumed = createRenderer(0.0);
+			resumed.setCheckpoint(file, 1);
+			resumed.setResume(true);
+			resumed.render(scene);
+			assertTrue(resumed.isResumed());
+			assertSameImage(renderer.getCamera().getImageSensor(), resumed.getCamera().getImageSensor());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package raytracer;
+
+/**
+ * Source of uniform random numbers for camera and BxDF sampling.
+ * 
+ * Each render thread owns its sampler. The sequence is restarted for every
+ * (pixel, sample index) pair so that a render does not depend on which thread
+ * rendered which pixel, or in what order.
+ * 
+ * @author Manuel Nunes
+ *
+ */
+public interface Sampler {
+	/**
+	 * Restart the random sequence for a sample of a pixel.
+	 * 
+	 * @param x pixel column
+	 * @param y pixel row
+	 * @param sample sample index within the pixel
+	 */
+	void startPixelSample(int x, int y, int sample);
+
+	/**
+	 * Next uniform random number.
+	 * 
+	 * @return value within [0,1)
+	 */
+	double nextDouble();
+
+	/**
+	 * Next uniform random number.
+	 * 
+	 * @return value within [0,1)
+	 */
+	float nextFloat();
+}
@@ -1,17 +1,49 @@
 package raytracer;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+import raytracer.accel.BVH;
+import raytracer.accel.BVHBuilder;
+import raytracer.accel.BVHCache;
+import raytracer.accel.LeafIntersector;
+import raytracer.accel.WideBVH;
 import raytracer.camera.*;
-import raytracer.material.Material;
+import raytracer.geometry.BBox;
 
 /**
  * Describes the content of the world to render including:
  * Primitives(models), Lights and Cameras
  * and the interaction between view rays and the world.
  * 
+ * Once built, the hit and occlusion queries only read the scene and may be
+ * called from many render threads at once. Adding primitives while a render
+ * is running is not supported.
+ * 
+ * Between renders primitives may be moved or resized and marked dirty with
+ * markDirty. The next build then refits the hierarchy in place instead of
+ * building a new one, until the SAH cost of the hierarchy has grown by more
+ * than the rebuild threshold since it was last built.
+ * 
+ * The hierarchy can be collapsed into a wide hierarchy with 4 or 8 children
+ * per node, which tests all the children of a node in one SIMD operation.
+ * A refit updates the wide hierarchy in place along with the binary one.
+ * 
+ * With a BVH cache a full build first looks for a hierarchy saved by an
+ * earlier run over primitives with the same bounds, and saves the hierarchy
+ * it builds otherwise.
+ * 
+ * A scene is serialized without its hierarchy and BVH cache, e.g. to be sent
+ * to the worker processes of a distributed render, and is built again where
+ * it is deserialized.
+ * 
  * @author Manuel Nunes
  *
  */
-public class Scene {
+public class Scene implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	private int nPrimitives;
 	private int capacityPrimitives;
 	private Primitive primitives[];
@@ -22,6 +54,27 @@ public class Scene {
 	private int capacityLights;
 	private Light lights[];
 
+	private BVHBuilder bvhBuilder = BVHBuilder.SAH; /** < method used to build the hierarchy */
+	private transient BVHCache bvhCache; /** < hierarchies saved by earlier runs, null if none */
+	private int bvhWidth = 8; /** < number of children per node of the hierarchy that is traversed */
+	private transient volatile BVH bvh; /** < hierarchy over the bounded primitives, null until built */
+	private transient volatile WideBVH wideBvh; /** < bvh collapsed to bvhWidth children per node, null if binary */
+	private transient Primitive bvhPrimitives[]; /** < bounded primitives in BVH leaf order */
+	private transient int bvhPrimitiveIds[]; /** < scene index of the bounded primitives in BVH leaf order */
+	private transient int nUnbounded;
+	private transient Primitive unboundedPrimitives[]; /** < primitives without bounds (planes), tested by every ray */
+	private transient int unboundedPrimitiveIds[]; /** < scene index of the unbounded primitives */
+	private transient PrimitiveLeaves leaves = new PrimitiveLeaves();
+
+	private transient double bvhObjectBounds[]; /** < bounds of the bounded primitives as built, updated by refits */
+	private transient int primitiveObjects[]; /** < BVH object index of every primitive as built, -1 if unbounded */
+	private transient double builtCost; /** < SAH cost of the hierarchy when it was built */
+	private double rebuildThreshold = 1.5; /** < SAH cost growth relative to builtCost beyond which a refit rebuilds */
+	private transient int nDirty;
+	private transient int dirtyIds[]; /** < primitives marked dirty since the last build */
+	private transient boolean dirtyFlags[]; /** < is the primitive in dirtyIds */
+	private transient volatile boolean needsRefit; /** < are there dirty primitives */
+
 	Vector3d backgroundColor;
 	Vector3d Lambient;
 
@@ -41,59 +94,398 @@ public class Scene {
 		Lambient = new Vector3d(0.5);
 	}
 
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		leaves = new PrimitiveLeaves();
+	}
+
 	/**
-	 * Hit function that returns distance to primitive and primitive information on hit.
-	 * Mutable arguments are undefined on a return value of false.
+	 * Builds the bounding volume hierarchy over the bounded primitives if it is
+	 * out of date, or refits it to the primitives marked dirty. Primitives
+	 * without bounds are kept in a separate list that is tested by every ray.
+	 */
+	public void build() {
+		if (bvh == null || needsRefit) {
+			buildSynchronized();
+		}
+	}
+
+	/**
+	 * Marks a primitive that has been moved or resized, so that the next build
+	 * refits the hierarchy to it.
 	 * 
-	 * @param ray View ray that intersects the scene.
-	 * @param mTmin Distance to the closest object intersected (if hit).
-	 * @param mNormal Normal of the primitive surface at the point of intersection (if hit).
-	 * @param mMaterial Material of the primitive surface at the point of intersection (if hit).
-	 * @return Did it hit an object?
+	 * @param idx Primitive index.
 	 */
-	public boolean hit(Ray ray, Mutable<Double> mTmin, Mutable<Vector3d> mNormal, Mutable<Material> mMaterial) {
-		boolean is_hit = false;
-		double tmin = Double.MAX_VALUE;
+	public synchronized void markDirty(int idx) {
+		if (idx < 0 || idx >= nPrimitives) {
+			throw new IllegalArgumentException("Invalid primitive index.");
+		}
+		if (bvh == null || dirtyFlags[idx]) {
+			// the next build is a full build or it already is dirty
+			return;
+		}
+		dirtyFlags[idx] = true;
+		dirtyIds[nDirty++] = idx;
+		needsRefit = true;
+	}
+
+	/**
+	 * Setter
+	 * 
+	 * @param rebuildThreshold Growth of the SAH cost of a refit hierarchy,
+	 *   relative to its cost when built, beyond which it is built again.
+	 */
+	public void setRebuildThreshold(double rebuildThreshold) {
+		if (!(rebuildThreshold >= 1.0)) {
+			throw new IllegalArgumentException("Invalid rebuild threshold.");
+		}
+		this.rebuildThreshold = rebuildThreshold;
+	}
 
+	/**
+	 * Builds the hierarchy at most once when several threads find it missing.
+	 * The hierarchy is published last so that readers which see it also see
+	 * the primitive lists it refers to.
+	 */
+	private synchronized void buildSynchronized() {
+		if (bvh != null) {
+			if (!needsRefit) {
+				return;
+			}
+			if (refit()) {
+				return;
+			}
+		}
+
+		int nBounded = 0;
+		double bounds[] = new double[nPrimitives * 6];
+		int boundedIds[] = new int[nPrimitives];
+		int objects[] = new int[nPrimitives];
+		int nUnbounded = 0;
+		Primitive unbounded[] = new Primitive[nPrimitives];
+		int unboundedIds[] = new int[nPrimitives];
 		for (int idx = 0; idx < nPrimitives; ++idx) {
-			Mutable<Double> mT = Mutable.valueOf(null);
-			Mutable<Vector3d> mN = Mutable.valueOf(null);
+			BBox box = primitives[idx].getGeometricObject().getBoundingBox();
+			if (box == null) {
+				objects[idx] = -1;
+				unboundedIds[nUnbounded] = idx;
+				unbounded[nUnbounded++] = primitives[idx];
+			} else {
+				setBounds(bounds, nBounded, box);
+				objects[idx] = nBounded;
+				boundedIds[nBounded++] = idx;
+			}
+		}
 
-			if ((primitives[idx].getGeometricObject().hit(ray, mT, mN)) && mT.get() < tmin) {
-				is_hit = true;
-				tmin = mT.get();
+		BVH bvh = null;
+		String key = null;
+		if (bvhCache != null) {
+			key = BVHCache.key(bounds, nBounded, bvhBuilder);
+			bvh = bvhCache.load(key, nBounded);
+		}
+		if (bvh == null) {
+			bvh = bvhBuilder.build(bounds, nBounded);
+			if (bvhCache != null) {
+				try {
+					bvhCache.store(key, bvh);
+				} catch (IOException e) {
+					// the cache only saves the build of a later run
+				}
+			}
+		}
+		bvhPrimitives = new Primitive[nBounded];
+		bvhPrimitiveIds = new int[nBounded];
+		for (int idx = 0; idx < nBounded; ++idx) {
+			bvhPrimitiveIds[idx] = boundedIds[bvh.getObjectIndex(idx)];
+			bvhPrimitives[idx] = primitives[bvhPrimitiveIds[idx]];
+		}
+		this.nUnbounded = nUnbounded;
+		this.unboundedPrimitives = unbounded;
+		this.unboundedPrimitiveIds = unboundedIds;
+		bvhObjectBounds = bounds;
+		primitiveObjects = objects;
+		builtCost = bvh.getCost();
+		nDirty = 0;
+		dirtyIds = new int[nPrimitives];
+		dirtyFlags = new boolean[nPrimitives];
+		needsRefit = false;
+		wideBvh = (bvhWidth > 2) ? new WideBVH(bvh, bvhWidth) : null;
+		this.bvh = bvh;
+	}
 
-				mTmin.set(tmin);
-				mNormal.set(mN.get());
-				mMaterial.set(primitives[idx].getMaterial());
+	/**
+	 * Refits the hierarchy, and the wide hierarchy collapsed from it, to the
+	 * dirty primitives.
+	 * 
+	 * @return Is the refit hierarchy still good enough? False if a primitive
+	 *   gained or lost its bounds or the SAH cost grew beyond the threshold,
+	 *   then the hierarchy has to be built again.
+	 */
+	private boolean refit() {
+		boolean refittable = true;
+		int nChanged = 0;
+		int changed[] = new int[nDirty];
+		for (int k = 0; k < nDirty; ++k) {
+			int idx = dirtyIds[k];
+			dirtyFlags[idx] = false;
+			BBox box = primitives[idx].getGeometricObject().getBoundingBox();
+			int object = primitiveObjects[idx];
+			if ((box == null) != (object == -1)) {
+				refittable = false;
+			} else if (object != -1) {
+				setBounds(bvhObjectBounds, object, box);
+				changed[nChanged++] = object;
 			}
 		}
-		return (is_hit);
+		nDirty = 0;
+		needsRefit = false;
+
+		if (!refittable) {
+			return (false);
+		}
+		bvh.refit(bvhObjectBounds, changed, nChanged);
+		if (wideBvh != null) {
+			wideBvh.refit(bvh, changed, nChanged);
+		}
+		return (bvh.getCost() <= builtCost * rebuildThreshold);
+	}
+
+	private static void setBounds(double bounds[], int object, BBox box) {
+		int b = object * 6;
+		bounds[b] = box.x0;
+		bounds[b + 1] = box.y0;
+		bounds[b + 2] = box.z0;
+		bounds[b + 3] = box.x1;
+		bounds[b + 4] = box.y1;
+		bounds[b + 5] = box.z1;
+	}
+
+	/**
+	 * Setter
+	 * 
+	 * @param bvhBuilder Method used to build the hierarchy, SAH builds are the
+	 *   slowest and trace fastest.
+	 */
+	public void setBVHBuilder(BVHBuilder bvhBuilder) {
+		if (bvhBuilder == null) {
+			throw new IllegalArgumentException("Invalid BVH builder.");
+		}
+		this.bvhBuilder = bvhBuilder;
+		bvh = null;
+	}
+
+	/**
+	 * Getter
+	 * 
+	 * @return Method used to build the hierarchy.
+	 */
+	public BVHBuilder getBVHBuilder() {
+		return bvhBuilder;
+	}
+
+	/**
+	 * Setter
+	 * 
+	 * @param bvhWidth Number of children per node of the hierarchy, 2 for a
+	 *   binary hierarchy, 4 or 8 for a wide one.
+	 */
+	public void setBVHWidth(int bvhWidth) {
+		if (bvhWidth != 2 && bvhWidth != 4 && bvhWidth != 8) {
+			throw new IllegalArgumentException("Invalid BVH width.");
+		}
+		this.bvhWidth = bvhWidth;
+		bvh = null;
 	}
 
 	/**
-	 * Simplified hit function that returns distance to primitive on hit.
-	 * Mutable arguments are undefined on a return value of false.
+	 * Getter
+	 * 
+	 * @return Number of children per node of the hierarchy.
+	 */
+	public int getBVHWidth() {
+		return bvhWidth;
+	}
+
+	/**
+	 * Getter
+	 * 
+	 * @return Wide hierarchy that is traversed, null if it is binary or not
+	 *   built.
+	 */
+	WideBVH getWideBVH() {
+		return wideBvh;
+	}
+
+	/**
+	 * Setter
+	 * 
+	 * @param bvhCache Cache of hierarchies saved by earlier runs, null to
+	 *   always build the hierarchy.
+	 */
+	public void setBVHCache(BVHCache bvhCache) {
+		this.bvhCache = bvhCache;
+	}
+
+	/**
+	 * Getter
+	 * 
+	 * @return Cache of hierarchies saved by earlier runs, null if none.
+	 */
+	public BVHCache getBVHCache() {
+		return bvhCache;
+	}
+
+	/**
+	 * Records the material of a primitive that was hit. A primitive without a
+	 * material keeps the one its geometry reported (e.g. a Group).
+	 */
+	private static void setMaterial(HitRecord record, Primitive primitive) {
+		if (primitive.getMaterial() != null) {
+			record.material = primitive.getMaterial();
+		}
+	}
+
+	/**
+	 * Intersects the primitives of a BVH leaf.
+	 */
+	private class PrimitiveLeaves implements LeafIntersector {
+		@Override
+		public boolean hit(int first, int count, Ray ray, HitRecord record) {
+			boolean leafHit = false;
+			for (int idx = first; idx < first + count; ++idx) {
+				if (bvhPrimitives[idx].getGeometricObject().hit(ray, record)) {
+					setMaterial(record, bvhPrimitives[idx]);
+					record.primitiveId = bvhPrimitiveIds[idx];
+					leafHit = true;
+				}
+			}
+			return (leafHit);
+		}
+
+		@Override
+		public int occluder(int first, int count, Ray ray, double tMax) {
+			for (int idx = first; idx < first + count; ++idx) {
+				if (bvhPrimitives[idx].getGeometricObject().occluded(ray, tMax)) {
+					return (idx);
+				}
+			}
+			return (-1);
+		}
+	}
+
+	/**
+	 * Hit function that finds the closest primitive along a ray.
+	 * The record is reset first and holds the distance, normal, material and
+	 * primitive index of the closest intersection on a return value of true.
 	 * 
 	 * @param ray View ray that intersects the scene.
-	 * @param mTmin Distance to the closest object intersected (if hit). 
+	 * @param record Caller owned record of the closest intersection.
 	 * @return Did it hit an object?
 	 */
-	public boolean hit(Ray ray, Mutable<Double> mTmin) {
+	public boolean hit(Ray ray, HitRecord record) {
+		build();
+		record.reset();
+
 		boolean is_hit = false;
-		double tmin = Double.MAX_VALUE;
+		for (int idx = 0; idx < nUnbounded; ++idx) {
+			if (unboundedPrimitives[idx].getGeometricObject().hit(ray, record)) {
+				setMaterial(record, unboundedPrimitives[idx]);
+				record.primitiveId = unboundedPrimitiveIds[idx];
+				is_hit = true;
+			}
+		}
+		WideBVH wideBvh = this.wideBvh;
+		if (wideBvh != null ? wideBvh.hit(ray, record, leaves) : bvh.hit(ray, record, leaves)) {
+			is_hit = true;
+		}
+		return (is_hit);
+	}
 
-		for (int idx = 0; idx < nPrimitives; ++idx) {
-			Mutable<Double> mT = Mutable.valueOf(null);
+	/**
+	 * Hit function for a packet of rays, e.g. the primary rays of a block of
+	 * pixels. A coherent packet traverses the hierarchy together, the
+	 * rays of a packet whose directions diverge are traced one by one.
+	 * 
+	 * @param packet Prepared packet, the hit record and hit flag of every ray
+	 *   are set to its closest intersection.
+	 */
+	public void hit(RayPacket packet) {
+		build();
 
-			if ((primitives[idx].getGeometricObject().hit(ray, mT)) && mT.get() < tmin) {
-				is_hit = true;
-				tmin = mT.get();
+		int n = packet.size();
+		if (!packet.isCoherent()) {
+			for (int idx = 0; idx < n; ++idx) {
+				packet.hits[idx] = hit(packet.rays[idx], packet.records[idx]);
+			}
+			return;
+		}
 
-				mTmin.set(tmin);
+		for (int idx = 0; idx < n; ++idx) {
+			Ray ray = packet.rays[idx];
+			HitRecord record = packet.records[idx];
+			for (int p = 0; p < nUnbounded; ++p) {
+				if (unboundedPrimitives[p].getGeometricObject().hit(ray, record)) {
+					setMaterial(record, unboundedPrimitives[p]);
+					record.primitiveId = unboundedPrimitiveIds[p];
+					packet.hits[idx] = true;
+				}
 			}
 		}
-		return (is_hit);
+		WideBVH wideBvh = this.wideBvh;
+		if (wideBvh != null) {
+			wideBvh.hit(packet, leaves);
+		} else {
+			bvh.hit(packet, leaves);
+		}
+	}
+
+	/**
+	 * Occlusion function for shadow rays.
+	 * Stops at the first intersection found and does not compute normals.
+	 * 
+	 * @param ray Shadow ray.
+	 * @param tMax Distance beyond which intersections are ignored (e.g. distance to the light).
+	 * @return Does any primitive intersect the ray within tMax?
+	 */
+	public boolean occluded(Ray ray, double tMax) {
+		return occluder(ray, tMax) >= 0;
+	}
+
+	/**
+	 * Occlusion function that reports the primitive found, so that the caller
+	 * can test it first against the next shadow ray towards the same light
+	 * (see {@link #occludedBy(int, Ray, double)}).
+	 * 
+	 * @param ray Shadow ray.
+	 * @param tMax Distance beyond which intersections are ignored (e.g. distance to the light).
+	 * @return Index of a primitive that intersects the ray within tMax, -1 if none does.
+	 */
+	public int occluder(Ray ray, double tMax) {
+		build();
+
+		for (int idx = 0; idx < nUnbounded; ++idx) {
+			if (unboundedPrimitives[idx].getGeometricObject().occluded(ray, tMax)) {
+				return (unboundedPrimitiveIds[idx]);
+			}
+		}
+		WideBVH wideBvh = this.wideBvh;
+		int occluder = (wideBvh != null) ? wideBvh.occluder(ray, tMax, leaves) : bvh.occluder(ray, tMax, leaves);
+		return (occluder >= 0) ? bvhPrimitiveIds[occluder] : -1;
+	}
+
+	/**
+	 * Occlusion function for a single primitive.
+	 * 
+	 * @param idx Primitive index.
+	 * @param ray Shadow ray.
+	 * @param tMax Distance beyond which intersections are ignored (e.g. distance to the light).
+	 * @return Does the primitive intersect the ray within tMax?
+	 */
+	public boolean occludedBy(int idx, Ray ray, double tMax) {
+		if (idx < 0 || idx >= nPrimitives) {
+			throw new IllegalArgumentException("Invalid primitive index.");
+		}
+		return primitives[idx].getGeometricObject().occluded(ray, tMax);
 	}
 
 	/**
@@ -159,9 +551,7 @@ public class Scene {
 	 * @param primitive
 	 */
 	public void add(Primitive primitive) {
-		if (nPrimitives < capacityPrimitives) {
-			primitives[nPrimitives++] = primitive;
-		} else {
+		if (nPrimitives == capacityPrimitives) {
 			capacityPrimitives *= 2;
 			Primitive temp[] = new Primitive[capacityPrimitives];
 			for (int idx = 0; idx < nPrimitives; ++idx) {
@@ -169,6 +559,8 @@ public class Scene {
 			}
 			primitives = temp;
 		}
+		primitives[nPrimitives++] = primitive;
+		bvh = null;
 	}
 
 	/**
@@ -176,9 +568,7 @@ public class Scene {
 	 * @param camera
 	 */
 	public void add(Camera camera) {
-		if (nCameras < capacityCameras) {
-			cameras[nCameras++] = camera;
-		} else {
+		if (nCameras == capacityCameras) {
 			capacityCameras *= 2;
 			Camera temp[] = new Camera[capacityCameras];
 			for (int idx = 0; idx < nCameras; ++idx) {
@@ -186,6 +576,7 @@ public class Scene {
 			}
 			cameras = temp;
 		}
+		cameras[nCameras++] = camera;
 	}
 
 	/**
@@ -194,9 +585,7 @@ public class Scene {
 	 * @param light
 	 */
 	public void add(Light light) {
-		if (nLights < capacityLights) {
-			lights[nLights++] = light;
-		} else {
+		if (nLights == capacityLights) {
 			capacityLights *= 2;
 			Light temp[] = new Light[capacityLights];
 			for (int idx = 0; idx < nLights; ++idx) {
@@ -204,6 +593,7 @@ public class Scene {
 			}
 			lights = temp;
 		}
+		lights[nLights++] = light;
 	}
 
 	/**
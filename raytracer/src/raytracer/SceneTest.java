@@ -0,0 +1,423 @@
+package raytracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import raytracer.accel.BVHBuilder;
+import raytracer.accel.BVHCache;
+import raytracer.accel.WideBVH;
+import raytracer.geometry.BBox;
+import raytracer.geometry.Box;
+import raytracer.geometry.GeometricObject;
+import raytracer.geometry.Group;
+import raytracer.geometry.Instance;
+import raytracer.geometry.Plane;
+import raytracer.geometry.Sphere;
+import raytracer.material.Material;
+import raytracer.material.MatteMaterial;
+
+class SceneTest {
+
+	@Test
+	void testHitMatchesLinearSearch() {
+		checkHitMatchesLinearSearch(BVHBuilder.SAH, 8, null);
+	}
+
+	@Test
+	void testLinearBVHHitMatchesLinearSearch() {
+		checkHitMatchesLinearSearch(BVHBuilder.LBVH, 8, null);
+		checkHitMatchesLinearSearch(BVHBuilder.LBVH_TREELETS, 8, null);
+	}
+
+	@Test
+	void testBVHWidthHitMatchesLinearSearch() {
+		checkHitMatchesLinearSearch(BVHBuilder.SAH, 2, null);
+		checkHitMatchesLinearSearch(BVHBuilder.SAH, 4, null);
+	}
+
+	@Test
+	void testPacketHitMatchesLinearSearch() {
+		checkPacketHitMatchesLinearSearch(2);
+		checkPacketHitMatchesLinearSearch(8);
+	}
+
+	private void checkPacketHitMatchesLinearSearch(int width) {
+		Random random = new Random(4);
+		Scene scene = new Scene();
+		scene.setBVHWidth(width);
+		GeometricObject objects[] = new GeometricObject[300];
+		for (int idx = 0; idx < objects.length; ++idx) {
+			Vector3f center = new Vector3f(random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100,
+					random.nextFloat() * 200 - 100);
+			objects[idx] = new Sphere(center, 1 + random.nextFloat() * 5);
+			scene.add(new Primitive(new MatteMaterial(), objects[idx]));
+		}
+
+		RayPacket packet = new RayPacket(64);
+		for (int p = 0; p < 50; ++p) {
+			// rays from a common origin through a small square of directions
+			Vector3d origin = new Vector3d(random.nextDouble() * 300 - 150, random.nextDouble() * 300 - 150, -200);
+			double dx = random.nextDouble() - 0.5;
+			double dy = random.nextDouble() - 0.5;
+			for (int idx = 0; idx < 64; ++idx) {
+				packet.rays[idx].set(origin.get(0), origin.get(1), origin.get(2), dx + 0.01 * (idx % 8),
+						dy + 0.01 * (idx / 8), 1.0);
+			}
+			packet.prepare(64);
+			scene.hit(packet);
+
+			for (int idx = 0; idx < 64; ++idx) {
+				HitRecord expected = new HitRecord();
+				for (GeometricObject object : objects) {
+					object.hit(packet.rays[idx], expected);
+				}
+				assertEquals(expected.t != Double.MAX_VALUE, packet.hits[idx]);
+				if (packet.hits[idx]) {
+					assertEquals(expected.t, packet.records[idx].t, 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	void testAxisParallelRayOnBoundsMatchesLinearSearch() {
+		checkAxisParallelRayOnBoundsMatchesLinearSearch(2);
+		checkAxisParallelRayOnBoundsMatchesLinearSearch(8);
+	}
+
+	/**
+	 * Adds a grid of 4x4x4 unit boxes at even coordinates, the bounds of the
+	 * nodes over them lie on the integer planes.
+	 */
+	private static GeometricObject[] addBoxGrid(Scene scene) {
+		GeometricObject objects[] = new GeometricObject[64];
+		for (int idx = 0; idx < objects.length; ++idx) {
+			int x = idx % 4 * 2, y = idx / 4 % 4 * 2, z = idx / 16 * 2;
+			objects[idx] = new Box(new Vector3f(x, y, z), new Vector3f(x + 1, y + 1, z + 1));
+			scene.add(new Primitive(new MatteMaterial(), objects[idx]));
+		}
+		return (objects);
+	}
+
+	/**
+	 * Sets a ray along an axis whose origin lies on the bound planes u and v
+	 * of the other two axes.
+	 */
+	private static void setAxisParallelRay(Ray ray, int axis, int u, int v) {
+		double origin[] = new double[3];
+		origin[axis] = -5.0;
+		origin[(axis + 1) % 3] = u;
+		origin[(axis + 2) % 3] = v;
+		ray.set(origin[0], origin[1], origin[2], axis == 0 ? 1.0 : 0.0, axis == 1 ? 1.0 : 0.0,
+				axis == 2 ? 1.0 : 0.0);
+	}
+
+	private void checkAxisParallelRayOnBoundsMatchesLinearSearch(int width) {
+		Scene scene = new Scene();
+		scene.setBVHWidth(width);
+		GeometricObject objects[] = addBoxGrid(scene);
+
+		Ray ray = new Ray();
+		for (int axis = 0; axis < 3; ++axis) {
+			for (int u = 0; u <= 8; ++u) {
+				for (int v = 0; v <= 8; ++v) {
+					setAxisParallelRay(ray, axis, u, v);
+
+					HitRecord expected = new HitRecord();
+					for (GeometricObject object : objects) {
+						object.hit(ray, expected);
+					}
+					HitRecord record = new HitRecord();
+					assertEquals(expected.t != Double.MAX_VALUE, scene.hit(ray, record));
+					assertEquals(expected.t, record.t, 0.0);
+					assertEquals(expected.t < 100.0, scene.occluded(ray, 100.0));
+				}
+			}
+		}
+	}
+
+	@Test
+	void testAxisParallelPacketHitMatchesSingleRays() {
+		checkAxisParallelPacketHitMatchesSingleRays(2);
+		checkAxisParallelPacketHitMatchesSingleRays(8);
+	}
+
+	private void checkAxisParallelPacketHitMatchesSingleRays(int width) {
+		Scene scene = new Scene();
+		scene.setBVHWidth(width);
+		addBoxGrid(scene);
+
+		RayPacket packet = new RayPacket(81);
+		for (int axis = 0; axis < 3; ++axis) {
+			for (int idx = 0; idx < 81; ++idx) {
+				setAxisParallelRay(packet.rays[idx], axis, idx % 9, idx / 9);
+			}
+			packet.prepare(81);
+			assertTrue(packet.isCoherent());
+			scene.hit(packet);
+
+			for (int idx = 0; idx < 81; ++idx) {
+				HitRecord record = new HitRecord();
+				assertEquals(scene.hit(packet.rays[idx], record), packet.hits[idx]);
+				assertEquals(record.t, packet.records[idx].t, 0.0);
+			}
+		}
+	}
+
+	@Test
+	void testCachedBVHHitMatchesLinearSearch() throws IOException {
+		Path directory = Files.createTempDirectory("bvh");
+		try {
+			BVHCache cache = new BVHCache(directory);
+			// the first scene saves its hierarchy, the second loads it
+			checkHitMatchesLinearSearch(BVHBuilder.SAH, 8, cache);
+			checkHitMatchesLinearSearch(BVHBuilder.SAH, 8, cache);
+			try (Stream<Path> files = Files.list(directory)) {
+				assertEquals(1, files.count());
+			}
+		} finally {
+			try (Stream<Path> files = Files.list(directory)) {
+				for (Path file : files.toArray(Path[]::new)) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(directory);
+		}
+	}
+
+	private void checkHitMatchesLinearSearch(BVHBuilder builder, int width, BVHCache cache) {
+		Random random = new Random(1);
+		Scene scene = new Scene();
+		scene.setBVHBuilder(builder);
+		scene.setBVHWidth(width);
+		scene.setBVHCache(cache);
+		GeometricObject objects[] = new GeometricObject[201];
+		for (int idx = 0; idx < 200; ++idx) {
+			Vector3f center = new Vector3f(random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100,
+					random.nextFloat() * 200 - 100);
+			objects[idx] = new Sphere(center, 1 + random.nextFloat() * 5);
+			scene.add(new Primitive(new MatteMaterial(), objects[idx]));
+		}
+		objects[200] = new Plane(new Vector3f(0.0f, -150.0f, 0.0f), new Vector3f(0.0f, 1.0f, 0.0f));
+		scene.add(new Primitive(new MatteMaterial(), objects[200]));
+
+		for (int r = 0; r < 1000; ++r) {
+			Vector3d origin = new Vector3d(random.nextDouble() * 300 - 150, random.nextDouble() * 300 - 150,
+					random.nextDouble() * 300 - 150);
+			Vector3d direction = new Vector3d(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+			Ray ray = new Ray(origin, direction);
+
+			HitRecord expected = new HitRecord();
+			for (GeometricObject object : objects) {
+				object.hit(ray, expected);
+			}
+
+			HitRecord record = new HitRecord();
+			boolean is_hit = scene.hit(ray, record);
+			assertEquals(expected.t != Double.MAX_VALUE, is_hit);
+			if (is_hit) {
+				assertEquals(expected.t, record.t, 1e-9);
+			}
+			assertEquals(expected.t < 50.0, scene.occluded(ray, 50.0));
+			int occluder = scene.occluder(ray, 50.0);
+			assertEquals(expected.t < 50.0, occluder >= 0);
+			if (occluder >= 0) {
+				assertTrue(scene.occludedBy(occluder, ray, 50.0));
+			}
+		}
+	}
+
+	@Test
+	void testRefitHitMatchesLinearSearch() {
+		Random random = new Random(2);
+		Scene scene = new Scene();
+		Sphere spheres[] = new Sphere[200];
+		for (int idx = 0; idx < spheres.length; ++idx) {
+			spheres[idx] = new Sphere(new Vector3f(random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100,
+					random.nextFloat() * 200 - 100), 1 + random.nextFloat() * 5);
+			scene.add(new Primitive(new MatteMaterial(), spheres[idx]));
+		}
+		scene.build();
+
+		for (int frame = 0; frame < 10; ++frame) {
+			for (int k = 0; k < 5; ++k) {
+				int idx = random.nextInt(spheres.length);
+				spheres[idx].setCenter(new Vector3f(random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100,
+						random.nextFloat() * 200 - 100));
+				spheres[idx].setRadius(1 + random.nextFloat() * 10);
+				scene.markDirty(idx);
+			}
+
+			for (int r = 0; r < 200; ++r) {
+				Vector3d origin = new Vector3d(random.nextDouble() * 300 - 150, random.nextDouble() * 300 - 150,
+						random.nextDouble() * 300 - 150);
+				Vector3d direction = new Vector3d(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+				Ray ray = new Ray(origin, direction);
+
+				HitRecord expected = new HitRecord();
+				for (Sphere sphere : spheres) {
+					sphere.hit(ray, expected);
+				}
+
+				HitRecord record = new HitRecord();
+				boolean is_hit = scene.hit(ray, record);
+				assertEquals(expected.t != Double.MAX_VALUE, is_hit);
+				if (is_hit) {
+					assertEquals(expected.t, record.t, 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	void testRefitUpdatesWideBVHInPlace() {
+		Random random = new Random(5);
+		Scene scene = new Scene();
+		assertEquals(8, scene.getBVHWidth());
+		scene.setRebuildThreshold(1000.0);
+		Sphere spheres[] = new Sphere[2000];
+		Vector3f centers[] = new Vector3f[spheres.length];
+		for (int idx = 0; idx < spheres.length; ++idx) {
+			centers[idx] = new Vector3f(random.nextFloat() * 200 - 100, random.nextFloat() * 200 - 100,
+					random.nextFloat() * 200 - 100);
+			spheres[idx] = new Sphere(centers[idx], 1 + random.nextFloat());
+			scene.add(new Primitive(new MatteMaterial(), spheres[idx]));
+		}
+		scene.build();
+		WideBVH wideBvh = scene.getWideBVH();
+
+		for (int frame = 0; frame < 10; ++frame) {
+			float before[] = childBounds(wideBvh);
+			int idx = random.nextInt(spheres.length);
+			spheres[idx].setCenter(centers[idx].add(new Vector3f(3.0f, -3.0f, 3.0f)));
+			scene.markDirty(idx);
+			scene.build();
+			assertTrue(wideBvh == scene.getWideBVH());
+
+			// only the children on the path from the leaf of the sphere to the root changed,
+			// testRefitHitMatchesLinearSearch checks that they changed correctly
+			float after[] = childBounds(wideBvh);
+			assertEquals(before.length, after.length);
+			BBox box = spheres[idx].getBoundingBox();
+			float sphereBounds[] = { (float) box.x0, (float) box.y0, (float) box.z0, (float) box.x1,
+					(float) box.y1, (float) box.z1 };
+			int nChanged = 0;
+			int changed[] = new int[after.length / 6];
+			for (int slot = 0; slot < after.length / 6; ++slot) {
+				if (!Arrays.equals(before, slot * 6, slot * 6 + 6, after, slot * 6, slot * 6 + 6)) {
+					assertTrue(contains(after, slot * 6, sphereBounds, 0));
+					changed[nChanged++] = slot;
+				}
+			}
+			assertTrue(nChanged > 0);
+			for (int i = 0; i < nChanged; ++i) {
+				for (int j = i + 1; j < nChanged; ++j) {
+					int a = changed[i] * 6, b = changed[j] * 6;
+					assertTrue(contains(after, a, after, b) || contains(after, b, after, a));
+				}
+			}
+		}
+	}
+
+	private static float[] childBounds(WideBVH wideBvh) {
+		int numSlots = wideBvh.getNumNodes() * wideBvh.getWidth();
+		float bounds[] = new float[numSlots * 6];
+		for (int slot = 0; slot < numSlots; ++slot) {
+			for (int k = 0; k < 6; ++k) {
+				bounds[slot * 6 + k] = wideBvh.getChildBound(slot, k);
+			}
+		}
+		return (bounds);
+	}
+
+	private static boolean contains(float outer[], int o, float inner[], int i) {
+		for (int k = 0; k < 3; ++k) {
+			if (outer[o + k] > inner[i + k] || outer[o + k + 3] < inner[i + k + 3]) {
+				return (false);
+			}
+		}
+		return (true);
+	}
+
+	@Test
+	void testInstanceHitMatchesTransformedObjects() {
+		Material boxMaterial = new MatteMaterial();
+		Material sphereMaterial = new MatteMaterial();
+		Group group = new Group();
+		group.add(new Box(new Vector3f(0, 0, 0), new Vector3f(1, 2, 3)), boxMaterial);
+		group.add(new Sphere(new Vector3f(1, 1, 1), 0.5f), sphereMaterial);
+
+		// scaled by 2, rotated 90 degrees about y and translated
+		double half = Math.sqrt(0.5);
+		Scene scene = new Scene();
+		scene.add(new Primitive(null,
+				new Instance(group, new Vector3d(10, 20, 30), new Quaternion(0, half, 0, half), 2.0)));
+
+		GeometricObject box = new Box(new Vector3f(10, 20, 28), new Vector3f(16, 24, 30));
+		GeometricObject sphere = new Sphere(new Vector3f(12, 22, 28), 1);
+
+		Random random = new Random(3);
+		for (int r = 0; r < 1000; ++r) {
+			Vector3d origin = new Vector3d(random.nextDouble() * 40 - 7, random.nextDouble() * 40 + 2,
+					random.nextDouble() * 40 + 9);
+			Vector3d target = new Vector3d(13 + random.nextGaussian() * 3, 22 + random.nextGaussian() * 3,
+					29 + random.nextGaussian() * 3);
+			Ray ray = new Ray(origin, target.subtract(origin));
+
+			HitRecord expected = new HitRecord();
+			if (box.hit(ray, expected)) {
+				expected.material = boxMaterial;
+			}
+			if (sphere.hit(ray, expected)) {
+				expected.material = sphereMaterial;
+			}
+
+			HitRecord record = new HitRecord();
+			boolean is_hit = scene.hit(ray, record);
+			assertEquals(expected.t != Double.MAX_VALUE, is_hit);
+			if (is_hit) {
+				assertEquals(expected.t, record.t, 1e-9);
+				assertEquals(expected.nx, record.nx, 1e-9);
+				assertEquals(expected.ny, record.ny, 1e-9);
+				assertEquals(expected.nz, record.nz, 1e-9);
+				assertEquals(expected.material, record.material);
+			}
+			assertEquals(origin.get(0), ray.getOrigin().x, 0.0);
+		}
+	}
+
+	@Test
+	void testNestedGroupHitReportsInnerMaterials() {
+		Material sphereMaterial = new MatteMaterial();
+		Material boxMaterial = new MatteMaterial();
+		Group inner = new Group();
+		inner.add(new Sphere(new Vector3f(0, 0, 0), 1), sphereMaterial);
+
+		// the instances of the inner group have no material of their own
+		Group outer = new Group();
+		outer.add(new Instance(inner, new Vector3d(-3, 0, 0), new Quaternion(0, 0, 0, 1), 1.0));
+		outer.add(new Instance(inner, new Vector3d(3, 0, 0), new Quaternion(0, 0, 0, 1), 1.0));
+		outer.add(new Box(new Vector3f(-1, -1, -1), new Vector3f(1, 1, 1)), boxMaterial);
+
+		Scene scene = new Scene();
+		scene.add(new Primitive(null, new Instance(outer, new Vector3d(0, 0, 10), new Quaternion(0, 0, 0, 1), 1.0)));
+
+		double xs[] = { -3, 0, 3, 6 };
+		Material expected[] = { sphereMaterial, boxMaterial, sphereMaterial, null };
+		for (int idx = 0; idx < xs.length; ++idx) {
+			Ray ray = new Ray(new Vector3d(xs[idx], 0, 0), new Vector3d(0, 0, 1));
+			HitRecord record = new HitRecord();
+			assertEquals(expected[idx] != null, scene.hit(ray, record));
+			assertEquals(expected[idx], record.material);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package raytracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import raytracer.geometry.OffHeapStore;
+import raytracer.geometry.Sphere;
+import raytracer.geometry.SphereSet;
+
+class SphereSetTest {
+
+	@Test
+	void testHitMatchesSpheres() {
+		Random random = new Random(7);
+		Sphere spheres[] = new Sphere[500];
+		SphereSet sphereSet = new SphereSet();
+		for (int idx = 0; idx < spheres.length; ++idx) {
+			Vector3f center = new Vector3f(random.nextFloat() * 100.0f - 50.0f, random.nextFloat() * 100.0f - 50.0f,
+					random.nextFloat() * 100.0f - 50.0f);
+			float radius = 0.5f + random.nextFloat() * 3.0f;
+			spheres[idx] = new Sphere(center, radius);
+			sphereSet.add(center, radius);
+		}
+		assertEquals(spheres.length, sphereSet.getNumSpheres());
+
+		for (int idx = 0; idx < 2000; ++idx) {
+			Vector3d origin = new Vector3d(random.nextDouble() * 120.0 - 60.0, random.nextDouble() * 120.0 - 60.0,
+					random.nextDouble() * 120.0 - 60.0);
+			Vector3d direction = new Vector3d(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+			Ray ray = new Ray(origin, direction);
+
+			HitRecord expected = new HitRecord();
+			for (Sphere sphere : spheres) {
+				sphere.hit(ray, expected);
+			}
+			HitRecord record = new HitRecord();
+			assertEquals(expected.t != Double.MAX_VALUE, sphereSet.hit(ray, record));
+			assertEquals(expected.t, record.t, 0.0);
+			if (expected.t != Double.MAX_VALUE) {
+				assertEquals(expected.nx, record.nx, 1e-9);
+				assertEquals(expected.ny, record.ny, 1e-9);
+				assertEquals(expected.nz, record.nz, 1e-9);
+			}
+
+			double tMax = random.nextDouble() * 100.0;
+			boolean occluded = false;
+			for (Sphere sphere : spheres) {
+				occluded |= sphere.occluded(ray, tMax);
+			}
+			assertEquals(occluded, sphereSet.occluded(ray, tMax));
+		}
+	}
+
+	@Test
+	void testOffHeapCopyMatches() {
+		Random random = new Random(11);
+		SphereSet sphereSet = new SphereSet();
+		for (int idx = 0; idx < 500; ++idx) {
+			sphereSet.add(random.nextFloat() * 100.0f - 50.0f, random.nextFloat() * 100.0f - 50.0f,
+					random.nextFloat() * 100.0f - 50.0f, 0.5f + random.nextFloat() * 3.0f);
+		}
+
+		try (OffHeapStore store = new OffHeapStore()) {
+			SphereSet copy = store.store(sphereSet);
+			assertEquals(sphereSet.getNumSpheres(), copy.getNumSpheres());
+			for (int idx = 0; idx < 2000; ++idx) {
+				Vector3d origin = new Vector3d(random.nextDouble() * 120.0 - 60.0,
+						random.nextDouble() * 120.0 - 60.0, random.nextDouble() * 120.0 - 60.0);
+				Vector3d direction = new Vector3d(random.nextGaussian(), random.nextGaussian(),
+						random.nextGaussian());
+				Ray ray = new Ray(origin, direction);
+
+				HitRecord expected = new HitRecord();
+				HitRecord record = new HitRecord();
+				assertEquals(sphereSet.hit(ray, expected), copy.hit(ray, record));
+				assertEquals(expected.t, record.t, 0.0);
+				assertEquals(expected.nx, record.nx, 0.0);
+				assertEquals(expected.ny, record.ny, 0.0);
+				assertEquals(expected.nz, record.nz, 0.0);
+				assertEquals(sphereSet.occluded(ray, 50.0), copy.occluded(ray, 50.0));
+			}
+		}
+	}
+
+	@Test
+	void testOffHeapCopyOfEmptySet() {
+		SphereSet sphereSet = new SphereSet();
+		try (OffHeapStore store = new OffHeapStore()) {
+			SphereSet copy = store.store(sphereSet);
+			assertEquals(0, copy.getNumSpheres());
+
+			Ray ray = new Ray(new Vector3d(0.0, 0.0, -10.0), new Vector3d(0.0, 0.0, 1.0));
+			assertFalse(copy.hit(ray, new HitRecord()));
+			assertFalse(copy.occluded(ray, 50.0));
+		}
+	}
+}
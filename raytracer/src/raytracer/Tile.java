@@ -0,0 +1,121 @@
+package raytracer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Rectangular region of the image sensor rendered as one unit of work, also
+ * used for the crop window and region of interest of a render.
+ * 
+ * @author Manuel Nunes
+ *
+ */
+public class Tile implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final int x0, y0; /** < first pixel of the tile */
+	private final int x1, y1; /** < pixel one past the last of the tile */
+
+	/**
+	 * Constructor
+	 * 
+	 * @param x0 First column.
+	 * @param y0 First row.
+	 * @param x1 Column one past the last.
+	 * @param y1 Row one past the last.
+	 */
+	public Tile(int x0, int y0, int x1, int y1) {
+		this.x0 = x0;
+		this.y0 = y0;
+		this.x1 = x1;
+		this.y1 = y1;
+	}
+
+	/**
+	 * Split an image into tiles in row order, the tiles on the right and top
+	 * edges are clipped to the image.
+	 * 
+	 * @param width Image width.
+	 * @param height Image height.
+	 * @param tileSize Width and height of a tile.
+	 * @return tiles
+	 */
+	public static Tile[] split(int width, int height, int tileSize) {
+		int nx = (width + tileSize - 1) / tileSize;
+		int ny = (height + tileSize - 1) / tileSize;
+		Tile tiles[] = new Tile[nx * ny];
+		for (int ty = 0; ty < ny; ++ty) {
+			for (int tx = 0; tx < nx; ++tx) {
+				int x0 = tx * tileSize;
+				int y0 = ty * tileSize;
+				tiles[ty * nx + tx] = new Tile(x0, y0, Math.min(x0 + tileSize, width), Math.min(y0 + tileSize, height));
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * Clip tiles to a window, dropping the tiles outside of it.
+	 * 
+	 * @param tiles Tiles of an image.
+	 * @param window Window to render.
+	 * @return tiles inside the window, in the same order.
+	 */
+	public static Tile[] crop(Tile tiles[], Tile window) {
+		int n = 0;
+		Tile cropped[] = new Tile[tiles.length];
+		for (Tile tile : tiles) {
+			if (tile.overlaps(window)) {
+				cropped[n++] = new Tile(Math.max(tile.x0, window.x0), Math.max(tile.y0, window.y0),
+						Math.min(tile.x1, window.x1), Math.min(tile.y1, window.y1));
+			}
+		}
+		return Arrays.copyOf(cropped, n);
+	}
+
+	/**
+	 * Does the tile share pixels with another?
+	 * 
+	 * @param tile
+	 * @return boolean
+	 */
+	public boolean overlaps(Tile tile) {
+		return (x0 < tile.x1 && tile.x0 < x1 && y0 < tile.y1 && tile.y0 < y1);
+	}
+
+	/**
+	 * Getter
+	 * 
+	 * @return First column.
+	 */
+	public int getX0() {
+		return x0;
+	}
+
+	/**
+	 * Getter
+	 * 
+	 * @return First row.
+	 */
+	public int getY0() {
+		return y0;
+	}
+
+	/**
+	 * Getter
+	 * 
+	 * @return Column one past the last.
+	 */
+	public int getX1() {
+		return x1;
+	}
+
+	/**
+	 * Getter
+	 * 
+	 * @return Row one past the last.
+	 */
+	public int getY1() {
+		return y1;
+	}
+}
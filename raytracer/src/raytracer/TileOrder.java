@@ -0,0 +1,85 @@
+package raytracer;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Order in which the tiles of a render are handed to the render threads, so
+ * that the part of the image that matters most shows up first.
+ *
+ * Tiles overlapping the region of interest of a render, the whole image if
+ * none is set, come before the others. The tiles of both groups are ordered
+ * around the centre of the region.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public enum TileOrder {
+	/** Rows from y = 0, left to right. */
+	ROWS {
+		@Override
+		double key(double dx, double dy, int tileSize) {
+			return (0.0);
+		}
+	},
+	/** Tiles closest to the centre first. */
+	CENTRE_OUT {
+		@Override
+		double key(double dx, double dy, int tileSize) {
+			return Math.hypot(dx, dy);
+		}
+	},
+	/** Square rings of tiles around the centre, each ring in clockwise order. */
+	SPIRAL {
+		@Override
+		double key(double dx, double dy, int tileSize) {
+			long ring = Math.max(Math.abs(Math.round(dx / tileSize)), Math.abs(Math.round(dy / tileSize)));
+			// clockwise from +x with y up, as a fraction of a turn in [0,1)
+			double angle = -Math.atan2(dy, dx);
+			if (angle < 0.0) {
+				angle += 2.0 * Math.PI;
+			}
+			return ring + Math.min(angle / (2.0 * Math.PI), Math.nextDown(1.0));
+		}
+	};
+
+	/**
+	 * Sort key of a tile, smaller keys are rendered first.
+	 *
+	 * @param dx Offset of the centre of the tile from the centre of the region.
+	 * @param dy Offset of the centre of the tile from the centre of the region.
+	 * @param tileSize Width and height of a tile.
+	 */
+	abstract double key(double dx, double dy, int tileSize);
+
+	/**
+	 * Sort tiles, tiles of equal priority keep their order.
+	 *
+	 * @param tiles Tiles of a render, in row order.
+	 * @param region Region of interest.
+	 * @param tileSize Width and height of a tile.
+	 */
+	public void sort(Tile tiles[], Tile region, int tileSize) {
+		double cx = 0.5 * (region.getX0() + region.getX1());
+		double cy = 0.5 * (region.getY0() + region.getY1());
+		boolean outside[] = new boolean[tiles.length];
+		double keys[] = new double[tiles.length];
+		Integer order[] = new Integer[tiles.length];
+		for (int idx = 0; idx < tiles.length; ++idx) {
+			Tile tile = tiles[idx];
+			double dx = 0.5 * (tile.getX0() + tile.getX1()) - cx;
+			double dy = 0.5 * (tile.getY0() + tile.getY1()) - cy;
+			outside[idx] = !tile.overlaps(region);
+			keys[idx] = key(dx, dy, tileSize);
+			order[idx] = idx;
+		}
+		Arrays.sort(order, Comparator.<Integer, Boolean>comparing(idx -> outside[idx])
+				.thenComparingDouble(idx -> keys[idx]));
+
+		Tile sorted[] = new Tile[tiles.length];
+		for (int idx = 0; idx < tiles.length; ++idx) {
+			sorted[idx] = tiles[order[idx]];
+		}
+		System.arraycopy(sorted, 0, tiles, 0, tiles.length);
+	}
+}
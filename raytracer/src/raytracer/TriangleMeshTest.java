@@ -0,0 +1,181 @@
+package raytracer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import raytracer.geometry.MeshFile;
+import raytracer.geometry.ObjLoader;
+import raytracer.geometry.OffHeapStore;
+import raytracer.geometry.TriangleMesh;
+
+class TriangleMeshTest {
+
+	@Test
+	void testLoadObj() throws Exception {
+		String obj = "# unit quad at z = -5\r\n"
+				+ "o quad\r\n"
+				+ "v -1.0 -1.0 -5.0\r\n"
+				+ "v 1.0 -1.0 -5.0\r\n"
+				+ "v 1 1 -5e0\r\n"
+				+ "v -1.0 1.0 -.5E1\r\n"
+				+ "vt 0 0\r\n"
+				+ "vn 0.0 0.0 1.0\r\n"
+				+ "f 1/1/1 2//1 -2//-1 -1//1";
+		Path file = Files.createTempFile("quad", ".obj");
+		try {
+			Files.write(file, obj.getBytes(StandardCharsets.US_ASCII));
+			TriangleMesh mesh = ObjLoader.load(file);
+			assertEquals(4, mesh.getNumVertices());
+			assertEquals(2, mesh.getNumTriangles());
+			assertTrue(mesh.hasNormals());
+
+			HitRecord record = new HitRecord();
+			assertTrue(mesh.hit(new Ray(new Vector3d(0.5, 0.25, 0.0), new Vector3d(0.0, 0.0, -1.0)), record));
+			assertEquals(5.0, record.t, 1e-9);
+			assertEquals(1.0, record.nz, 1e-9);
+			record = new HitRecord();
+			assertTrue(mesh.hit(new Ray(new Vector3d(-0.5, 0.25, -10.0), new Vector3d(0.0, 0.0, 1.0)), record));
+			assertEquals(5.0, record.t, 1e-9);
+			assertEquals(-1.0, record.nz, 1e-9);
+			assertFalse(mesh.hit(new Ray(new Vector3d(1.5, 0.0, 0.0), new Vector3d(0.0, 0.0, -1.0)), new HitRecord()));
+			assertTrue(mesh.occluded(new Ray(new Vector3d(0.0, 0.0, 0.0), new Vector3d(0.0, 0.0, -1.0)), 6.0));
+			assertFalse(mesh.occluded(new Ray(new Vector3d(0.0, 0.0, 0.0), new Vector3d(0.0, 0.0, -1.0)), 4.0));
+
+			Files.write(file, "v 0 0 0\nf 1 2 3\n".getBytes(StandardCharsets.US_ASCII));
+			try {
+				ObjLoader.load(file);
+				assertTrue(false);
+			} catch (java.io.IOException e) {
+				// face refers to missing vertices
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	void testMeshFile() throws Exception {
+		TriangleMesh mesh = createGrid(16, 0.5f);
+		Path file = Files.createTempFile("grid", ".mesh");
+		try {
+			MeshFile.write(mesh, file);
+			TriangleMesh loaded = MeshFile.load(file);
+			assertEquals(mesh.getNumVertices(), loaded.getNumVertices());
+			assertEquals(mesh.getNumTriangles(), loaded.getNumTriangles());
+
+			Random random = new Random(5);
+			for (int idx = 0; idx < 1000; ++idx) {
+				Ray ray = new Ray(new Vector3d(random.nextDouble() * 6.0, random.nextDouble() * 4.0, 3.0),
+						new Vector3d(random.nextGaussian(), random.nextGaussian(), -2.0));
+				HitRecord expected = new HitRecord();
+				HitRecord record = new HitRecord();
+				assertEquals(mesh.hit(ray, expected), loaded.hit(ray, record));
+				assertEquals(expected.t, record.t, 0.0);
+				assertEquals(expected.nz, record.nz, 0.0);
+			}
+
+			// truncated file
+			try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file,
+					java.nio.file.StandardOpenOption.WRITE)) {
+				channel.truncate(channel.size() - 1);
+			}
+			try {
+				MeshFile.load(file);
+				assertTrue(false);
+			} catch (java.io.IOException e) {
+				// expected
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static float[] gridVertex(int x, int y, float bump) {
+		return new float[] { x * 0.37f, y * 0.29f, bump * (float) Math.sin(x * 1.3 + y * 0.7) };
+	}
+
+	/**
+	 * Grid of n by n cells of two triangles with a sine bump.
+	 */
+	private static TriangleMesh createGrid(int n, float bump) {
+		float positions[] = new float[(n + 1) * (n + 1) * 3];
+		for (int y = 0; y <= n; ++y) {
+			for (int x = 0; x <= n; ++x) {
+				System.arraycopy(gridVertex(x, y, bump), 0, positions, (y * (n + 1) + x) * 3, 3);
+			}
+		}
+		int indices[] = new int[n * n * 6];
+		for (int y = 0; y < n; ++y) {
+			for (int x = 0; x < n; ++x) {
+				int v = y * (n + 1) + x;
+				int t = (y * n + x) * 6;
+				indices[t] = v;
+				indices[t + 1] = v + 1;
+				indices[t + 2] = v + n + 2;
+				indices[t + 3] = v;
+				indices[t + 4] = v + n + 2;
+				indices[t + 5] = v + n + 1;
+			}
+		}
+		return new TriangleMesh(positions, null, indices);
+	}
+
+	@Test
+	void testWatertight() {
+		// a bumpy grid without silhouettes as seen from above, rays through
+		// its vertices and edges must not leak
+		int n = 16;
+		TriangleMesh mesh = createGrid(n, 0.05f);
+
+		Random random = new Random(3);
+		for (int y = 1; y < n; ++y) {
+			for (int x = 1; x < n; ++x) {
+				float v[] = gridVertex(x, y, 0.05f);
+				float w[] = gridVertex(x + 1, y, 0.05f);
+				double targets[][] = { { v[0], v[1], v[2] },
+						{ 0.5 * (v[0] + w[0]), 0.5 * (v[1] + w[1]), 0.5 * (v[2] + w[2]) } };
+				for (double target[] : targets) {
+					Vector3d origin = new Vector3d(random.nextDouble() * 6.0, random.nextDouble() * 4.0,
+							5.0 + random.nextDouble() * 5.0);
+					Vector3d direction = new Vector3d(target[0] - origin.get(0), target[1] - origin.get(1),
+							target[2] - origin.get(2));
+					Ray ray = new Ray(origin, direction);
+					HitRecord record = new HitRecord();
+					assertTrue(mesh.hit(ray, record));
+					assertEquals(direction.magnitude(), record.t, 1e-6);
+					assertTrue(mesh.occluded(ray, direction.magnitude() + 1e-6));
+				}
+			}
+		}
+	}
+
+	@Test
+	void testOffHeapStore() {
+		TriangleMesh mesh = createGrid(16, 0.5f);
+		try (OffHeapStore store = new OffHeapStore()) {
+			TriangleMesh copy = store.store(mesh);
+			assertEquals(mesh.getNumTriangles(), copy.getNumTriangles());
+			assertTrue(store.getSize() > 0);
+
+			Random random = new Random(5);
+			for (int idx = 0; idx < 1000; ++idx) {
+				Vector3d origin = new Vector3d(random.nextDouble() * 6.0, random.nextDouble() * 4.0, 3.0);
+				Vector3d direction = new Vector3d(random.nextGaussian(), random.nextGaussian(), -3.0);
+				Ray ray = new Ray(origin, direction);
+				HitRecord expected = new HitRecord();
+				HitRecord record = new HitRecord();
+				assertEquals(mesh.hit(ray, expected), copy.hit(ray, record));
+				assertEquals(expected.t, record.t, 0.0);
+				assertEquals(expected.nz, record.nz, 0.0);
+			}
+		}
+	}
+}
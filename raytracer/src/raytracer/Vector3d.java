@@ -1,12 +1,16 @@
 package raytracer;
 
+import java.io.Serializable;
+
 /**
  * Vector class for three double values.
  * 
  * @author Manuel Nunes
  *
  */
-public class Vector3d {
+public class Vector3d implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	final private int N = 3; /** < number of elements */
 	final protected double m_Vector[]; /** < vector */
 
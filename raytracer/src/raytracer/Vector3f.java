@@ -1,12 +1,16 @@
 package raytracer;
 
+import java.io.Serializable;
+
 /**
  * Vector class for three float values.
  * 
  * @author Manuel Nunes
  *
  */
-public class Vector3f {
+public class Vector3f implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	final private int N = 3; /** < number of elements */
 	final protected float m_Vector[]; /** < vector */
 
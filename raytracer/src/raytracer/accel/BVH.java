@@ -0,0 +1,935 @@
+package raytracer.accel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import raytracer.HitRecord;
+import raytracer.Ray;
+import raytracer.RayPacket;
+import raytracer.geometry.BBox;
+
+/**
+ * Bounding volume hierarchy built with the surface area heuristic (SAH).
+ *
+ * The hierarchy is stored as flat arrays in depth first order: the first child
+ * of an interior node immediately follows it and the index of the second
+ * child is stored in the node. Leaves reference a contiguous run of objects
+ * in {@link #getObjectIndex(int)} order. The arrays are read through buffers,
+ * a hierarchy built in this JVM wraps heap arrays, one read from a file or
+ * copied off the heap (see {@link #wrap}) uses that memory in place.
+ *
+ * The hierarchy can be refit to objects that moved or changed size, keeping
+ * its topology and only updating the bounds of the nodes above them. A refit
+ * hierarchy slowly loses quality, {@link #getCost()} tells when it is time to
+ * build a new one.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class BVH {
+	private static final int NUM_BINS = 16; /** < number of SAH bins per axis */
+	static final int MAX_LEAF_SIZE = 4; /** < largest number of objects in a leaf */
+	static final double TRAVERSAL_COST = 0.125; /** < cost of a node visit relative to an object test */
+	static final double FAR_SCALE = 1.0 + 0x1p-49; /** < widens the exit distance over rounding errors */
+
+	private int numNodes;
+	private DoubleBuffer nodeBounds; /** < x0,y0,z0,x1,y1,z1 per node */
+	private IntBuffer nodeOffsets; /** < first object of a leaf or second child of an interior node */
+	private IntBuffer nodeCounts; /** < number of objects in a leaf, 0 for an interior node */
+	private ByteBuffer nodeAxes; /** < split axis of an interior node */
+	private IntBuffer objectIndices; /** < object indices in leaf order */
+
+	private int nodeParents[]; /** < parent of every node, -1 for the root, only created by refit */
+	private int objectLeaves[]; /** < leaf of every object, only created by refit */
+	private double cost = Double.NaN; /** < SAH cost sum, surface area times cost per node, NaN until computed */
+
+	private double objectBounds[]; /** < x0,y0,z0,x1,y1,z1 per object, only used while building */
+	private int binCounts[];
+	private double binBounds[];
+	private double rightAreas[];
+	private int rightCounts[];
+
+	/**
+	 * Constructor
+	 *
+	 * @param boxes Bounding boxes of the objects to build the hierarchy over.
+	 */
+	public BVH(BBox boxes[]) {
+		this(toBounds(boxes), boxes.length);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param objectBounds Bounds of the objects as x0,y0,z0,x1,y1,z1 per object.
+	 * @param numObjects Number of objects.
+	 */
+	public BVH(double objectBounds[], int numObjects) {
+		this.objectBounds = objectBounds;
+		objectIndices = IntBuffer.wrap(new int[numObjects]);
+		for (int idx = 0; idx < numObjects; ++idx) {
+			objectIndices.put(idx, idx);
+		}
+
+		int capacity = Math.max(1, 2 * numObjects - 1);
+		nodeBounds = DoubleBuffer.wrap(new double[capacity * 6]);
+		nodeOffsets = IntBuffer.wrap(new int[capacity]);
+		nodeCounts = IntBuffer.wrap(new int[capacity]);
+		nodeAxes = ByteBuffer.wrap(new byte[capacity]);
+
+		binCounts = new int[NUM_BINS];
+		binBounds = new double[NUM_BINS * 6];
+		rightAreas = new double[NUM_BINS];
+		rightCounts = new int[NUM_BINS];
+
+		if (numObjects > 0) {
+			build(0, numObjects);
+		}
+
+		this.objectBounds = null;
+		binCounts = null;
+		binBounds = null;
+		rightAreas = null;
+		rightCounts = null;
+	}
+
+	/**
+	 * Constructor for a hierarchy built elsewhere, in the layout described
+	 * above.
+	 *
+	 * @param numNodes Number of nodes.
+	 * @param nodeBounds x0,y0,z0,x1,y1,z1 per node.
+	 * @param nodeOffsets First object of a leaf or second child of an interior node.
+	 * @param nodeCounts Number of objects in a leaf, 0 for an interior node.
+	 * @param nodeAxes Split axis of an interior node.
+	 * @param objectIndices Object indices in leaf order.
+	 */
+	BVH(int numNodes, double nodeBounds[], int nodeOffsets[], int nodeCounts[], byte nodeAxes[],
+			int objectIndices[]) {
+		this(numNodes, DoubleBuffer.wrap(nodeBounds), IntBuffer.wrap(nodeOffsets), IntBuffer.wrap(nodeCounts),
+				ByteBuffer.wrap(nodeAxes), IntBuffer.wrap(objectIndices));
+	}
+
+	private BVH(int numNodes, DoubleBuffer nodeBounds, IntBuffer nodeOffsets, IntBuffer nodeCounts,
+			ByteBuffer nodeAxes, IntBuffer objectIndices) {
+		this.numNodes = numNodes;
+		this.nodeBounds = nodeBounds;
+		this.nodeOffsets = nodeOffsets;
+		this.nodeCounts = nodeCounts;
+		this.nodeAxes = nodeAxes;
+		this.objectIndices = objectIndices;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of nodes in the hierarchy.
+	 */
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of objects referenced by the hierarchy.
+	 */
+	public int getNumObjects() {
+		return objectIndices.limit();
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @param idx Position in leaf order.
+	 * @return Index of the object, as passed to the constructor, at a position in
+	 *   leaf order.
+	 */
+	public int getObjectIndex(int idx) {
+		return objectIndices.get(idx);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @param node
+	 * @return Number of objects of a leaf, 0 for an interior node.
+	 */
+	int getNodeCount(int node) {
+		return nodeCounts.get(node);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @param node
+	 * @return First object of a leaf or second child of an interior node.
+	 */
+	int getNodeOffset(int node) {
+		return nodeOffsets.get(node);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @param node
+	 * @param k (0..5) -> (x0,y0,z0,x1,y1,z1)
+	 * @return Bound of a node.
+	 */
+	double getNodeBound(int node, int k) {
+		return nodeBounds.get(node * 6 + k);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @param node
+	 * @return Parent of a node, -1 for the root.
+	 */
+	int getNodeParent(int node) {
+		if (nodeParents == null) {
+			prepareRefit();
+		}
+		return nodeParents[node];
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @param object Index of the object, as passed to the constructor.
+	 * @return Leaf that references the object.
+	 */
+	int getObjectLeaf(int object) {
+		if (nodeParents == null) {
+			prepareRefit();
+		}
+		return objectLeaves[object];
+	}
+
+	/**
+	 * Size of a hierarchy written by {@link #write}.
+	 *
+	 * @param numNodes Number of nodes.
+	 * @param numObjects Number of objects.
+	 * @return Bytes written.
+	 */
+	public static long getSize(int numNodes, int numObjects) {
+		return (long) numNodes * (6 * Double.BYTES + 2 * Integer.BYTES + 1) + (long) numObjects * Integer.BYTES;
+	}
+
+	/**
+	 * Reads a hierarchy written by {@link #write} onto the heap.
+	 *
+	 * @param buffer Little endian buffer positioned at the hierarchy, it is
+	 *   positioned after it on return.
+	 * @param numNodes Number of nodes.
+	 * @param numObjects Number of objects.
+	 * @return BVH or null if the nodes refer to nodes or objects that do not
+	 *   exist, so that a damaged file cannot send a traversal out of bounds.
+	 * @throws java.nio.BufferUnderflowException if the buffer is too short.
+	 */
+	public static BVH read(ByteBuffer buffer, int numNodes, int numObjects) {
+		if (numNodes < 0 || numNodes > Math.max(1, 2 * numObjects - 1)) {
+			return (null);
+		}
+		double nodeBounds[] = new double[numNodes * 6];
+		int nodeOffsets[] = new int[numNodes];
+		int nodeCounts[] = new int[numNodes];
+		byte nodeAxes[] = new byte[numNodes];
+		int objectIndices[] = new int[numObjects];
+		buffer.asDoubleBuffer().get(nodeBounds);
+		buffer.position(buffer.position() + nodeBounds.length * Double.BYTES);
+		buffer.asIntBuffer().get(nodeOffsets);
+		buffer.position(buffer.position() + numNodes * Integer.BYTES);
+		buffer.asIntBuffer().get(nodeCounts);
+		buffer.position(buffer.position() + numNodes * Integer.BYTES);
+		buffer.get(nodeAxes);
+		buffer.asIntBuffer().get(objectIndices);
+		buffer.position(buffer.position() + numObjects * Integer.BYTES);
+
+		BVH bvh = new BVH(numNodes, nodeBounds, nodeOffsets, nodeCounts, nodeAxes, objectIndices);
+		return bvh.isValid() ? bvh : null;
+	}
+
+	/**
+	 * Uses a hierarchy written by {@link #write} in place, e.g. in a memory
+	 * mapped file or off the heap. A hierarchy in a read only buffer cannot
+	 * be refit.
+	 *
+	 * @param buffer Little endian buffer positioned at the hierarchy, it is
+	 *   positioned after it on return.
+	 * @param numNodes Number of nodes.
+	 * @param numObjects Number of objects.
+	 * @return BVH or null if the nodes refer to nodes or objects that do not
+	 *   exist.
+	 * @throws java.nio.BufferUnderflowException if the buffer is too short.
+	 */
+	public static BVH wrap(ByteBuffer buffer, int numNodes, int numObjects) {
+		if (numNodes < 0 || numNodes > Math.max(1, 2 * numObjects - 1)) {
+			return (null);
+		}
+		if (buffer.remaining() < getSize(numNodes, numObjects)) {
+			throw new java.nio.BufferUnderflowException();
+		}
+		DoubleBuffer nodeBounds = slice(buffer, numNodes * 6 * Double.BYTES).asDoubleBuffer();
+		IntBuffer nodeOffsets = slice(buffer, numNodes * Integer.BYTES).asIntBuffer();
+		IntBuffer nodeCounts = slice(buffer, numNodes * Integer.BYTES).asIntBuffer();
+		ByteBuffer nodeAxes = slice(buffer, numNodes);
+		IntBuffer objectIndices = slice(buffer, numObjects * Integer.BYTES).asIntBuffer();
+
+		BVH bvh = new BVH(numNodes, nodeBounds, nodeOffsets, nodeCounts, nodeAxes, objectIndices);
+		return bvh.isValid() ? bvh : null;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int size) {
+		ByteBuffer slice = buffer.slice(buffer.position(), size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(buffer.position() + size);
+		return (slice);
+	}
+
+	/**
+	 * Checks that every node refers to nodes and objects that exist.
+	 */
+	private boolean isValid() {
+		int numObjects = objectIndices.limit();
+		for (int node = 0; node < numNodes; ++node) {
+			int count = nodeCounts.get(node);
+			int offset = nodeOffsets.get(node);
+			if (count < 0 || nodeAxes.get(node) < 0 || nodeAxes.get(node) > 2) {
+				return (false);
+			}
+			if (count > 0 ? (offset < 0 || offset > numObjects - count) : (offset <= node + 1 || offset >= numNodes)) {
+				return (false);
+			}
+		}
+		boolean seen[] = new boolean[numObjects];
+		for (int idx = 0; idx < numObjects; ++idx) {
+			int object = objectIndices.get(idx);
+			if (object < 0 || object >= numObjects || seen[object]) {
+				return (false);
+			}
+			seen[object] = true;
+		}
+		return (true);
+	}
+
+	/**
+	 * Writes the nodes and the object indices in the layout described above,
+	 * in little endian order: the node bounds, offsets, counts, axes and the
+	 * object indices.
+	 *
+	 * @param channel Channel to write to.
+	 * @param buffer Little endian buffer in which the values are gathered, it
+	 *   is written to the channel whenever it is full and may hold unwritten
+	 *   values on return.
+	 * @throws IOException
+	 */
+	public void write(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		for (int idx = 0; idx < numNodes * 6; ++idx) {
+			reserve(channel, buffer, Double.BYTES).putDouble(nodeBounds.get(idx));
+		}
+		for (int node = 0; node < numNodes; ++node) {
+			reserve(channel, buffer, Integer.BYTES).putInt(nodeOffsets.get(node));
+		}
+		for (int node = 0; node < numNodes; ++node) {
+			reserve(channel, buffer, Integer.BYTES).putInt(nodeCounts.get(node));
+		}
+		for (int node = 0; node < numNodes; ++node) {
+			reserve(channel, buffer, 1).put(nodeAxes.get(node));
+		}
+		for (int idx = 0; idx < objectIndices.limit(); ++idx) {
+			reserve(channel, buffer, Integer.BYTES).putInt(objectIndices.get(idx));
+		}
+	}
+
+	/**
+	 * Writes the nodes and the object indices in the layout of
+	 * {@link #write(WritableByteChannel, ByteBuffer)}.
+	 *
+	 * @param buffer Little endian buffer with {@link #getSize} bytes
+	 *   remaining.
+	 */
+	public void write(ByteBuffer buffer) {
+		try {
+			write(null, buffer);
+		} catch (IOException e) {
+			// nothing is written to the channel while the buffer has room
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static ByteBuffer reserve(WritableByteChannel channel, ByteBuffer buffer, int size) throws IOException {
+		if (buffer.remaining() < size) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+		return (buffer);
+	}
+
+	/**
+	 * Closest hit traversal.
+	 *
+	 * Nodes are visited front to back, the child on the near side of the split
+	 * plane first, and skipped once they lie beyond the closest hit found so far.
+	 *
+	 * @param ray View ray that intersects the hierarchy.
+	 * @param record Closest intersection found so far, updated on a closer hit.
+	 * @param leaves Intersects the objects of a leaf.
+	 * @return Did it hit an object closer than record.t?
+	 */
+	public boolean hit(Ray ray, HitRecord record, LeafIntersector leaves) {
+		if (numNodes == 0) {
+			return (false);
+		}
+
+		double ox = ray.getOrigin().x;
+		double oy = ray.getOrigin().y;
+		double oz = ray.getOrigin().z;
+		double invDx = ray.getInvDirection(0);
+		double invDy = ray.getInvDirection(1);
+		double invDz = ray.getInvDirection(2);
+
+		boolean is_hit = false;
+		TraversalStack stack = TraversalStack.get();
+		int base = stack.top;
+		stack.push(0);
+
+		try {
+			while (stack.top > base) {
+				int node = stack.pop();
+				if (!hitNode(node, ox, oy, oz, invDx, invDy, invDz, record.t)) {
+					continue;
+				}
+
+				int count = nodeCounts.get(node);
+				if (count > 0) {
+					if (leaves.hit(nodeOffsets.get(node), count, ray, record)) {
+						is_hit = true;
+					}
+				} else {
+					int near = node + 1;
+					int far = nodeOffsets.get(node);
+					if (ray.getSign(nodeAxes.get(node)) != 0) {
+						near = far;
+						far = node + 1;
+					}
+					stack.push(far);
+					stack.push(near);
+				}
+			}
+		} finally {
+			stack.top = base;
+		}
+		return (is_hit);
+	}
+
+	/**
+	 * Closest hit traversal of a coherent packet of rays.
+	 *
+	 * The packet visits the nodes together, front to back along the common
+	 * direction signs. A node is culled for the whole packet when the ranges
+	 * of the packet miss it, otherwise the traversal of the node starts at the
+	 * first ray that hits it, which is passed on to its children as the rays
+	 * before it miss them too. The rays of a leaf are tested one by one.
+	 *
+	 * @param packet Prepared coherent packet, the hit records and flags of its
+	 *   rays are updated on a closer hit.
+	 * @param leaves Intersects the objects of a leaf.
+	 */
+	public void hit(RayPacket packet, LeafIntersector leaves) {
+		if (!packet.isCoherent()) {
+			throw new IllegalArgumentException("Packet is not coherent.");
+		}
+		if (numNodes == 0) {
+			return;
+		}
+
+		int n = packet.size();
+		double ox[] = packet.ox, oy[] = packet.oy, oz[] = packet.oz;
+		double invDx[] = packet.invDx, invDy[] = packet.invDy, invDz[] = packet.invDz;
+		HitRecord records[] = packet.records;
+		double tMax = Double.MAX_VALUE;
+
+		TraversalStack stack = TraversalStack.get();
+		int base = stack.top;
+		stack.push(0);
+		stack.push(0);
+
+		try {
+			while (stack.top > base) {
+				int node = stack.pop();
+				int first = stack.pop();
+				if (!hitNode(node, packet, tMax)) {
+					continue;
+				}
+				while (first < n && !hitNode(node, ox[first], oy[first], oz[first], invDx[first], invDy[first],
+						invDz[first], records[first].t)) {
+					++first;
+				}
+				if (first == n) {
+					continue;
+				}
+
+				int count = nodeCounts.get(node);
+				if (count > 0) {
+					boolean leafHit = false;
+					for (int idx = first; idx < n; ++idx) {
+						if (idx == first || hitNode(node, ox[idx], oy[idx], oz[idx], invDx[idx], invDy[idx],
+								invDz[idx], records[idx].t)) {
+							if (leaves.hit(nodeOffsets.get(node), count, packet.rays[idx], records[idx])) {
+								packet.hits[idx] = true;
+								leafHit = true;
+							}
+						}
+					}
+					if (leafHit) {
+						tMax = 0.0;
+						for (int idx = 0; idx < n; ++idx) {
+							tMax = Math.max(tMax, records[idx].t);
+						}
+					}
+				} else {
+					int near = node + 1;
+					int far = nodeOffsets.get(node);
+					if (packet.invDirectionMin[nodeAxes.get(node)] < 0) {
+						near = far;
+						far = node + 1;
+					}
+					stack.push(first);
+					stack.push(far);
+					stack.push(first);
+					stack.push(near);
+				}
+			}
+		} finally {
+			stack.top = base;
+		}
+	}
+
+	/**
+	 * Any hit traversal.
+	 *
+	 * Returns as soon as a leaf reports an intersection closer than tMax, the
+	 * order in which the children are visited only affects how early that is.
+	 *
+	 * @param ray Ray that intersects the hierarchy.
+	 * @param tMax Distance beyond which intersections are ignored.
+	 * @param leaves Intersects the objects of a leaf.
+	 * @return Does any object intersect the ray within tMax?
+	 */
+	public boolean occluded(Ray ray, double tMax, LeafIntersector leaves) {
+		return occluder(ray, tMax, leaves) >= 0;
+	}
+
+	/**
+	 * Any hit traversal that reports the object found.
+	 *
+	 * @param ray Ray that intersects the hierarchy.
+	 * @param tMax Distance beyond which intersections are ignored.
+	 * @param leaves Intersects the objects of a leaf.
+	 * @return Leaf order index of an object that intersects the ray within
+	 *   tMax, -1 if none does.
+	 */
+	public int occluder(Ray ray, double tMax, LeafIntersector leaves) {
+		if (numNodes == 0) {
+			return (-1);
+		}
+
+		double ox = ray.getOrigin().x;
+		double oy = ray.getOrigin().y;
+		double oz = ray.getOrigin().z;
+		double invDx = ray.getInvDirection(0);
+		double invDy = ray.getInvDirection(1);
+		double invDz = ray.getInvDirection(2);
+
+		TraversalStack stack = TraversalStack.get();
+		int base = stack.top;
+		stack.push(0);
+
+		try {
+			while (stack.top > base) {
+				int node = stack.pop();
+				if (!hitNode(node, ox, oy, oz, invDx, invDy, invDz, tMax)) {
+					continue;
+				}
+
+				int count = nodeCounts.get(node);
+				if (count > 0) {
+					int occluder = leaves.occluder(nodeOffsets.get(node), count, ray, tMax);
+					if (occluder >= 0) {
+						return (occluder);
+					}
+				} else {
+					int near = node + 1;
+					int far = nodeOffsets.get(node);
+					if (ray.getSign(nodeAxes.get(node)) != 0) {
+						near = far;
+						far = node + 1;
+					}
+					stack.push(far);
+					stack.push(near);
+				}
+			}
+		} finally {
+			stack.top = base;
+		}
+		return (-1);
+	}
+
+	/**
+	 * Surface area heuristic cost of the hierarchy, the expected cost of a ray
+	 * that hits the root: the sum over the nodes of their surface area relative
+	 * to the root times the number of objects of a leaf or the traversal cost
+	 * of an interior node.
+	 *
+	 * @return SAH cost, 0 for an empty hierarchy.
+	 */
+	public double getCost() {
+		if (numNodes == 0) {
+			return (0.0);
+		}
+		if (Double.isNaN(cost)) {
+			cost = 0.0;
+			for (int node = 0; node < numNodes; ++node) {
+				cost += area(nodeBounds, node * 6) * nodeCost(node);
+			}
+		}
+		double rootArea = area(nodeBounds, 0);
+		return (rootArea > 0.0) ? cost / rootArea : 0.0;
+	}
+
+	/**
+	 * Refit the hierarchy to objects whose bounds changed. The bounds of the
+	 * leaves of the changed objects are recomputed and so are those of their
+	 * ancestors, up to the first ancestor that does not change.
+	 *
+	 * Not thread safe, no traversal may run during a refit.
+	 *
+	 * @param objectBounds Current bounds of all objects as x0,y0,z0,x1,y1,z1
+	 *   per object, indexed as in the constructor.
+	 * @param objects Indices of the changed objects.
+	 * @param numChanged Number of changed objects.
+	 */
+	public void refit(double objectBounds[], int objects[], int numChanged) {
+		if (nodeParents == null) {
+			prepareRefit();
+		}
+		getCost();
+
+		double bounds[] = new double[6];
+		for (int idx = 0; idx < numChanged; ++idx) {
+			int node = objectLeaves[objects[idx]];
+			while (node != -1) {
+				for (int k = 0; k < 3; ++k) {
+					bounds[k] = Double.POSITIVE_INFINITY;
+					bounds[k + 3] = Double.NEGATIVE_INFINITY;
+				}
+				int count = nodeCounts.get(node);
+				if (count > 0) {
+					for (int k = nodeOffsets.get(node); k < nodeOffsets.get(node) + count; ++k) {
+						includeBounds(bounds, objectBounds, objectIndices.get(k) * 6);
+					}
+				} else {
+					includeBounds(bounds, nodeBounds, (node + 1) * 6);
+					includeBounds(bounds, nodeBounds, nodeOffsets.get(node) * 6);
+				}
+
+				int b = node * 6;
+				boolean changed = false;
+				for (int k = 0; k < 6; ++k) {
+					changed |= (bounds[k] != nodeBounds.get(b + k));
+				}
+				if (!changed) {
+					break;
+				}
+				double oldArea = area(nodeBounds, b);
+				nodeBounds.put(b, bounds, 0, 6);
+				cost += (area(nodeBounds, b) - oldArea) * nodeCost(node);
+				node = nodeParents[node];
+			}
+		}
+	}
+
+	/**
+	 * Link every node to its parent and every object to its leaf.
+	 */
+	private void prepareRefit() {
+		nodeParents = new int[numNodes];
+		objectLeaves = new int[objectIndices.limit()];
+		if (numNodes > 0) {
+			nodeParents[0] = -1;
+		}
+		for (int node = 0; node < numNodes; ++node) {
+			int count = nodeCounts.get(node);
+			if (count > 0) {
+				for (int k = nodeOffsets.get(node); k < nodeOffsets.get(node) + count; ++k) {
+					objectLeaves[objectIndices.get(k)] = node;
+				}
+			} else {
+				nodeParents[node + 1] = node;
+				nodeParents[nodeOffsets.get(node)] = node;
+			}
+		}
+	}
+
+	/**
+	 * @return Cost of a node per unit of surface area.
+	 */
+	private double nodeCost(int node) {
+		return (nodeCounts.get(node) > 0) ? nodeCounts.get(node) : TRAVERSAL_COST;
+	}
+
+	/**
+	 * Interval test of a coherent packet against a node: bounds the distances
+	 * at which any ray of the packet enters and leaves the box from the ranges
+	 * of the origins and reciprocal directions.
+	 *
+	 * @return false if no ray of the packet hits the node within tMax.
+	 */
+	private boolean hitNode(int node, RayPacket packet, double tMax) {
+		int b = node * 6;
+		double tNear = 0.0;
+		double tFar = tMax;
+		for (int k = 0; k < 3; ++k) {
+			double inv0 = packet.invDirectionMin[k];
+			double inv1 = packet.invDirectionMax[k];
+			double o0 = packet.originMin[k];
+			double o1 = packet.originMax[k];
+			double near = (inv0 < 0) ? nodeBounds.get(b + k + 3) : nodeBounds.get(b + k);
+			double far = (inv0 < 0) ? nodeBounds.get(b + k) : nodeBounds.get(b + k + 3);
+			tNear = Math.max(tNear, Math.min(Math.min((near - o0) * inv0, (near - o0) * inv1),
+					Math.min((near - o1) * inv0, (near - o1) * inv1)));
+			tFar = Math.min(tFar, Math.max(Math.max((far - o0) * inv0, (far - o0) * inv1),
+					Math.max((far - o1) * inv0, (far - o1) * inv1)));
+		}
+		// NaN from 0 * infinity never culls
+		return !(tNear > tFar * FAR_SCALE);
+	}
+
+	/**
+	 * Slab test of a ray against the bounds of a node. The exit distance is
+	 * widened so that a ray through an edge or a corner of the bounds, e.g. a
+	 * vertex of a triangle mesh, is not culled by rounding errors.
+	 *
+	 * A NaN from an axis parallel ray whose origin lies on a bound plane
+	 * (0 * infinity) is ignored as in Box, so such a ray is not culled by a
+	 * node that holds a box it hits.
+	 *
+	 * @return Does the ray enter the node before tMax?
+	 */
+	private boolean hitNode(int node, double ox, double oy, double oz, double invDx, double invDy, double invDz,
+			double tMax) {
+		int b = node * 6;
+		double tNear = Double.NEGATIVE_INFINITY;
+		double tFar = Double.POSITIVE_INFINITY;
+		for (int k = 0; k < 3; ++k) {
+			double o = (k == 0) ? ox : (k == 1) ? oy : oz;
+			double inv = (k == 0) ? invDx : (k == 1) ? invDy : invDz;
+			double t0 = (nodeBounds.get((inv < 0) ? b + k + 3 : b + k) - o) * inv;
+			double t1 = (nodeBounds.get((inv < 0) ? b + k : b + k + 3) - o) * inv;
+			if (t0 > tNear) {
+				tNear = t0;
+			}
+			if (t1 < tFar) {
+				tFar = t1;
+			}
+		}
+		tFar *= FAR_SCALE;
+
+		return (tNear <= tFar && tFar > 0.0 && tNear < tMax);
+	}
+
+	/**
+	 * Recursively build the subtree over the objects [start, end) in leaf order.
+	 *
+	 * @return index of the node
+	 */
+	private int build(int start, int end) {
+		int node = numNodes++;
+		int n = end - start;
+
+		double centroidMin[] = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		double centroidMax[] = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		int b = node * 6;
+		for (int axis = 0; axis < 3; ++axis) {
+			nodeBounds.put(b + axis, Double.POSITIVE_INFINITY);
+			nodeBounds.put(b + axis + 3, Double.NEGATIVE_INFINITY);
+		}
+		for (int idx = start; idx < end; ++idx) {
+			int o = objectIndices.get(idx) * 6;
+			for (int axis = 0; axis < 3; ++axis) {
+				nodeBounds.put(b + axis, Math.min(nodeBounds.get(b + axis), objectBounds[o + axis]));
+				nodeBounds.put(b + axis + 3, Math.max(nodeBounds.get(b + axis + 3), objectBounds[o + axis + 3]));
+				double c = centroid(o, axis);
+				centroidMin[axis] = Math.min(centroidMin[axis], c);
+				centroidMax[axis] = Math.max(centroidMax[axis], c);
+			}
+		}
+
+		if (n == 1) {
+			return makeLeaf(node, start, n);
+		}
+
+		// Binned SAH over all three axes
+		double nodeArea = area(nodeBounds, b);
+		if (nodeArea <= 0.0) {
+			nodeArea = 1.0;
+		}
+		int bestAxis = -1;
+		int bestBin = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		for (int axis = 0; axis < 3; ++axis) {
+			double extent = centroidMax[axis] - centroidMin[axis];
+			if (extent <= 0.0) {
+				continue;
+			}
+			double scale = NUM_BINS / extent;
+
+			for (int bin = 0; bin < NUM_BINS; ++bin) {
+				binCounts[bin] = 0;
+				for (int k = 0; k < 3; ++k) {
+					binBounds[bin * 6 + k] = Double.POSITIVE_INFINITY;
+					binBounds[bin * 6 + k + 3] = Double.NEGATIVE_INFINITY;
+				}
+			}
+			for (int idx = start; idx < end; ++idx) {
+				int o = objectIndices.get(idx) * 6;
+				int bin = binOf(centroid(o, axis), centroidMin[axis], scale);
+				++binCounts[bin];
+				for (int k = 0; k < 3; ++k) {
+					binBounds[bin * 6 + k] = Math.min(binBounds[bin * 6 + k], objectBounds[o + k]);
+					binBounds[bin * 6 + k + 3] = Math.max(binBounds[bin * 6 + k + 3], objectBounds[o + k + 3]);
+				}
+			}
+
+			// sweep from the right, rightAreas[bin] covers bins [bin, NUM_BINS)
+			double sweep[] = emptyBounds();
+			int count = 0;
+			for (int bin = NUM_BINS - 1; bin > 0; --bin) {
+				includeBounds(sweep, binBounds, bin * 6);
+				count += binCounts[bin];
+				rightAreas[bin] = area(sweep, 0);
+				rightCounts[bin] = count;
+			}
+
+			// sweep from the left evaluating the split before each bin
+			sweep = emptyBounds();
+			count = 0;
+			for (int bin = 1; bin < NUM_BINS; ++bin) {
+				includeBounds(sweep, binBounds, (bin - 1) * 6);
+				count += binCounts[bin - 1];
+				if (count == 0 || rightCounts[bin] == 0) {
+					continue;
+				}
+				double cost = TRAVERSAL_COST + (area(sweep, 0) * count + rightAreas[bin] * rightCounts[bin]) / nodeArea;
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestBin = bin;
+				}
+			}
+		}
+
+		int mid;
+		if (bestAxis == -1) {
+			// all centroids coincide, split by count
+			if (n <= MAX_LEAF_SIZE) {
+				return makeLeaf(node, start, n);
+			}
+			mid = start + n / 2;
+		} else {
+			if (n <= MAX_LEAF_SIZE && n <= bestCost) {
+				return makeLeaf(node, start, n);
+			}
+			double scale = NUM_BINS / (centroidMax[bestAxis] - centroidMin[bestAxis]);
+			mid = start;
+			for (int idx = start; idx < end; ++idx) {
+				int o = objectIndices.get(idx) * 6;
+				if (binOf(centroid(o, bestAxis), centroidMin[bestAxis], scale) < bestBin) {
+					int swp = objectIndices.get(idx);
+					objectIndices.put(idx, objectIndices.get(mid));
+					objectIndices.put(mid++, swp);
+				}
+			}
+		}
+
+		nodeCounts.put(node, 0);
+		nodeAxes.put(node, (byte) Math.max(bestAxis, 0));
+		build(start, mid);
+		nodeOffsets.put(node, build(mid, end));
+		return (node);
+	}
+
+	private int makeLeaf(int node, int start, int n) {
+		nodeOffsets.put(node, start);
+		nodeCounts.put(node, n);
+		return (node);
+	}
+
+	private double centroid(int o, int axis) {
+		return 0.5 * (objectBounds[o + axis] + objectBounds[o + axis + 3]);
+	}
+
+	private static int binOf(double centroid, double min, double scale) {
+		return Math.min(NUM_BINS - 1, (int) ((centroid - min) * scale));
+	}
+
+	private static double[] emptyBounds() {
+		return new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+	}
+
+	private static void includeBounds(double dst[], DoubleBuffer src, int s) {
+		for (int k = 0; k < 3; ++k) {
+			dst[k] = Math.min(dst[k], src.get(s + k));
+			dst[k + 3] = Math.max(dst[k + 3], src.get(s + k + 3));
+		}
+	}
+
+	private static void includeBounds(double dst[], double src[], int s) {
+		for (int k = 0; k < 3; ++k) {
+			dst[k] = Math.min(dst[k], src[s + k]);
+			dst[k + 3] = Math.max(dst[k + 3], src[s + k + 3]);
+		}
+	}
+
+	private static double area(DoubleBuffer bounds, int b) {
+		double dx = bounds.get(b + 3) - bounds.get(b);
+		double dy = bounds.get(b + 4) - bounds.get(b + 1);
+		double dz = bounds.get(b + 5) - bounds.get(b + 2);
+		if (dx < 0 || dy < 0 || dz < 0) {
+			return (0.0);
+		}
+		return 2.0 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	static double area(double bounds[], int b) {
+		double dx = bounds[b + 3] - bounds[b];
+		double dy = bounds[b + 4] - bounds[b + 1];
+		double dz = bounds[b + 5] - bounds[b + 2];
+		if (dx < 0 || dy < 0 || dz < 0) {
+			return (0.0);
+		}
+		return 2.0 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	static double[] toBounds(BBox boxes[]) {
+		double bounds[] = new double[boxes.length * 6];
+		for (int idx = 0; idx < boxes.length; ++idx) {
+			bounds[idx * 6] = boxes[idx].x0;
+			bounds[idx * 6 + 1] = boxes[idx].y0;
+			bounds[idx * 6 + 2] = boxes[idx].z0;
+			bounds[idx * 6 + 3] = boxes[idx].x1;
+			bounds[idx * 6 + 4] = boxes[idx].y1;
+			bounds[idx * 6 + 5] = boxes[idx].z1;
+		}
+		return bounds;
+	}
+}
@@ -0,0 +1,63 @@
+package raytracer.accel;
+
+import raytracer.geometry.BBox;
+
+/**
+ * Method used to build a bounding volume hierarchy, trading build time
+ * against the time it takes to trace rays through the hierarchy.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public enum BVHBuilder {
+	/**
+	 * Binned SAH, the slowest build and the fastest hierarchy.
+	 */
+	SAH {
+		@Override
+		public BVH build(double objectBounds[], int numObjects) {
+			return new BVH(objectBounds, numObjects);
+		}
+	},
+
+	/**
+	 * Parallel linear BVH over the Morton order of the objects, the fastest
+	 * build, for scenes that change between renders.
+	 */
+	LBVH {
+		@Override
+		public BVH build(double objectBounds[], int numObjects) {
+			return LinearBVHBuilder.build(objectBounds, numObjects, false);
+		}
+	},
+
+	/**
+	 * Parallel linear BVH with treelet restructuring, recovering most of the
+	 * quality of SAH for a fraction of its build time.
+	 */
+	LBVH_TREELETS {
+		@Override
+		public BVH build(double objectBounds[], int numObjects) {
+			return LinearBVHBuilder.build(objectBounds, numObjects, true);
+		}
+	};
+
+	/**
+	 * Build a hierarchy.
+	 *
+	 * @param objectBounds Bounds of the objects as x0,y0,z0,x1,y1,z1 per object.
+	 * @param numObjects Number of objects.
+	 * @return BVH over the objects.
+	 */
+	public abstract BVH build(double objectBounds[], int numObjects);
+
+	/**
+	 * Build a hierarchy.
+	 *
+	 * @param boxes Bounding boxes of the objects.
+	 * @return BVH over the objects.
+	 */
+	public BVH build(BBox boxes[]) {
+		return build(BVH.toBounds(boxes), boxes.length);
+	}
+}
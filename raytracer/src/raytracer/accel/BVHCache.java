@@ -0,0 +1,153 @@
+package raytracer.accel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Directory of hierarchies saved by earlier runs, so that a static scene
+ * rendered again in another JVM skips the build.
+ *
+ * A hierarchy only depends on the bounds of its objects and on the builder,
+ * so it is stored under a SHA-256 hash of both. A cache file is the flat
+ * layout of BVH: a header followed by the node bounds, offsets, counts, axes
+ * and the object indices in little endian order. It is read through a memory
+ * mapped FileChannel and written to a temporary file that is then moved in
+ * place, so a concurrent or interrupted run never sees half a file.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class BVHCache {
+	private static final int MAGIC = 0x48564231; /** < "BVH1" */
+	private static final int HEADER_SIZE = 12; /** < magic, number of nodes and number of objects */
+	private static final int CHUNK_SIZE = 1 << 16; /** < bytes hashed or written at a time */
+
+	private final Path directory;
+
+	/**
+	 * Constructor
+	 *
+	 * @param directory Directory of the cache files, created when needed.
+	 */
+	public BVHCache(Path directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException("Invalid cache directory.");
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Directory of the cache files.
+	 */
+	public Path getDirectory() {
+		return (directory);
+	}
+
+	/**
+	 * Content hash of the input of a build.
+	 *
+	 * @param objectBounds Bounds of the objects as x0,y0,z0,x1,y1,z1 per object.
+	 * @param numObjects Number of objects.
+	 * @param builder Method used to build the hierarchy.
+	 * @return Hexadecimal key of the hierarchy.
+	 */
+	public static String key(double objectBounds[], int numObjects, BVHBuilder builder) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(numObjects);
+		buffer.putInt(builder.ordinal());
+		for (int idx = 0; idx < numObjects * 6; ++idx) {
+			if (buffer.remaining() < Double.BYTES) {
+				digest.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+			buffer.putDouble(objectBounds[idx]);
+		}
+		digest.update(buffer.array(), 0, buffer.position());
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(String.format("%02x", b));
+		}
+		return key.toString();
+	}
+
+	private Path file(String key) {
+		return directory.resolve(key + ".bvh");
+	}
+
+	/**
+	 * Loads a hierarchy saved under a key.
+	 *
+	 * @param key Key of the hierarchy, see {@link #key}.
+	 * @param numObjects Number of objects the hierarchy was built over.
+	 * @return BVH or null if there is no valid cache file for the key.
+	 */
+	public BVH load(String key, int numObjects) {
+		try (FileChannel channel = FileChannel.open(file(key), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				return (null);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC) {
+				return (null);
+			}
+			int numNodes = buffer.getInt();
+			if (buffer.getInt() != numObjects || numNodes < 0
+					|| size != HEADER_SIZE + BVH.getSize(numNodes, numObjects)) {
+				return (null);
+			}
+			return BVH.read(buffer, numNodes, numObjects);
+		} catch (IOException e) {
+			return (null);
+		}
+	}
+
+	/**
+	 * Saves a hierarchy under a key, replacing any previous file.
+	 *
+	 * @param key Key of the hierarchy, see {@link #key}.
+	 * @param bvh Hierarchy to save.
+	 * @throws IOException
+	 */
+	public void store(String key, BVH bvh) throws IOException {
+		int numNodes = bvh.getNumNodes();
+		int numObjects = bvh.getNumObjects();
+		Files.createDirectories(directory);
+		Path temp = Files.createTempFile(directory, key, ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.putInt(MAGIC);
+				buffer.putInt(numNodes);
+				buffer.putInt(numObjects);
+				bvh.write(channel, buffer);
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			Files.move(temp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package raytracer.accel;
+
+/**
+ * Slab test of a ray against all children of a node of a wide hierarchy,
+ * stored as structure of arrays with the children of a node side by side.
+ *
+ * The planes the ray enters and leaves through are chosen by the caller from
+ * the sign of the direction, as are the origins which are rounded so that
+ * the float test never misses a box the ray hits.
+ *
+ * @author Manuel Nunes
+ *
+ */
+interface ChildIntersector {
+	/**
+	 * Slab test of the children of a node.
+	 *
+	 * @param first index of the first child of the node in the arrays
+	 * @param nearX planes the ray enters the boxes through along x
+	 * @param nearY planes the ray enters the boxes through along y
+	 * @param nearZ planes the ray enters the boxes through along z
+	 * @param farX planes the ray leaves the boxes through along x
+	 * @param farY planes the ray leaves the boxes through along y
+	 * @param farZ planes the ray leaves the boxes through along z
+	 * @param nearOx origin x for the near planes
+	 * @param nearOy origin y for the near planes
+	 * @param nearOz origin z for the near planes
+	 * @param farOx origin x for the far planes
+	 * @param farOy origin y for the far planes
+	 * @param farOz origin z for the far planes
+	 * @param invDx reciprocal of the direction x
+	 * @param invDy reciprocal of the direction y
+	 * @param invDz reciprocal of the direction z
+	 * @param tMax distance beyond which boxes are ignored
+	 * @param dists distance at which the ray enters every child
+	 * @return bit mask of the children hit
+	 */
+	int intersect(int first, float nearX[], float nearY[], float nearZ[], float farX[], float farY[],
+			float farZ[], float nearOx, float nearOy, float nearOz, float farOx, float farOy, float farOz,
+			float invDx, float invDy, float invDz, float tMax, float dists[]);
+}
@@ -0,0 +1,41 @@
+package raytracer.accel;
+
+import raytracer.HitRecord;
+import raytracer.Ray;
+
+/**
+ * Callback used by an acceleration structure to intersect the objects
+ * referenced by one of its leaves.
+ *
+ * The owner of the acceleration structure keeps its objects in the order
+ * given by {@link BVH#getObjectIndex(int)} so that a leaf is a contiguous
+ * run [first, first + count).
+ *
+ * @author Manuel Nunes
+ *
+ */
+public interface LeafIntersector {
+	/**
+	 * Closest hit function for a run of objects.
+	 *
+	 * @param first index of the first object of the leaf
+	 * @param count number of objects in the leaf
+	 * @param ray ray to test against for intersection
+	 * @param record closest intersection found so far, only updated by a
+	 *   closer intersection.
+	 * @return boolean Did the ray hit an object closer than record.t?
+	 */
+	boolean hit(int first, int count, Ray ray, HitRecord record);
+
+	/**
+	 * Any hit function for a run of objects.
+	 *
+	 * @param first index of the first object of the leaf
+	 * @param count number of objects in the leaf
+	 * @param ray ray to test against for intersection
+	 * @param tMax distance beyond which intersections are ignored
+	 * @return int Index of an object that intersects the ray within
+	 *   (kEpsilon, tMax), -1 if none does.
+	 */
+	int occluder(int first, int count, Ray ray, double tMax);
+}
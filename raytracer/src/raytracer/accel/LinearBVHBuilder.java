@@ -0,0 +1,582 @@
+package raytracer.accel;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Linear bounding volume hierarchy (LBVH) builder.
+ *
+ * The objects are sorted by the Morton code of their centroid with a parallel
+ * radix sort. Every interior node of the binary radix tree over the sorted
+ * codes is then found independently of the others (Karras 2012). Bounds, SAH
+ * costs and node counts are computed bottom-up, the second child to finish
+ * carrying on with its parent, optionally restructuring small treelets for
+ * the lowest SAH cost on the way (Karras and Aila 2013). Finally the tree is
+ * emitted into the depth first layout of {@link BVH}, collapsing subtrees into
+ * leaves where the SAH prefers it. Every step runs on the common fork join
+ * pool.
+ *
+ * @author Manuel Nunes
+ *
+ */
+final class LinearBVHBuilder {
+	private static final int MORTON_BITS = 10; /** < bits per axis of a Morton code */
+	private static final int RADIX_BITS = 10; /** < bits sorted per radix sort pass */
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int MIN_CHUNK_SIZE = 4096; /** < fewest objects handled by a parallel task */
+	private static final int SEQUENTIAL_EMIT_SIZE = 4096; /** < largest subtree emitted without forking */
+	private static final int TREELET_LEAVES = 7; /** < largest number of leaves of a restructured treelet */
+
+	private final int numObjects;
+	private final double objectBounds[];
+	private final boolean optimiseTreelets;
+	private final int numChunks;
+
+	private int codes[]; /** < Morton codes in sorted order */
+	private int sortedObjects[]; /** < object index in Morton order */
+
+	// radix tree, ids [0, n - 1) are interior nodes and ids [n - 1, 2n - 1)
+	// the leaves holding the object of Morton rank id - (n - 1)
+	private int lefts[];
+	private int rights[];
+	private int parents[];
+	private double bounds[]; /** < x0,y0,z0,x1,y1,z1 per node */
+	private int counts[]; /** < objects in the subtree */
+	private double costs[]; /** < SAH cost of the subtree scaled by its surface area */
+	private int sizes[]; /** < emitted nodes of the subtree, 1 for a subtree emitted as leaf */
+	private AtomicIntegerArray visits;
+
+	// emitted hierarchy
+	private double nodeBounds[];
+	private int nodeOffsets[];
+	private int nodeCounts[];
+	private byte nodeAxes[];
+	private int objectIndices[];
+
+	/**
+	 * Build a hierarchy.
+	 *
+	 * @param objectBounds Bounds of the objects as x0,y0,z0,x1,y1,z1 per object.
+	 * @param numObjects Number of objects.
+	 * @param optimiseTreelets Restructure treelets to lower the SAH cost, at
+	 *   the expense of a longer build.
+	 * @return BVH over the objects.
+	 */
+	static BVH build(double objectBounds[], int numObjects, boolean optimiseTreelets) {
+		return new LinearBVHBuilder(objectBounds, numObjects, optimiseTreelets).build();
+	}
+
+	private LinearBVHBuilder(double objectBounds[], int numObjects, boolean optimiseTreelets) {
+		this.objectBounds = objectBounds;
+		this.numObjects = numObjects;
+		this.optimiseTreelets = optimiseTreelets;
+		int parallelism = ForkJoinPool.getCommonPoolParallelism() + 1;
+		numChunks = Math.max(1, Math.min(parallelism * 4, numObjects / MIN_CHUNK_SIZE));
+	}
+
+	private BVH build() {
+		if (numObjects == 0) {
+			return new BVH(0, new double[0], new int[0], new int[0], new byte[0], new int[0]);
+		}
+
+		computeCodes();
+		sort();
+		if (numObjects > 1) {
+			buildRadixTree();
+		}
+		computeNodes();
+
+		// the root is node 0, interior or the only leaf
+		int numNodes = sizes[0];
+		nodeBounds = new double[numNodes * 6];
+		nodeOffsets = new int[numNodes];
+		nodeCounts = new int[numNodes];
+		nodeAxes = new byte[numNodes];
+		objectIndices = new int[numObjects];
+		ForkJoinPool.commonPool().invoke(new Emit(0, 0, 0));
+
+		return new BVH(numNodes, nodeBounds, nodeOffsets, nodeCounts, nodeAxes, objectIndices);
+	}
+
+	/**
+	 * Morton code of the centroid of every object within the bounds of all
+	 * centroids.
+	 */
+	private void computeCodes() {
+		double chunkBounds[] = new double[numChunks * 6];
+		parallelFor(numChunks, chunk -> {
+			int c = chunk * 6;
+			for (int axis = 0; axis < 3; ++axis) {
+				chunkBounds[c + axis] = Double.POSITIVE_INFINITY;
+				chunkBounds[c + axis + 3] = Double.NEGATIVE_INFINITY;
+			}
+			for (int idx = chunkStart(chunk); idx < chunkStart(chunk + 1); ++idx) {
+				for (int axis = 0; axis < 3; ++axis) {
+					double centroid = centroid(idx, axis);
+					chunkBounds[c + axis] = Math.min(chunkBounds[c + axis], centroid);
+					chunkBounds[c + axis + 3] = Math.max(chunkBounds[c + axis + 3], centroid);
+				}
+			}
+		});
+
+		double min[] = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		double scale[] = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (int chunk = 0; chunk < numChunks; ++chunk) {
+			for (int axis = 0; axis < 3; ++axis) {
+				min[axis] = Math.min(min[axis], chunkBounds[chunk * 6 + axis]);
+				scale[axis] = Math.max(scale[axis], chunkBounds[chunk * 6 + axis + 3]);
+			}
+		}
+		for (int axis = 0; axis < 3; ++axis) {
+			double extent = scale[axis] - min[axis];
+			scale[axis] = (extent > 0.0) ? (1 << MORTON_BITS) / extent : 0.0;
+		}
+
+		codes = new int[numObjects];
+		parallelFor(numChunks, chunk -> {
+			int maxCell = (1 << MORTON_BITS) - 1;
+			for (int idx = chunkStart(chunk); idx < chunkStart(chunk + 1); ++idx) {
+				int x = Math.min(maxCell, (int) ((centroid(idx, 0) - min[0]) * scale[0]));
+				int y = Math.min(maxCell, (int) ((centroid(idx, 1) - min[1]) * scale[1]));
+				int z = Math.min(maxCell, (int) ((centroid(idx, 2) - min[2]) * scale[2]));
+				codes[idx] = (expandBits(x) << 2) | (expandBits(y) << 1) | expandBits(z);
+			}
+		});
+	}
+
+	/**
+	 * Stable least significant digit radix sort of the Morton codes and the
+	 * object indices. Every pass histograms the chunks in parallel, computes
+	 * where each chunk writes each digit and scatters the chunks in parallel.
+	 */
+	private void sort() {
+		int keys[] = codes;
+		int values[] = new int[numObjects];
+		for (int idx = 0; idx < numObjects; ++idx) {
+			values[idx] = idx;
+		}
+		int sortedKeys[] = new int[numObjects];
+		int sortedValues[] = new int[numObjects];
+		int offsets[][] = new int[numChunks][RADIX];
+
+		for (int shift = 0; shift < 3 * MORTON_BITS; shift += RADIX_BITS) {
+			final int s = shift;
+			final int k[] = keys;
+			final int v[] = values;
+			final int sk[] = sortedKeys;
+			final int sv[] = sortedValues;
+
+			parallelFor(numChunks, chunk -> {
+				int histogram[] = offsets[chunk];
+				Arrays.fill(histogram, 0);
+				for (int idx = chunkStart(chunk); idx < chunkStart(chunk + 1); ++idx) {
+					++histogram[(k[idx] >>> s) & (RADIX - 1)];
+				}
+			});
+
+			int sum = 0;
+			for (int digit = 0; digit < RADIX; ++digit) {
+				for (int chunk = 0; chunk < numChunks; ++chunk) {
+					int count = offsets[chunk][digit];
+					offsets[chunk][digit] = sum;
+					sum += count;
+				}
+			}
+
+			parallelFor(numChunks, chunk -> {
+				int offset[] = offsets[chunk];
+				for (int idx = chunkStart(chunk); idx < chunkStart(chunk + 1); ++idx) {
+					int dst = offset[(k[idx] >>> s) & (RADIX - 1)]++;
+					sk[dst] = k[idx];
+					sv[dst] = v[idx];
+				}
+			});
+
+			sortedKeys = keys;
+			sortedValues = values;
+			keys = sk;
+			values = sv;
+		}
+
+		codes = keys;
+		sortedObjects = values;
+	}
+
+	/**
+	 * Find the range and split of every interior node of the radix tree, each
+	 * independently of the others.
+	 */
+	private void buildRadixTree() {
+		int numInterior = numObjects - 1;
+		lefts = new int[numInterior];
+		rights = new int[numInterior];
+		parents = new int[2 * numObjects - 1];
+		parents[0] = -1;
+
+		parallelFor(numChunks, chunk -> {
+			int end = Math.min(chunkStart(chunk + 1), numInterior);
+			for (int i = chunkStart(chunk); i < end; ++i) {
+				// direction of the range of i
+				int d = (delta(i, i + 1) - delta(i, i - 1)) >= 0 ? 1 : -1;
+
+				// other end of the range of i
+				int deltaMin = delta(i, i - d);
+				int lMax = 2;
+				while (delta(i, i + lMax * d) > deltaMin) {
+					lMax *= 2;
+				}
+				int l = 0;
+				for (int t = lMax / 2; t >= 1; t /= 2) {
+					if (delta(i, i + (l + t) * d) > deltaMin) {
+						l += t;
+					}
+				}
+				int j = i + l * d;
+
+				// split position
+				int deltaNode = delta(i, j);
+				int s = 0;
+				int t = l;
+				do {
+					t = (t + 1) >> 1;
+					if (delta(i, i + (s + t) * d) > deltaNode) {
+						s += t;
+					}
+				} while (t > 1);
+				int gamma = i + s * d + Math.min(d, 0);
+
+				int left = (Math.min(i, j) == gamma) ? numInterior + gamma : gamma;
+				int right = (Math.max(i, j) == gamma + 1) ? numInterior + gamma + 1 : gamma + 1;
+				lefts[i] = left;
+				rights[i] = right;
+				parents[left] = i;
+				parents[right] = i;
+			}
+		});
+	}
+
+	/**
+	 * Bounds, counts, costs and sizes of every node, bottom-up from the
+	 * leaves. Of the two children of a node the one finishing second carries
+	 * on with the node, so that a node is only computed once both children are.
+	 */
+	private void computeNodes() {
+		int numNodes = 2 * numObjects - 1;
+		bounds = new double[numNodes * 6];
+		counts = new int[numNodes];
+		costs = new double[numNodes];
+		sizes = new int[numNodes];
+		visits = new AtomicIntegerArray(Math.max(1, numObjects - 1));
+
+		parallelFor(numChunks, chunk -> {
+			Treelet treelet = optimiseTreelets ? new Treelet() : null;
+			for (int rank = chunkStart(chunk); rank < chunkStart(chunk + 1); ++rank) {
+				int node = numObjects - 1 + rank;
+				System.arraycopy(objectBounds, sortedObjects[rank] * 6, bounds, node * 6, 6);
+				counts[node] = 1;
+				costs[node] = area(node);
+				sizes[node] = 1;
+
+				if (numObjects == 1) {
+					continue;
+				}
+				int parent = parents[node];
+				while (parent != -1 && visits.getAndIncrement(parent) == 1) {
+					updateNode(parent);
+					if (treelet != null && counts[parent] >= TREELET_LEAVES) {
+						treelet.optimise(parent);
+					}
+					parent = parents[parent];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Compute an interior node from its children.
+	 */
+	private void updateNode(int node) {
+		int left = lefts[node];
+		int right = rights[node];
+		int b = node * 6;
+		for (int axis = 0; axis < 3; ++axis) {
+			bounds[b + axis] = Math.min(bounds[left * 6 + axis], bounds[right * 6 + axis]);
+			bounds[b + axis + 3] = Math.max(bounds[left * 6 + axis + 3], bounds[right * 6 + axis + 3]);
+		}
+		counts[node] = counts[left] + counts[right];
+
+		double area = area(node);
+		double splitCost = BVH.TRAVERSAL_COST * area + costs[left] + costs[right];
+		double leafCost = area * counts[node];
+		if (counts[node] <= BVH.MAX_LEAF_SIZE && leafCost <= splitCost) {
+			costs[node] = leafCost;
+			sizes[node] = 1;
+		} else {
+			costs[node] = splitCost;
+			sizes[node] = 1 + sizes[left] + sizes[right];
+		}
+	}
+
+	/**
+	 * Scratch state of the treelet restructuring of one task.
+	 *
+	 * A treelet is grown from its root by repeatedly expanding the leaf of
+	 * largest surface area until it has TREELET_LEAVES leaves. Every split of
+	 * every subset of the leaves is evaluated (dynamic programming over the
+	 * subsets) and the treelet is rebuilt from the cheapest one, reusing its
+	 * interior nodes.
+	 */
+	private class Treelet {
+		private final int leaves[] = new int[TREELET_LEAVES];
+		private final int interiors[] = new int[TREELET_LEAVES - 1];
+		private final double subsetBounds[] = new double[(1 << TREELET_LEAVES) * 6];
+		private final int subsetCounts[] = new int[1 << TREELET_LEAVES];
+		private final double subsetCosts[] = new double[1 << TREELET_LEAVES];
+		private final int bestSplits[] = new int[1 << TREELET_LEAVES];
+		private int numLeaves;
+		private int nextInterior;
+
+		void optimise(int root) {
+			numLeaves = 2;
+			leaves[0] = lefts[root];
+			leaves[1] = rights[root];
+			int numInteriors = 1;
+			interiors[0] = root;
+			while (numLeaves < TREELET_LEAVES) {
+				int largest = -1;
+				double largestArea = -1.0;
+				for (int idx = 0; idx < numLeaves; ++idx) {
+					if (leaves[idx] < numObjects - 1 && area(leaves[idx]) > largestArea) {
+						largest = idx;
+						largestArea = area(leaves[idx]);
+					}
+				}
+				if (largest == -1) {
+					break;
+				}
+				int node = leaves[largest];
+				interiors[numInteriors++] = node;
+				leaves[largest] = lefts[node];
+				leaves[numLeaves++] = rights[node];
+			}
+			if (numLeaves < 3) {
+				return;
+			}
+
+			// subsets in increasing order, so all subsets of a subset come first
+			int all = (1 << numLeaves) - 1;
+			for (int subset = 1; subset <= all; ++subset) {
+				int b = subset * 6;
+				int lowest = Integer.numberOfTrailingZeros(subset);
+				int rest = subset & (subset - 1);
+				int leaf = leaves[lowest];
+				if (rest == 0) {
+					System.arraycopy(bounds, leaf * 6, subsetBounds, b, 6);
+					subsetCounts[subset] = counts[leaf];
+					subsetCosts[subset] = costs[leaf];
+					continue;
+				}
+				for (int axis = 0; axis < 3; ++axis) {
+					subsetBounds[b + axis] = Math.min(subsetBounds[rest * 6 + axis], bounds[leaf * 6 + axis]);
+					subsetBounds[b + axis + 3] = Math.max(subsetBounds[rest * 6 + axis + 3],
+							bounds[leaf * 6 + axis + 3]);
+				}
+				subsetCounts[subset] = subsetCounts[rest] + counts[leaf];
+
+				// every split once, the lowest leaf always on the first side
+				double bestCost = Double.POSITIVE_INFINITY;
+				int lowestBit = subset ^ rest;
+				for (int sub = (rest - 1) & rest;; sub = (sub - 1) & rest) {
+					int part = lowestBit | sub;
+					double cost = subsetCosts[part] + subsetCosts[subset ^ part];
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestSplits[subset] = part;
+					}
+					if (sub == 0) {
+						break;
+					}
+				}
+				double area = BVH.area(subsetBounds, b);
+				double splitCost = BVH.TRAVERSAL_COST * area + bestCost;
+				double leafCost = area * subsetCounts[subset];
+				subsetCosts[subset] = (subsetCounts[subset] <= BVH.MAX_LEAF_SIZE) ? Math.min(splitCost, leafCost)
+						: splitCost;
+			}
+
+			// keep the treelet unless it gets noticeably cheaper
+			if (subsetCosts[all] >= costs[root] * (1.0 - 1e-9)) {
+				return;
+			}
+			nextInterior = 0;
+			rebuild(all);
+		}
+
+		/**
+		 * Rebuild the subtree of a subset of the leaves from the cheapest splits.
+		 *
+		 * @return node of the subtree
+		 */
+		private int rebuild(int subset) {
+			if ((subset & (subset - 1)) == 0) {
+				return leaves[Integer.numberOfTrailingZeros(subset)];
+			}
+			int node = interiors[nextInterior++];
+			int left = rebuild(bestSplits[subset]);
+			int right = rebuild(subset ^ bestSplits[subset]);
+			lefts[node] = left;
+			rights[node] = right;
+			parents[left] = node;
+			parents[right] = node;
+			updateNode(node);
+			return (node);
+		}
+	}
+
+	/**
+	 * Emit a subtree of the radix tree at a position of the depth first
+	 * layout, forking for large subtrees. The children of an interior node
+	 * are ordered along the axis that separates their centres the most, so
+	 * that traversal can visit the near child first.
+	 */
+	private class Emit extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int node;
+		private final int position; /** < index of the node in the emitted layout */
+		private final int first; /** < first object of the subtree in leaf order */
+
+		Emit(int node, int position, int first) {
+			this.node = node;
+			this.position = position;
+			this.first = first;
+		}
+
+		@Override
+		protected void compute() {
+			if (sizes[node] > SEQUENTIAL_EMIT_SIZE) {
+				int left = lefts[node];
+				int right = rights[node];
+				int axis = splitAxis(left, right);
+				if (center(right, axis) < center(left, axis)) {
+					left = rights[node];
+					right = lefts[node];
+				}
+				emitInterior(node, position, axis, 1 + sizes[left]);
+				invokeAll(new Emit(left, position + 1, first),
+						new Emit(right, position + 1 + sizes[left], first + counts[left]));
+			} else {
+				emit(node, position, first);
+			}
+		}
+	}
+
+	private void emit(int node, int position, int first) {
+		if (sizes[node] == 1) {
+			System.arraycopy(bounds, node * 6, nodeBounds, position * 6, 6);
+			nodeOffsets[position] = first;
+			nodeCounts[position] = counts[node];
+			gather(node, first);
+			return;
+		}
+
+		int left = lefts[node];
+		int right = rights[node];
+		int axis = splitAxis(left, right);
+		if (center(right, axis) < center(left, axis)) {
+			left = rights[node];
+			right = lefts[node];
+		}
+		emitInterior(node, position, axis, 1 + sizes[left]);
+		emit(left, position + 1, first);
+		emit(right, position + 1 + sizes[left], first + counts[left]);
+	}
+
+	private void emitInterior(int node, int position, int axis, int secondChildOffset) {
+		System.arraycopy(bounds, node * 6, nodeBounds, position * 6, 6);
+		nodeOffsets[position] = position + secondChildOffset;
+		nodeCounts[position] = 0;
+		nodeAxes[position] = (byte) axis;
+	}
+
+	/**
+	 * Write the objects of a subtree emitted as a leaf to consecutive
+	 * positions in leaf order.
+	 *
+	 * @return position after the last object
+	 */
+	private int gather(int node, int first) {
+		if (node >= numObjects - 1) {
+			objectIndices[first] = sortedObjects[node - (numObjects - 1)];
+			return (first + 1);
+		}
+		return gather(rights[node], gather(lefts[node], first));
+	}
+
+	private int splitAxis(int left, int right) {
+		int axis = 0;
+		double largest = -1.0;
+		for (int k = 0; k < 3; ++k) {
+			double distance = Math.abs(center(right, k) - center(left, k));
+			if (distance > largest) {
+				largest = distance;
+				axis = k;
+			}
+		}
+		return (axis);
+	}
+
+	private double center(int node, int axis) {
+		return 0.5 * (bounds[node * 6 + axis] + bounds[node * 6 + axis + 3]);
+	}
+
+	private double centroid(int object, int axis) {
+		return 0.5 * (objectBounds[object * 6 + axis] + objectBounds[object * 6 + axis + 3]);
+	}
+
+	private double area(int node) {
+		return BVH.area(bounds, node * 6);
+	}
+
+	/**
+	 * Length of the common prefix of the Morton codes of ranks i and j, ties
+	 * broken by the ranks themselves so that all keys are distinct.
+	 *
+	 * @return Common prefix length, -1 for j outside of the codes.
+	 */
+	private int delta(int i, int j) {
+		if (j < 0 || j >= numObjects) {
+			return (-1);
+		}
+		if (codes[i] == codes[j]) {
+			return 32 + Integer.numberOfLeadingZeros(i ^ j);
+		}
+		return Integer.numberOfLeadingZeros(codes[i] ^ codes[j]);
+	}
+
+	private int chunkStart(int chunk) {
+		return (int) ((long) numObjects * chunk / numChunks);
+	}
+
+	/**
+	 * Spread the lower 10 bits of a value to every third bit.
+	 */
+	private static int expandBits(int v) {
+		v = (v * 0x00010001) & 0xFF0000FF;
+		v = (v * 0x00000101) & 0x0F00F00F;
+		v = (v * 0x00000011) & 0xC30C30C3;
+		v = (v * 0x00000005) & 0x49249249;
+		return (v);
+	}
+
+	private static void parallelFor(int numTasks, IntConsumer task) {
+		if (numTasks == 1) {
+			task.accept(0);
+		} else {
+			IntStream.range(0, numTasks).parallel().forEach(task);
+		}
+	}
+}
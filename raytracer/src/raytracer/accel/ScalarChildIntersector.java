@@ -0,0 +1,40 @@
+package raytracer.accel;
+
+/**
+ * Child slab test one child at a time, used when the Vector API is not
+ * available.
+ *
+ * @author Manuel Nunes
+ *
+ */
+final class ScalarChildIntersector implements ChildIntersector {
+	private final int width;
+
+	/**
+	 * Constructor
+	 *
+	 * @param width Number of children per node.
+	 */
+	ScalarChildIntersector(int width) {
+		this.width = width;
+	}
+
+	@Override
+	public int intersect(int first, float nearX[], float nearY[], float nearZ[], float farX[], float farY[],
+			float farZ[], float nearOx, float nearOy, float nearOz, float farOx, float farOy, float farOz,
+			float invDx, float invDy, float invDz, float tMax, float dists[]) {
+		int mask = 0;
+		for (int k = 0; k < width; ++k) {
+			int c = first + k;
+			float tNear = Math.max(Math.max((nearX[c] - nearOx) * invDx, (nearY[c] - nearOy) * invDy),
+					Math.max((nearZ[c] - nearOz) * invDz, 0.0f));
+			float tFar = Math.min(Math.min((farX[c] - farOx) * invDx, (farY[c] - farOy) * invDy),
+					Math.min((farZ[c] - farOz) * invDz, tMax)) * WideBVH.FAR_SCALE;
+			dists[k] = tNear;
+			if (tNear <= tFar) {
+				mask |= 1 << k;
+			}
+		}
+		return (mask);
+	}
+}
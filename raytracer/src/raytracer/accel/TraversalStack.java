@@ -0,0 +1,71 @@
+package raytracer.accel;
+
+import java.util.Arrays;
+
+/**
+ * Per thread stack of node indices shared by all hierarchy traversals.
+ *
+ * A traversal pushes above the entries of any traversal it is nested in (e.g.
+ * an object with its own hierarchy inside a leaf of the scene hierarchy) and
+ * restores the top when it returns, so no traversal allocates its own stack.
+ *
+ * @author Manuel Nunes
+ *
+ */
+class TraversalStack {
+	private static final int INITIAL_SIZE = 64;
+	private static final ThreadLocal<TraversalStack> stacks = ThreadLocal.withInitial(TraversalStack::new);
+
+	int nodes[] = new int[INITIAL_SIZE];
+	float dists[] = new float[INITIAL_SIZE]; /** < entry distance of the nodes pushed with one */
+	int top;
+	final float childDists[] = new float[WideBVH.MAX_WIDTH]; /** < entry distance of the children of a wide node */
+	final int childFirsts[] = new int[WideBVH.MAX_WIDTH]; /** < first ray of a packet that enters each child */
+
+	/**
+	 * Getter
+	 *
+	 * @return Stack of the calling thread.
+	 */
+	static TraversalStack get() {
+		return stacks.get();
+	}
+
+	/**
+	 * Push a node index, growing the stack if it is full.
+	 *
+	 * @param node
+	 */
+	void push(int node) {
+		if (top == nodes.length) {
+			nodes = Arrays.copyOf(nodes, nodes.length * 2);
+		}
+		nodes[top++] = node;
+	}
+
+	/**
+	 * Push a node index with the distance at which the ray enters it.
+	 *
+	 * @param node
+	 * @param dist
+	 */
+	void push(int node, float dist) {
+		if (top == nodes.length) {
+			nodes = Arrays.copyOf(nodes, nodes.length * 2);
+		}
+		if (top >= dists.length) {
+			dists = Arrays.copyOf(dists, nodes.length);
+		}
+		dists[top] = dist;
+		nodes[top++] = node;
+	}
+
+	/**
+	 * Pop a node index.
+	 *
+	 * @return node
+	 */
+	int pop() {
+		return nodes[--top];
+	}
+}
@@ -0,0 +1,612 @@
+package raytracer.accel;
+
+import java.util.Arrays;
+
+import raytracer.HitRecord;
+import raytracer.Ray;
+import raytracer.RayPacket;
+
+/**
+ * Bounding volume hierarchy with 4 or 8 children per node, collapsed from a
+ * binary BVH so that one slab test covers all the children of a node.
+ *
+ * The bounds of the children of a node are stored side by side as floats in
+ * one array per plane, so that the Vector API can test them in a single SIMD
+ * operation. The test falls back to a scalar loop when the
+ * jdk.incubator.vector module is not available (it is only resolved with
+ * --add-modules jdk.incubator.vector), the tree was built without the
+ * optional src-incubator sources or the raytracer.scalarBVH system property
+ * is set.
+ *
+ * Float bounds are rounded outwards and the float ray is widened so that a
+ * box the ray hits is never missed, a few more boxes are visited instead.
+ * Leaves reference the objects in the same {@link BVH#getObjectIndex(int)}
+ * order as the hierarchy they were collapsed from, and every child remembers
+ * the binary node it was made from so that a refit of that hierarchy can be
+ * carried over without collapsing it again.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class WideBVH {
+	static final int MAX_WIDTH = 8; /** < largest number of children per node */
+	static final float FAR_SCALE = 1.0f + 0x1p-20f; /** < widens the exit distance over float rounding errors */
+	private static final int EMPTY = -1; /** < count of a child slot that is not used */
+
+	private static final ChildIntersector INTERSECTOR_4 = createIntersector(4);
+	private static final ChildIntersector INTERSECTOR_8 = createIntersector(8);
+
+	private final int width;
+	private final ChildIntersector intersector;
+	private int numNodes;
+	private float minX[], minY[], minZ[]; /** < lesser corner of every child, width per node */
+	private float maxX[], maxY[], maxZ[]; /** < greater corner of every child, width per node */
+	private int childOffsets[]; /** < first object of a leaf child or node index of an interior child */
+	private int childCounts[]; /** < number of objects of a leaf child, 0 for an interior child, -1 if empty */
+	private int nodeSlots[]; /** < slot of every binary node, -1 for the nodes that were opened */
+
+	/**
+	 * Constructor
+	 *
+	 * @param bvh Binary hierarchy to collapse.
+	 * @param width Number of children per node, 4 or 8.
+	 */
+	public WideBVH(BVH bvh, int width) {
+		if (width != 4 && width != 8) {
+			throw new IllegalArgumentException("Invalid BVH width.");
+		}
+		this.width = width;
+		intersector = (width == 8) ? INTERSECTOR_8 : INTERSECTOR_4;
+
+		nodeSlots = new int[bvh.getNumNodes()];
+		Arrays.fill(nodeSlots, -1);
+		allocate(Math.max(1, bvh.getNumNodes() / (width - 1) + 1));
+		if (bvh.getNumNodes() == 0) {
+			return;
+		}
+		if (bvh.getNodeCount(0) > 0) {
+			// a single leaf
+			int node = numNodes++;
+			setChildren(bvh, node, new int[] { 0 }, 1);
+		} else {
+			collapse(bvh, 0);
+		}
+		allocate(numNodes);
+	}
+
+	private static ChildIntersector createIntersector(int width) {
+		if (!Boolean.getBoolean("raytracer.scalarBVH")
+				&& ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				Class<?> vectorClass = Class.forName("raytracer.accel.VectorChildIntersector");
+				if ((Boolean) vectorClass.getDeclaredMethod("isSupported", int.class).invoke(null, width)) {
+					return (ChildIntersector) vectorClass.getDeclaredConstructor(int.class).newInstance(width);
+				}
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// not compiled in, fall back to the scalar test
+			}
+		}
+		return new ScalarChildIntersector(width);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Is the child slab test done with the Vector API?
+	 */
+	public static boolean isVectorized() {
+		return !(INTERSECTOR_4 instanceof ScalarChildIntersector);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of children per node.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of nodes in the hierarchy.
+	 */
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @param slot Child slot, node * width + child.
+	 * @param k (0..5) -> (x0,y0,z0,x1,y1,z1)
+	 * @return Bound of a child, rounded outwards to a float.
+	 */
+	public float getChildBound(int slot, int k) {
+		switch (k) {
+		case 0:
+			return minX[slot];
+		case 1:
+			return minY[slot];
+		case 2:
+			return minZ[slot];
+		case 3:
+			return maxX[slot];
+		case 4:
+			return maxY[slot];
+		default:
+			return maxZ[slot];
+		}
+	}
+
+	private void allocate(int capacity) {
+		int size = capacity * width;
+		if (minX == null) {
+			minX = new float[size];
+			minY = new float[size];
+			minZ = new float[size];
+			maxX = new float[size];
+			maxY = new float[size];
+			maxZ = new float[size];
+			childOffsets = new int[size];
+			childCounts = new int[size];
+		} else {
+			minX = Arrays.copyOf(minX, size);
+			minY = Arrays.copyOf(minY, size);
+			minZ = Arrays.copyOf(minZ, size);
+			maxX = Arrays.copyOf(maxX, size);
+			maxY = Arrays.copyOf(maxY, size);
+			maxZ = Arrays.copyOf(maxZ, size);
+			childOffsets = Arrays.copyOf(childOffsets, size);
+			childCounts = Arrays.copyOf(childCounts, size);
+		}
+	}
+
+	/**
+	 * Collapses the subtree of an interior binary node into a wide node,
+	 * opening the interior child with the largest surface area until the
+	 * node is full or only has leaves.
+	 *
+	 * @return Index of the wide node.
+	 */
+	private int collapse(BVH bvh, int root) {
+		int node = numNodes++;
+		if (numNodes * width > childCounts.length) {
+			allocate(numNodes * 2);
+		}
+
+		int children[] = new int[width];
+		int n = 0;
+		children[n++] = root + 1;
+		children[n++] = bvh.getNodeOffset(root);
+		while (n < width) {
+			int best = -1;
+			double bestArea = -1.0;
+			for (int k = 0; k < n; ++k) {
+				if (bvh.getNodeCount(children[k]) == 0 && area(bvh, children[k]) > bestArea) {
+					best = k;
+					bestArea = area(bvh, children[k]);
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			int child = children[best];
+			children[best] = child + 1;
+			children[n++] = bvh.getNodeOffset(child);
+		}
+
+		setChildren(bvh, node, children, n);
+		for (int k = 0; k < n; ++k) {
+			if (bvh.getNodeCount(children[k]) == 0) {
+				// the arrays may be reallocated by the recursion
+				int child = collapse(bvh, children[k]);
+				childOffsets[node * width + k] = child;
+			}
+		}
+		return (node);
+	}
+
+	/**
+	 * Refit the hierarchy to a binary hierarchy it was collapsed from after
+	 * that was refit to objects whose bounds changed. Only the children on
+	 * the path from the leaves of the changed objects to the root are updated.
+	 *
+	 * Not thread safe, no traversal may run during a refit.
+	 *
+	 * @param bvh Refit binary hierarchy.
+	 * @param objects Indices of the changed objects.
+	 * @param numChanged Number of changed objects.
+	 */
+	public void refit(BVH bvh, int objects[], int numChanged) {
+		for (int idx = 0; idx < numChanged; ++idx) {
+			for (int node = bvh.getObjectLeaf(objects[idx]); node != -1; node = bvh.getNodeParent(node)) {
+				int slot = nodeSlots[node];
+				if (slot != -1) {
+					setBounds(bvh, slot, node);
+				}
+			}
+		}
+	}
+
+	private void setBounds(BVH bvh, int slot, int node) {
+		minX[slot] = roundDown(bvh.getNodeBound(node, 0));
+		minY[slot] = roundDown(bvh.getNodeBound(node, 1));
+		minZ[slot] = roundDown(bvh.getNodeBound(node, 2));
+		maxX[slot] = roundUp(bvh.getNodeBound(node, 3));
+		maxY[slot] = roundUp(bvh.getNodeBound(node, 4));
+		maxZ[slot] = roundUp(bvh.getNodeBound(node, 5));
+	}
+
+	private void setChildren(BVH bvh, int node, int children[], int n) {
+		for (int k = 0; k < width; ++k) {
+			int slot = node * width + k;
+			if (k < n) {
+				int child = children[k];
+				setBounds(bvh, slot, child);
+				childCounts[slot] = bvh.getNodeCount(child);
+				childOffsets[slot] = bvh.getNodeOffset(child);
+				nodeSlots[child] = slot;
+			} else {
+				// an inverted box that no ray enters
+				minX[slot] = minY[slot] = minZ[slot] = Float.POSITIVE_INFINITY;
+				maxX[slot] = maxY[slot] = maxZ[slot] = Float.NEGATIVE_INFINITY;
+				childCounts[slot] = EMPTY;
+				childOffsets[slot] = 0;
+			}
+		}
+	}
+
+	private static double area(BVH bvh, int node) {
+		double dx = bvh.getNodeBound(node, 3) - bvh.getNodeBound(node, 0);
+		double dy = bvh.getNodeBound(node, 4) - bvh.getNodeBound(node, 1);
+		double dz = bvh.getNodeBound(node, 5) - bvh.getNodeBound(node, 2);
+		return (dx * dy + dy * dz + dz * dx);
+	}
+
+	private static float roundDown(double v) {
+		float f = (float) v;
+		return (f > v) ? Math.nextDown(f) : f;
+	}
+
+	private static float roundUp(double v) {
+		float f = (float) v;
+		return (f < v) ? Math.nextUp(f) : f;
+	}
+
+	/**
+	 * Origin used against the far planes, rounded to move them further. The
+	 * reciprocal of an axis parallel ray is clamped, so the origin is moved
+	 * one more float away from a far plane it lies on, which would otherwise
+	 * give an exit distance of 0 instead of the NaN that Box ignores.
+	 */
+	private static float farOrigin(double o, float inv) {
+		float f = (inv < 0) ? roundUp(o) : roundDown(o);
+		if (Math.abs(inv) == Float.MAX_VALUE) {
+			f = (inv < 0) ? Math.nextUp(f) : Math.nextDown(f);
+		}
+		return (f);
+	}
+
+	private static float reciprocal(double invD) {
+		float inv = (float) invD;
+		// a huge finite value keeps 0 * inv from being NaN
+		return Float.isInfinite(inv) ? Math.copySign(Float.MAX_VALUE, inv) : inv;
+	}
+
+	/**
+	 * Closest hit traversal.
+	 *
+	 * The children of a node that the ray enters are pushed far to near and
+	 * skipped when popped once they lie beyond the closest hit found so far.
+	 *
+	 * @param ray View ray that intersects the hierarchy.
+	 * @param record Closest intersection found so far, updated on a closer hit.
+	 * @param leaves Intersects the objects of a leaf.
+	 * @return Did it hit an object closer than record.t?
+	 */
+	public boolean hit(Ray ray, HitRecord record, LeafIntersector leaves) {
+		if (numNodes == 0) {
+			return (false);
+		}
+
+		double ox = ray.getOrigin().x;
+		double oy = ray.getOrigin().y;
+		double oz = ray.getOrigin().z;
+		float invDx = reciprocal(ray.getInvDirection(0));
+		float invDy = reciprocal(ray.getInvDirection(1));
+		float invDz = reciprocal(ray.getInvDirection(2));
+		// the origins are rounded to move the near planes closer and the far planes further
+		float nearOx = (invDx < 0) ? roundDown(ox) : roundUp(ox);
+		float nearOy = (invDy < 0) ? roundDown(oy) : roundUp(oy);
+		float nearOz = (invDz < 0) ? roundDown(oz) : roundUp(oz);
+		float farOx = farOrigin(ox, invDx);
+		float farOy = farOrigin(oy, invDy);
+		float farOz = farOrigin(oz, invDz);
+		float nearX[] = (invDx < 0) ? maxX : minX;
+		float nearY[] = (invDy < 0) ? maxY : minY;
+		float nearZ[] = (invDz < 0) ? maxZ : minZ;
+		float farX[] = (invDx < 0) ? minX : maxX;
+		float farY[] = (invDy < 0) ? minY : maxY;
+		float farZ[] = (invDz < 0) ? minZ : maxZ;
+
+		boolean is_hit = false;
+		float tMax = roundUp(record.t);
+		TraversalStack stack = TraversalStack.get();
+		float dists[] = stack.childDists;
+		int base = stack.top;
+		int node = 0;
+
+		try {
+			while (node >= 0) {
+				int first = node * width;
+				int mask = intersector.intersect(first, nearX, nearY, nearZ, farX, farY, farZ, nearOx, nearOy,
+						nearOz, farOx, farOy, farOz, invDx, invDy, invDz, tMax, dists);
+				while (mask != 0) {
+					// push the furthest child first
+					int furthest = Integer.numberOfTrailingZeros(mask);
+					for (int rest = mask & (mask - 1); rest != 0; rest &= rest - 1) {
+						int k = Integer.numberOfTrailingZeros(rest);
+						if (dists[k] > dists[furthest]) {
+							furthest = k;
+						}
+					}
+					mask &= ~(1 << furthest);
+					stack.push(first + furthest, dists[furthest]);
+				}
+
+				node = -1;
+				while (stack.top > base) {
+					int slot = stack.pop();
+					if (stack.dists[stack.top] > tMax * FAR_SCALE) {
+						continue;
+					}
+					int count = childCounts[slot];
+					if (count > 0) {
+						if (leaves.hit(childOffsets[slot], count, ray, record)) {
+							is_hit = true;
+							tMax = roundUp(record.t);
+						}
+					} else {
+						node = childOffsets[slot];
+						break;
+					}
+				}
+			}
+		} finally {
+			stack.top = base;
+		}
+		return (is_hit);
+	}
+
+	/**
+	 * Closest hit traversal of a coherent packet of rays.
+	 *
+	 * Every child of a node is first tested against the ranges of the packet,
+	 * which culls it for the whole packet, and then against the rays from the
+	 * first ray that entered the node on, the first ray that hits the child
+	 * is where its own traversal starts. Children are visited front to back
+	 * for that ray and the rays of a leaf are tested one by one.
+	 *
+	 * @param packet Prepared coherent packet, the hit records and flags of its
+	 *   rays are updated on a closer hit.
+	 * @param leaves Intersects the objects of a leaf.
+	 */
+	public void hit(RayPacket packet, LeafIntersector leaves) {
+		if (!packet.isCoherent()) {
+			throw new IllegalArgumentException("Packet is not coherent.");
+		}
+		if (numNodes == 0) {
+			return;
+		}
+
+		int n = packet.size();
+		HitRecord records[] = packet.records;
+		double tMax = Double.MAX_VALUE;
+		TraversalStack stack = TraversalStack.get();
+		float dists[] = stack.childDists;
+		int firsts[] = stack.childFirsts;
+		int base = stack.top;
+		int node = 0;
+		int first = 0;
+
+		try {
+			while (node >= 0) {
+				int mask = 0;
+				for (int k = 0; k < width; ++k) {
+					int slot = node * width + k;
+					if (childCounts[slot] == EMPTY || !hitSlot(slot, packet, tMax)) {
+						continue;
+					}
+					int idx = first;
+					double t = Double.NaN;
+					while (idx < n && Double.isNaN(t = hitSlot(slot, packet, idx, records[idx].t))) {
+						++idx;
+					}
+					if (idx < n) {
+						mask |= 1 << k;
+						firsts[k] = idx;
+						dists[k] = (float) t;
+					}
+				}
+				while (mask != 0) {
+					// push the furthest child first
+					int furthest = Integer.numberOfTrailingZeros(mask);
+					for (int rest = mask & (mask - 1); rest != 0; rest &= rest - 1) {
+						int k = Integer.numberOfTrailingZeros(rest);
+						if (dists[k] > dists[furthest]) {
+							furthest = k;
+						}
+					}
+					mask &= ~(1 << furthest);
+					stack.push(firsts[furthest]);
+					stack.push(node * width + furthest);
+				}
+
+				node = -1;
+				while (stack.top > base) {
+					int slot = stack.pop();
+					first = stack.pop();
+					int count = childCounts[slot];
+					if (count > 0) {
+						boolean leafHit = false;
+						for (int idx = first; idx < n; ++idx) {
+							if (!Double.isNaN(hitSlot(slot, packet, idx, records[idx].t))
+									&& leaves.hit(childOffsets[slot], count, packet.rays[idx], records[idx])) {
+								packet.hits[idx] = true;
+								leafHit = true;
+							}
+						}
+						if (leafHit) {
+							tMax = 0.0;
+							for (int idx = 0; idx < n; ++idx) {
+								tMax = Math.max(tMax, records[idx].t);
+							}
+						}
+					} else if (hitSlot(slot, packet, tMax)) {
+						node = childOffsets[slot];
+						break;
+					}
+				}
+			}
+		} finally {
+			stack.top = base;
+		}
+	}
+
+	/**
+	 * Slab test of one ray of a packet against a child.
+	 *
+	 * @return Distance at which the ray enters the child, NaN if it misses
+	 *   it within tMax.
+	 */
+	private double hitSlot(int slot, RayPacket packet, int idx, double tMax) {
+		double tNear = Double.NEGATIVE_INFINITY;
+		double tFar = Double.POSITIVE_INFINITY;
+		for (int k = 0; k < 3; ++k) {
+			float min[] = (k == 0) ? minX : (k == 1) ? minY : minZ;
+			float max[] = (k == 0) ? maxX : (k == 1) ? maxY : maxZ;
+			double o = (k == 0) ? packet.ox[idx] : (k == 1) ? packet.oy[idx] : packet.oz[idx];
+			double inv = (k == 0) ? packet.invDx[idx] : (k == 1) ? packet.invDy[idx] : packet.invDz[idx];
+			// the NaN of an axis parallel ray on a bound plane is ignored, as in BVH
+			double t0 = (((inv < 0) ? max[slot] : min[slot]) - o) * inv;
+			double t1 = (((inv < 0) ? min[slot] : max[slot]) - o) * inv;
+			if (t0 > tNear) {
+				tNear = t0;
+			}
+			if (t1 < tFar) {
+				tFar = t1;
+			}
+		}
+
+		return (tNear <= tFar && tFar > 0.0 && tNear < tMax) ? tNear : Double.NaN;
+	}
+
+	/**
+	 * Interval test of a coherent packet against a child, see BVH.
+	 *
+	 * @return false if no ray of the packet hits the child within tMax.
+	 */
+	private boolean hitSlot(int slot, RayPacket packet, double tMax) {
+		double tNear = 0.0;
+		double tFar = tMax;
+		for (int k = 0; k < 3; ++k) {
+			float min[] = (k == 0) ? minX : (k == 1) ? minY : minZ;
+			float max[] = (k == 0) ? maxX : (k == 1) ? maxY : maxZ;
+			double inv0 = packet.invDirectionMin[k];
+			double inv1 = packet.invDirectionMax[k];
+			double o0 = packet.originMin[k];
+			double o1 = packet.originMax[k];
+			double near = (inv0 < 0) ? max[slot] : min[slot];
+			double far = (inv0 < 0) ? min[slot] : max[slot];
+			tNear = Math.max(tNear, Math.min(Math.min((near - o0) * inv0, (near - o0) * inv1),
+					Math.min((near - o1) * inv0, (near - o1) * inv1)));
+			tFar = Math.min(tFar, Math.max(Math.max((far - o0) * inv0, (far - o0) * inv1),
+					Math.max((far - o1) * inv0, (far - o1) * inv1)));
+		}
+		// NaN from 0 * infinity never culls
+		return !(tNear > tFar);
+	}
+
+	/**
+	 * Any hit traversal.
+	 *
+	 * @param ray Ray that intersects the hierarchy.
+	 * @param tMax Distance beyond which intersections are ignored.
+	 * @param leaves Intersects the objects of a leaf.
+	 * @return Does any object intersect the ray within tMax?
+	 */
+	public boolean occluded(Ray ray, double tMax, LeafIntersector leaves) {
+		return occluder(ray, tMax, leaves) >= 0;
+	}
+
+	/**
+	 * Any hit traversal that reports the object found.
+	 *
+	 * @param ray Ray that intersects the hierarchy.
+	 * @param tMax Distance beyond which intersections are ignored.
+	 * @param leaves Intersects the objects of a leaf.
+	 * @return Leaf order index of an object that intersects the ray within
+	 *   tMax, -1 if none does.
+	 */
+	public int occluder(Ray ray, double tMax, LeafIntersector leaves) {
+		if (numNodes == 0) {
+			return (-1);
+		}
+
+		double ox = ray.getOrigin().x;
+		double oy = ray.getOrigin().y;
+		double oz = ray.getOrigin().z;
+		float invDx = reciprocal(ray.getInvDirection(0));
+		float invDy = reciprocal(ray.getInvDirection(1));
+		float invDz = reciprocal(ray.getInvDirection(2));
+		float nearOx = (invDx < 0) ? roundDown(ox) : roundUp(ox);
+		float nearOy = (invDy < 0) ? roundDown(oy) : roundUp(oy);
+		float nearOz = (invDz < 0) ? roundDown(oz) : roundUp(oz);
+		float farOx = farOrigin(ox, invDx);
+		float farOy = farOrigin(oy, invDy);
+		float farOz = farOrigin(oz, invDz);
+		float nearX[] = (invDx < 0) ? maxX : minX;
+		float nearY[] = (invDy < 0) ? maxY : minY;
+		float nearZ[] = (invDz < 0) ? maxZ : minZ;
+		float farX[] = (invDx < 0) ? minX : maxX;
+		float farY[] = (invDy < 0) ? minY : maxY;
+		float farZ[] = (invDz < 0) ? minZ : maxZ;
+
+		float tMaxF = roundUp(tMax);
+		TraversalStack stack = TraversalStack.get();
+		float dists[] = stack.childDists;
+		int base = stack.top;
+		int node = 0;
+
+		try {
+			while (node >= 0) {
+				int first = node * width;
+				int mask = intersector.intersect(first, nearX, nearY, nearZ, farX, farY, farZ, nearOx, nearOy,
+						nearOz, farOx, farOy, farOz, invDx, invDy, invDz, tMaxF, dists);
+				for (; mask != 0; mask &= mask - 1) {
+					stack.push(first + Integer.numberOfTrailingZeros(mask));
+				}
+
+				node = -1;
+				while (stack.top > base) {
+					int slot = stack.pop();
+					int count = childCounts[slot];
+					if (count > 0) {
+						int occluder = leaves.occluder(childOffsets[slot], count, ray, tMax);
+						if (occluder >= 0) {
+							return (occluder);
+						}
+					} else {
+						node = childOffsets[slot];
+						break;
+					}
+				}
+			}
+		} finally {
+			stack.top = base;
+		}
+		return (-1);
+	}
+}
@@ -1,12 +1,21 @@
 package raytracer.camera;
 
+import java.io.Serializable;
+
+import raytracer.MutableVector3d;
 import raytracer.Ray;
+import raytracer.RayPacket;
+import raytracer.Sampler;
 import raytracer.Vector3d;
 
-public abstract class Camera {
+public abstract class Camera implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	protected ImageSensor imageSensor; /** < array of pixel elements for image */
-	protected Vector3d eye; /** < position of camera */
-	protected Vector3d u, v, w; /** < orthonomal basis vectors */
+	protected final MutableVector3d eye = new MutableVector3d(); /** < position of camera */
+	protected final MutableVector3d u = new MutableVector3d(); /** < orthonomal basis vectors */
+	protected final MutableVector3d v = new MutableVector3d();
+	protected final MutableVector3d w = new MutableVector3d();
 
 	/**
 	 * Constructor
@@ -15,19 +24,40 @@ public abstract class Camera {
 	 */
 	public Camera(ImageSensor imageSensor) {
 		this.imageSensor = imageSensor;
-		eye = new Vector3d(0.0, 0.0, 0.0);
-		u = new Vector3d(-1.0, 0.0, 0.0);
-		v = new Vector3d(0.0, 1.0, 0.0);
-		w = new Vector3d(0.0, 0.0, -1.0);
+		eye.set(0.0, 0.0, 0.0);
+		u.set(-1.0, 0.0, 0.0);
+		v.set(0.0, 1.0, 0.0);
+		w.set(0.0, 0.0, -1.0);
 	}
 
 	/**
 	 * Sample ray for image sensor element at (x,y)
 	 * @param x 
 	 * @param y
-	 * @return Ray sample.
+	 * @param sampler Source of the random numbers for the sample.
+	 * @param ray Ray set to the sample.
+	 * @return ray
+	 */
+	abstract public Ray sampleRay(int x, int y, Sampler sampler, Ray ray);
+
+	/**
+	 * Sample one ray through each pixel of a block into a packet and prepare
+	 * the packet for tracing. The sampler is started at every pixel, so the
+	 * rays are those sampleRay gives for the sample.
+	 * @param xs x coordinates of the pixels.
+	 * @param ys y coordinates of the pixels.
+	 * @param n Number of pixels.
+	 * @param sample Index of the sample of every pixel.
+	 * @param sampler Source of the random numbers for the samples.
+	 * @param packet Packet set to the samples.
 	 */
-	abstract public Ray sampleRay(int x, int y);
+	public void sampleRays(int xs[], int ys[], int n, int sample, Sampler sampler, RayPacket packet) {
+		for (int idx = 0; idx < n; ++idx) {
+			sampler.startPixelSample(xs[idx], ys[idx], sample);
+			sampleRay(xs[idx], ys[idx], sampler, packet.rays[idx]);
+		}
+		packet.prepare(n);
+	}
 
 	/**
 	 * Set position and orientation of the camera.
@@ -36,10 +66,10 @@ public abstract class Camera {
 	 * @param lookAt Point the camera is facing.
 	 */
 	public void setLookAt(Vector3d eye, Vector3d up, Vector3d lookAt) {
-		this.eye = eye;
-		w = (eye.subtract(lookAt)).normalize();
-		u = up.cross(w).normalize();
-		v = w.cross(u);
+		this.eye.set(eye);
+		w.set(eye.subtract(lookAt)).normalize();
+		u.cross(v.set(up), w).normalize();
+		v.cross(w, u);
 	}
 
 	/**
@@ -1,20 +1,38 @@
 package raytracer.camera;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.lang.Math;
 import java.awt.Color;
+import java.util.Arrays;
 
+import raytracer.Sampler;
 import raytracer.Vector2f;
 import raytracer.Vector3f;
 
 /**
  * Class representing the image generated by the camera object.
+ * 
+ * The image is a row-major float buffer holding for every pixel the sum of the
+ * (r,g,b) radiance of its samples and the sum of their weights, so that
+ * further samples can be accumulated into it. Radiance is unbounded and only
+ * clamped to [0,1] by the tone-map that quantises it to packed RGB.
+ * 
+ * The samples are not serialized, a deserialized image sensor is clear.
+ * 
  * @author Manuel Nunes
  *
  */
-public class ImageSensor {
+public class ImageSensor implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public final static int NUM_CHANNELS = 4; /** < (r,g,b) radiance sums and weight sum of a pixel */
+
 	private int width;
 	private int height;
-	private Color pixels[][];
+	private transient float pixels[]; /** < NUM_CHANNELS floats per pixel, row-major */
+	private float exposure = 1.0f; /** < radiance scale applied by the tone-map */
 
 	/**
 	 * Default constructor.
@@ -29,34 +47,184 @@ public class ImageSensor {
 	 * @param height image height
 	 */
 	public ImageSensor(int width, int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Invalid image size.");
+		}
 		this.width = width;
 		this.height = height;
-		pixels = new Color[width][height];
-		for (int x = 0; x < width; ++x) {
-			for (int y = 0; y < height; ++y) {
-				pixels[x][y] = Color.BLACK;
-			}
-		}
+		pixels = new float[width * height * NUM_CHANNELS];
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		pixels = new float[width * height * NUM_CHANNELS];
+	}
+
+	/**
+	 * Clear the radiance and weight of every pixel.
+	 */
+	public void clear() {
+		Arrays.fill(pixels, 0.0f);
 	}
 
 	/**
-	 * Set pixel for position (x,y) in image sensor.
+	 * Set pixel for position (x,y) in image sensor, replacing any accumulated
+	 * samples.
 	 * @param x
 	 * @param y
 	 * @param pixel Radiance
 	 */
 	public void setPixel(int x, int y, Vector3f pixel) {
-		pixels[x][y] = new Color(pixel.get(0), pixel.get(1), pixel.get(2));
+		setPixel(x, y, pixel.get(0), pixel.get(1), pixel.get(2));
+	}
+
+	/**
+	 * Set pixel for position (x,y) in image sensor, replacing any accumulated
+	 * samples.
+	 * @param x
+	 * @param y
+	 * @param r red radiance
+	 * @param g green radiance
+	 * @param b blue radiance
+	 */
+	public void setPixel(int x, int y, double r, double g, double b) {
+		int idx = index(x, y);
+		pixels[idx] = (float) r;
+		pixels[idx + 1] = (float) g;
+		pixels[idx + 2] = (float) b;
+		pixels[idx + 3] = 1.0f;
+	}
+
+	/**
+	 * Accumulate samples into pixel (x,y).
+	 * @param x
+	 * @param y
+	 * @param r sum of the red radiance of the samples
+	 * @param g sum of the green radiance of the samples
+	 * @param b sum of the blue radiance of the samples
+	 * @param weight sum of the weights of the samples
+	 */
+	public void accumulate(int x, int y, double r, double g, double b, double weight) {
+		int idx = index(x, y);
+		pixels[idx] += (float) r;
+		pixels[idx + 1] += (float) g;
+		pixels[idx + 2] += (float) b;
+		pixels[idx + 3] += (float) weight;
+	}
+
+	/**
+	 * Get radiance of pixel (x,y).
+	 * @param x
+	 * @param y
+	 * @param channel (0,1,2) -> (r,g,b)
+	 * @return Accumulated radiance divided by the accumulated weight, 0 for a
+	 *   pixel without samples.
+	 */
+	public float getRadiance(int x, int y, int channel) {
+		if (channel < 0 || channel >= 3) {
+			throw new IllegalArgumentException();
+		}
+		int idx = index(x, y);
+		float weight = pixels[idx + 3];
+		return (weight > 0.0f) ? pixels[idx + channel] / weight : 0.0f;
+	}
+
+	/**
+	 * Get the accumulated radiance of pixel (x,y), the sum over its samples.
+	 * @param x
+	 * @param y
+	 * @param channel (0,1,2) -> (r,g,b)
+	 * @return Sum of the radiance of the samples of the pixel.
+	 */
+	public float getRadianceSum(int x, int y, int channel) {
+		if (channel < 0 || channel >= 3) {
+			throw new IllegalArgumentException();
+		}
+		return pixels[index(x, y) + channel];
+	}
+
+	/**
+	 * Get the accumulated sample weight of pixel (x,y).
+	 * @param x
+	 * @param y
+	 * @return Sum of the weights of the samples of the pixel.
+	 */
+	public float getWeight(int x, int y) {
+		return pixels[index(x, y) + 3];
+	}
+
+	/**
+	 * Tone-map pixel (x,y): scale by the exposure, clamp to [0,1] and quantise
+	 * to 8 bits per component.
+	 * @param x
+	 * @param y
+	 * @return Packed 0xRRGGBB color @ (x,y)
+	 */
+	public int getRGB(int x, int y) {
+		int idx = index(x, y);
+		float weight = pixels[idx + 3];
+		if (weight <= 0.0f) {
+			return (0);
+		}
+		float scale = exposure / weight;
+		return (quantise(pixels[idx] * scale) << 16) | (quantise(pixels[idx + 1] * scale) << 8)
+				| quantise(pixels[idx + 2] * scale);
+	}
+
+	/**
+	 * Tone-map the whole image.
+	 * @param rgb Array of width * height packed 0xRRGGBB colors, row-major
+	 *   with row 0 holding y = 0.
+	 */
+	public void toneMap(int rgb[]) {
+		toneMap(rgb, false);
+	}
+
+	/**
+	 * Tone-map the whole image.
+	 * @param rgb Array of width * height packed 0xRRGGBB colors, row-major.
+	 * @param bottomUp Does row 0 of rgb hold y = height - 1 instead of y = 0?
+	 *   Images on screen have y pointing down, while the sensor has y up.
+	 */
+	public void toneMap(int rgb[], boolean bottomUp) {
+		if (rgb.length < width * height) {
+			throw new IllegalArgumentException("Array too small for the image.");
+		}
+		for (int y = 0; y < height; ++y) {
+			int row = bottomUp ? height - 1 - y : y;
+			for (int x = 0; x < width; ++x) {
+				rgb[row * width + x] = getRGB(x, y);
+			}
+		}
 	}
 
 	/**
 	 * Get pixel for position (x,y) in image sensor.
 	 * @param x
 	 * @param y
-	 * @return Radiance @ (x,y)
+	 * @return Tone-mapped radiance @ (x,y)
 	 */
 	public Color getPixelColor(int x, int y) {
-		return pixels[x][y];
+		return new Color(getRGB(x, y));
+	}
+
+	/**
+	 * Setter
+	 * @param exposure Scale applied to the radiance before it is clamped to [0,1].
+	 */
+	public void setExposure(float exposure) {
+		if (!(exposure > 0.0f)) {
+			throw new IllegalArgumentException("Invalid exposure.");
+		}
+		this.exposure = exposure;
+	}
+
+	/**
+	 * Getter
+	 * @return Scale applied to the radiance before it is clamped to [0,1].
+	 */
+	public float getExposure() {
+		return exposure;
 	}
 
 	/**
@@ -79,11 +247,59 @@ public class ImageSensor {
 	 * Sample random point within the pixel (x,y)
 	 * @param x
 	 * @param y
+	 * @param sampler Source of the random offset within the pixel.
 	 * @return sample within [x-0.5,y-0.5]->[x+0.5,y+0.5]
 	 */
-	public Vector2f samplePixelPoint(int x, int y) {
-		float x_sample = (float) x - 0.5f * ((float) width - 1.0f) + (float) Math.random();
-		float y_sample = (float) y - 0.5f * ((float) height - 1.0f) + (float) Math.random();
+	public Vector2f samplePixelPoint(int x, int y, Sampler sampler) {
+		float x_sample = samplePixelX(x, sampler);
+		float y_sample = samplePixelY(y, sampler);
 		return new Vector2f(x_sample, y_sample);
 	}
+
+	/**
+	 * Sample the x coordinate of a point within the pixel column x, relative
+	 * to the centre of the sensor.
+	 * 
+	 * @param x
+	 * @param sampler Source of the random number for the sample.
+	 * @return x coordinate of the sampled point.
+	 */
+	public float samplePixelX(int x, Sampler sampler) {
+		return (float) x - 0.5f * ((float) width - 1.0f) + sampler.nextFloat();
+	}
+
+	/**
+	 * Sample the y coordinate of a point within the pixel row y, relative
+	 * to the centre of the sensor.
+	 * 
+	 * @param y
+	 * @param sampler Source of the random number for the sample.
+	 * @return y coordinate of the sampled point.
+	 */
+	public float samplePixelY(int y, Sampler sampler) {
+		return (float) y - 0.5f * ((float) height - 1.0f) + sampler.nextFloat();
+	}
+
+	/**
+	 * Index of the first channel of pixel (x,y).
+	 */
+	private int index(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IllegalArgumentException("Pixel outside of the image.");
+		}
+		return (y * width + x) * NUM_CHANNELS;
+	}
+
+	/**
+	 * Quantise a radiance component to 8 bits, clamping it to [0,1].
+	 */
+	private static int quantise(float value) {
+		if (!(value > 0.0f)) {
+			return (0);
+		}
+		if (value >= 1.0f) {
+			return (255);
+		}
+		return (int) (value * 255.0f + 0.5f);
+	}
 }
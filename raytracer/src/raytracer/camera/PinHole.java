@@ -1,7 +1,7 @@
 package raytracer.camera;
 
 import raytracer.Ray;
-import raytracer.Vector2f;
+import raytracer.Sampler;
 import raytracer.Vector3d;
 
 /**
@@ -11,6 +11,8 @@ import raytracer.Vector3d;
  *
  */
 public class PinHole extends Camera {
+	private static final long serialVersionUID = 1L;
+
 	private double viewDistance;
 
 	/**
@@ -22,7 +24,7 @@ public class PinHole extends Camera {
 		super(imageSensor);
 
 		viewDistance = 100.0;
-		eye = new Vector3d(0.0, 0.0, 0.0);
+		Vector3d eye = new Vector3d(0.0, 0.0, 0.0);
 		Vector3d up = new Vector3d(0.0, 1.0, 0.0);
 		Vector3d lookAt = new Vector3d(0.0, 0.0, 0.0);
 
@@ -45,17 +47,18 @@ public class PinHole extends Camera {
 	}
 
 	/**
-	 * @see Camera#sampleRay(int, int)
+	 * @see Camera#sampleRay(int, int, Sampler, Ray)
 	 */
 	@Override
-	public Ray sampleRay(int x, int y) {
-		Vector2f pixelPoint = imageSensor.samplePixelPoint(x, y);
-
-		Vector3d direction = u.multiply(pixelPoint.get(0));
-		direction = v.multiply(pixelPoint.get(1)).add(direction);
-		direction = (w.multiply(-viewDistance).add(direction)).normalize();
+	public Ray sampleRay(int x, int y, Sampler sampler, Ray ray) {
+		double px = imageSensor.samplePixelX(x, sampler);
+		double py = imageSensor.samplePixelY(y, sampler);
 
-		return new Ray(eye, direction);
+		// direction = u * px + v * py - w * viewDistance
+		return ray.set(eye.x, eye.y, eye.z,
+				u.x * px + v.x * py - w.x * viewDistance,
+				u.y * px + v.y * py - w.y * viewDistance,
+				u.z * px + v.z * py - w.z * viewDistance);
 	}
 
 	/**
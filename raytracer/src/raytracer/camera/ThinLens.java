@@ -1,10 +1,11 @@
 package raytracer.camera;
 
 import raytracer.Ray;
-import raytracer.Vector2f;
-import raytracer.Vector3d;
+import raytracer.Sampler;
 
 public class ThinLens extends Camera {
+	private static final long serialVersionUID = 1L;
+
 	private double viewDistance;
 	private double focalDistance;
 	private float lensRadius;
@@ -34,27 +35,25 @@ public class ThinLens extends Camera {
 	}
 
 	/**
-	 * @see Camera#sampleRay(int, int)
+	 * @see Camera#sampleRay(int, int, Sampler, Ray)
 	 */
 	@Override
-	public Ray sampleRay(int x, int y) {
-		Vector2f lensPoint = new Vector2f((float) Math.random(), (float) Math.random());
-
-		lensPoint = lensPoint.multiply(lensRadius);
-		Vector3d origin = eye;
-		origin = origin.add(u.multiply(lensPoint.get(0)));
-		origin = origin.add(v.multiply(lensPoint.get(1)));
-
-		Vector2f pixelPoint = imageSensor.samplePixelPoint(x, y);
-		pixelPoint = pixelPoint.multiply((float) (focalDistance / viewDistance));
-
-		Vector3d direction = u.multiply(pixelPoint.get(0) - lensPoint.get(0));
-		direction = v.multiply(pixelPoint.get(1) - lensPoint.get(1)).add(direction);
-		direction = w.multiply(-focalDistance).add(direction);
-
-		Ray ray = new Ray(origin, direction);
-
-		return (ray);
+	public Ray sampleRay(int x, int y, Sampler sampler, Ray ray) {
+		float lx = sampler.nextFloat() * lensRadius;
+		float ly = sampler.nextFloat() * lensRadius;
+
+		float scale = (float) (focalDistance / viewDistance);
+		float px = imageSensor.samplePixelX(x, sampler) * scale;
+		float py = imageSensor.samplePixelY(y, sampler) * scale;
+
+		// origin = eye + u * lx + v * ly
+		// direction = u * (px - lx) + v * (py - ly) - w * focalDistance
+		return ray.set(eye.x + u.x * lx + v.x * ly,
+				eye.y + u.y * lx + v.y * ly,
+				eye.z + u.z * lx + v.z * ly,
+				u.x * (px - lx) + v.x * (py - ly) - w.x * focalDistance,
+				u.y * (px - lx) + v.y * (py - ly) - w.y * focalDistance,
+				u.z * (px - lx) + v.z * (py - ly) - w.z * focalDistance);
 	}
 
 }
@@ -0,0 +1,94 @@
+package raytracer.geometry;
+
+import java.io.Serializable;
+
+/**
+ * Class representing an axis aligned bounding box.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class BBox implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public double x0, y0, z0; /** < lesser corner of the box */
+	public double x1, y1, z1; /** < greater corner of the box */
+
+	/**
+	 * Default constructor
+	 *
+	 * Empty box that any call to include will replace.
+	 */
+	public BBox() {
+		x0 = y0 = z0 = Double.POSITIVE_INFINITY;
+		x1 = y1 = z1 = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param x0 Lesser x coordinate.
+	 * @param y0 Lesser y coordinate.
+	 * @param z0 Lesser z coordinate.
+	 * @param x1 Greater x coordinate.
+	 * @param y1 Greater y coordinate.
+	 * @param z1 Greater z coordinate.
+	 */
+	public BBox(double x0, double y0, double z0, double x1, double y1, double z1) {
+		this.x0 = x0;
+		this.y0 = y0;
+		this.z0 = z0;
+		this.x1 = x1;
+		this.y1 = y1;
+		this.z1 = z1;
+	}
+
+	/**
+	 * Grow this box to enclose another box.
+	 *
+	 * @param another
+	 */
+	public void include(BBox another) {
+		x0 = Math.min(x0, another.x0);
+		y0 = Math.min(y0, another.y0);
+		z0 = Math.min(z0, another.z0);
+		x1 = Math.max(x1, another.x1);
+		y1 = Math.max(y1, another.y1);
+		z1 = Math.max(z1, another.z1);
+	}
+
+	/**
+	 * Get the lesser coordinate of the box along an axis.
+	 *
+	 * @param axis (0,1,2) -> (x,y,z)
+	 * @return lesser coordinate
+	 */
+	public double getMin(int axis) {
+		return (axis == 0) ? x0 : (axis == 1) ? y0 : z0;
+	}
+
+	/**
+	 * Get the greater coordinate of the box along an axis.
+	 *
+	 * @param axis (0,1,2) -> (x,y,z)
+	 * @return greater coordinate
+	 */
+	public double getMax(int axis) {
+		return (axis == 0) ? x1 : (axis == 1) ? y1 : z1;
+	}
+
+	/**
+	 * Surface area
+	 *
+	 * @return Surface area of the box, 0 for an empty box.
+	 */
+	public double surfaceArea() {
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		double dz = z1 - z0;
+		if (dx < 0 || dy < 0 || dz < 0) {
+			return (0.0);
+		}
+		return 2.0 * (dx * dy + dy * dz + dz * dx);
+	}
+}
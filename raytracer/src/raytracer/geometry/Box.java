@@ -1,8 +1,7 @@
 package raytracer.geometry;
 
-import raytracer.Mutable;
+import raytracer.HitRecord;
 import raytracer.Ray;
-import raytracer.Vector3d;
 import raytracer.Vector3f;
 
 /**
@@ -12,6 +11,8 @@ import raytracer.Vector3f;
  *
  */
 public class Box implements GeometricObject {
+	private static final long serialVersionUID = 1L;
+
 	private Vector3f p0, p1;
 	public double kEpsilon = 0.000000001;
 
@@ -32,6 +33,19 @@ public class Box implements GeometricObject {
 	 * @param[in] p1 Second corner of box.
 	 */
 	public Box(Vector3f p0, Vector3f p1) {
+		setCorners(p0, p1);
+	}
+
+	/**
+	 * Setter
+	 * Sorts the coordinates from p0,p1 so that p0 is the lesser point and p1
+	 * is the greater point. A box in a scene has to be marked dirty with
+	 * Scene#markDirty after it is changed.
+	 * 
+	 * @param p0 First corner of box.
+	 * @param p1 Second corner of box.
+	 */
+	public void setCorners(Vector3f p0, Vector3f p1) {
 		float p0_x, p0_y, p0_z;
 		float p1_x, p1_y, p1_z;
 
@@ -62,203 +76,92 @@ public class Box implements GeometricObject {
 	}
 
 	/**
-	 * @see GeometricObject#hit(Ray, Mutable)
+	 * Slab test, the ray enters the box at the largest of the per axis near
+	 * distances and leaves it at the smallest of the far distances. The near
+	 * plane of an axis is its lesser face unless the ray runs towards -axis,
+	 * the normal is that of the face of the axis the ray enters through, or
+	 * leaves through when it starts inside the box.
+	 * 
+	 * @see GeometricObject#hit(Ray, HitRecord)
 	 */
 	@Override
-	public boolean hit(Ray ray, Mutable<Double> mTmin) {
-		double tm = Double.MAX_VALUE;
-		Vector3d p0 = new Vector3d(this.p0);
-		Vector3d p1 = new Vector3d(this.p1);
-
-		if (ray.getOrigin().get(0) <= p0.get(0) && ray.getDirection().get(0) >= 0
-				|| ray.getOrigin().get(0) < p1.get(0) && ray.getDirection().get(0) <= 0) {
-			Vector3d norm = new Vector3d(-1, 0, 0);
-
-			double t = (p0.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(1) >= p0.get(1) && hp.get(1) <= p1.get(1) && hp.get(2) >= p0.get(2)
-						&& hp.get(2) <= p1.get(2)) {
-					tm = t;
-				}
-			}
-		}
-		if (ray.getOrigin().get(0) >= p1.get(0) && ray.getDirection().get(0) <= 0
-				|| ray.getOrigin().get(0) > p0.get(0) && ray.getDirection().get(0) >= 0) {
-			Vector3d norm = new Vector3d(1, 0, 0);
-
-			double t = (p1.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(1) >= p0.get(1) && hp.get(1) <= p1.get(1) && hp.get(2) >= p0.get(2)
-						&& hp.get(2) <= p1.get(2)) {
-					tm = t;
-				}
-			}
-		}
-
-		if (ray.getOrigin().get(1) <= p0.get(1) && ray.getDirection().get(1) >= 0
-				|| ray.getOrigin().get(1) < p1.get(1) && ray.getDirection().get(1) <= 0) {
-			Vector3d norm = new Vector3d(0, -1, 0);
-
-			double t = (p0.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(0) >= p0.get(0) && hp.get(0) <= p1.get(0) && hp.get(2) >= p0.get(2)
-						&& hp.get(2) <= p1.get(2)) {
-					tm = t;
-				}
-			}
-		}
-		if (ray.getOrigin().get(1) >= p1.get(1) && ray.getDirection().get(1) <= 0
-				|| ray.getOrigin().get(1) > p0.get(1) && ray.getDirection().get(1) >= 0) {
-			Vector3d norm = new Vector3d(0, 1, 0);
-
-			double t = (p1.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(0) >= p0.get(0) && hp.get(0) <= p1.get(0) && hp.get(2) >= p0.get(2)
-						&& hp.get(2) <= p1.get(2)) {
-					tm = t;
-				}
+	public boolean hit(Ray ray, HitRecord record) {
+		double tNear = Double.NEGATIVE_INFINITY;
+		double tFar = Double.POSITIVE_INFINITY;
+		int nearAxis = -1;
+		int farAxis = -1;
+
+		for (int axis = 0; axis < 3; ++axis) {
+			double o = ray.getOrigin().get(axis);
+			double inv = ray.getInvDirection(axis);
+			int sign = ray.getSign(axis);
+			double lo = p0.get(axis);
+			double hi = p1.get(axis);
+			// a NaN from an origin on a plane parallel to the ray is ignored
+			double t0 = ((sign == 0 ? lo : hi) - o) * inv;
+			double t1 = ((sign == 0 ? hi : lo) - o) * inv;
+			if (t0 > tNear) {
+				tNear = t0;
+				nearAxis = axis;
 			}
-		}
-
-		if (ray.getOrigin().get(2) <= p0.get(2) && ray.getDirection().get(2) >= 0
-				|| ray.getOrigin().get(2) < p1.get(2) && ray.getDirection().get(2) <= 0) {
-			Vector3d norm = new Vector3d(0, 0, -1);
-
-			double t = (p0.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(0) >= p0.get(0) && hp.get(0) <= p1.get(0) && hp.get(1) >= p0.get(1)
-						&& hp.get(1) <= p1.get(1)) {
-					tm = t;
-				}
+			if (t1 < tFar) {
+				tFar = t1;
+				farAxis = axis;
 			}
 		}
-		if (ray.getOrigin().get(2) >= p1.get(2) && ray.getDirection().get(2) <= 0
-				|| ray.getOrigin().get(2) > p0.get(2) && ray.getDirection().get(2) >= 0) {
-			Vector3d norm = new Vector3d(0, 0, 1);
 
-			double t = (p1.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(0) >= p0.get(0) && hp.get(0) <= p1.get(0) && hp.get(1) >= p0.get(1)
-						&& hp.get(1) <= p1.get(1)) {
-					tm = t;
-				}
-			}
+		if (tNear > tFar) {
+			return (false);
 		}
-
-		if (tm != Double.MAX_VALUE) {
-			mTmin.set(tm);
-			return (true);
+		boolean entering = tNear > kEpsilon;
+		double t = entering ? tNear : tFar;
+		int axis = entering ? nearAxis : farAxis;
+		if (!(t > kEpsilon && t < record.t)) {
+			return (false);
 		}
-		return (false);
+		// the lesser face of an axis faces -axis
+		double normal = ((ray.getSign(axis) == 0) == entering) ? -1.0 : 1.0;
+		record.t = t;
+		record.setNormal(axis == 0 ? normal : 0.0, axis == 1 ? normal : 0.0, axis == 2 ? normal : 0.0);
+		return (true);
 	}
 
 	/**
-	 * @see GeometricObject#hit(Ray, Mutable, Mutable)
+	 * Slab test as in hit.
+	 * 
+	 * @see GeometricObject#occluded(Ray, double)
 	 */
 	@Override
-	public boolean hit(Ray ray, Mutable<Double> mTmin, Mutable<Vector3d> mNormal) {
-		double tm = Double.MAX_VALUE;
-		Vector3d p0 = new Vector3d(this.p0);
-		Vector3d p1 = new Vector3d(this.p1);
-
-		if (ray.getOrigin().get(0) <= p0.get(0) && ray.getDirection().get(0) >= 0
-				|| ray.getOrigin().get(0) < p1.get(0) && ray.getDirection().get(0) <= 0) {
-			Vector3d norm = new Vector3d(-1, 0, 0);
-
-			double t = (p0.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getOrigin().add(ray.getDirection().multiply(t));
-				if (hp.get(1) >= p0.get(1) && hp.get(1) <= p1.get(1) && hp.get(2) >= p0.get(2)
-						&& hp.get(2) <= p1.get(2)) {
-					tm = t;
-					mNormal.set(norm);
-				}
-			}
-		}
-		if (ray.getOrigin().get(0) >= p1.get(0) && ray.getDirection().get(0) <= 0
-				|| ray.getOrigin().get(0) > p0.get(0) && ray.getDirection().get(0) >= 0) {
-			Vector3d norm = new Vector3d(1, 0, 0);
-
-			double t = (p1.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getOrigin().add(ray.getDirection().multiply(t));
-				if (hp.get(1) >= p0.get(1) && hp.get(1) <= p1.get(1) && hp.get(2) >= p0.get(2)
-						&& hp.get(2) <= p1.get(2)) {
-					tm = t;
-					mNormal.set(norm);
-				}
-			}
-		}
-
-		if (ray.getOrigin().get(1) <= p0.get(1) && ray.getDirection().get(1) >= 0
-				|| ray.getOrigin().get(1) < p1.get(1) && ray.getDirection().get(1) <= 0) {
-			Vector3d norm = new Vector3d(0, -1, 0);
-
-			double t = (p0.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(0) >= p0.get(0) && hp.get(0) <= p1.get(0) && hp.get(2) >= p0.get(2)
-						&& hp.get(2) <= p1.get(2)) {
-					tm = t;
-					mNormal.set(norm);
-				}
-			}
-		}
-		if (ray.getOrigin().get(1) >= p1.get(1) && ray.getDirection().get(1) <= 0
-				|| ray.getOrigin().get(1) > p0.get(1) && ray.getDirection().get(1) >= 0) {
-			Vector3d norm = new Vector3d(0, 1, 0);
-
-			double t = (p1.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(0) >= p0.get(0) && hp.get(0) <= p1.get(0) && hp.get(2) >= p0.get(2)
-						&& hp.get(2) <= p1.get(2)) {
-					tm = t;
-					mNormal.set(norm);
-				}
-			}
-		}
-
-		if (ray.getOrigin().get(2) <= p0.get(2) && ray.getDirection().get(2) >= 0
-				|| ray.getOrigin().get(2) < p1.get(2) && ray.getDirection().get(2) <= 0) {
-			Vector3d norm = new Vector3d(0, 0, -1);
-
-			double t = (p0.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(0) >= p0.get(0) && hp.get(0) <= p1.get(0) && hp.get(1) >= p0.get(1)
-						&& hp.get(1) <= p1.get(1)) {
-					tm = t;
-					mNormal.set(norm);
-				}
+	public boolean occluded(Ray ray, double tMax) {
+		double tNear = Double.NEGATIVE_INFINITY;
+		double tFar = Double.POSITIVE_INFINITY;
+
+		for (int axis = 0; axis < 3; ++axis) {
+			double o = ray.getOrigin().get(axis);
+			double inv = ray.getInvDirection(axis);
+			int sign = ray.getSign(axis);
+			double t0 = ((sign == 0 ? p0.get(axis) : p1.get(axis)) - o) * inv;
+			double t1 = ((sign == 0 ? p1.get(axis) : p0.get(axis)) - o) * inv;
+			if (t0 > tNear) {
+				tNear = t0;
 			}
-		}
-		if (ray.getOrigin().get(2) >= p1.get(2) && ray.getDirection().get(2) <= 0
-				|| ray.getOrigin().get(2) > p0.get(2) && ray.getDirection().get(2) >= 0) {
-			Vector3d norm = new Vector3d(0, 0, 1);
-
-			double t = (p1.subtract(ray.getOrigin())).dot(norm) / (ray.getDirection().dot(norm));
-			if (t < tm && t > kEpsilon) {
-				Vector3d hp = ray.getHitPoint(t);
-				if (hp.get(0) >= p0.get(0) && hp.get(0) <= p1.get(0) && hp.get(1) >= p0.get(1)
-						&& hp.get(1) <= p1.get(1)) {
-					tm = t;
-					mNormal.set(norm);
-				}
+			if (t1 < tFar) {
+				tFar = t1;
 			}
 		}
 
-		if (tm != Double.MAX_VALUE) {
-			mTmin.set(tm);
-			return (true);
+		if (tNear > tFar) {
+			return (false);
 		}
-		return (false);
+		double t = (tNear > kEpsilon) ? tNear : tFar;
+		return (t > kEpsilon && t < tMax);
 	}
 
+	/**
+	 * @see GeometricObject#getBoundingBox()
+	 */
+	@Override
+	public BBox getBoundingBox() {
+		return new BBox(p0.get(0), p0.get(1), p0.get(2), p1.get(0), p1.get(1), p1.get(2));
+	}
 }
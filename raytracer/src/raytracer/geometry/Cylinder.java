@@ -1,11 +1,12 @@
 package raytracer.geometry;
 
-import raytracer.Mutable;
+import raytracer.HitRecord;
 import raytracer.Ray;
-import raytracer.Vector3d;
 import raytracer.Vector3f;
 
 public class Cylinder implements GeometricObject {
+	private static final long serialVersionUID = 1L;
+
 	public double kEpsilon = 0.000000001; /** < maximum floating point error for equality */
 	protected float radius; 
 	protected float height;
@@ -33,149 +34,190 @@ public class Cylinder implements GeometricObject {
 		this.height = height;
 	}
 
+	/**
+	 * Setter
+	 * A cylinder in a scene has to be marked dirty with Scene#markDirty after
+	 * it is changed.
+	 * 
+	 * @param center position of the center of the base
+	 */
+	public void setCenter(Vector3f center) {
+		this.center = center;
+	}
+
+	/**
+	 * Setter
+	 * A cylinder in a scene has to be marked dirty with Scene#markDirty after
+	 * it is changed.
+	 * 
+	 * @param radius
+	 */
+	public void setRadius(float radius) {
+		this.radius = radius;
+	}
+
+	/**
+	 * Setter
+	 * A cylinder in a scene has to be marked dirty with Scene#markDirty after
+	 * it is changed.
+	 * 
+	 * @param height
+	 */
+	public void setHeight(float height) {
+		this.height = height;
+	}
+
+	/**
+	 * Tests both sides of the infinite cylinder, within height, and both caps,
+	 * within radius, keeping the closest.
+	 * 
+	 * @see GeometricObject#hit(Ray, HitRecord)
+	 */
 	@Override
-	public boolean hit(Ray ray, Mutable<Double> mTmin) {
-		double a = ray.getDirection().get(0) * ray.getDirection().get(0)
-				+ ray.getDirection().get(2) * ray.getDirection().get(2);
-		double b = 2 * (ray.getOrigin().get(0) * ray.getDirection().get(0)
-				+ ray.getOrigin().get(2) * ray.getDirection().get(2));
-		double c = ray.getOrigin().get(0) * ray.getOrigin().get(0) + ray.getOrigin().get(2) * ray.getOrigin().get(2)
-				- radius * radius;
+	public boolean hit(Ray ray, HitRecord record) {
+		double ox = ray.getOrigin().x - center.get(0);
+		double oy = ray.getOrigin().y;
+		double oz = ray.getOrigin().z - center.get(2);
+		double dx = ray.getDirection().x;
+		double dy = ray.getDirection().y;
+		double dz = ray.getDirection().z;
+
+		double a = dx * dx + dz * dz;
+		double b = 2 * (ox * dx + oz * dz);
+		double c = ox * ox + oz * oz - radius * radius;
 		double disc = b * b - 4.0 * a * c;
 
 		if (disc < 0) {
 			return (false);
-		} else {
-			double e = Math.pow(disc, 0.5);
-			double denom = 2.0 * a;
-
-			Vector3d center = new Vector3d(this.center);
-			double radius = this.radius;
-			double height = this.height;
-			;
-			// Lesser t for infinite cylinder, check intersection and if within height
-			double t = (-b - e) / denom;
-			if (t > kEpsilon) {
-				double y = ray.getOrigin().get(1) + (ray.getDirection().get(1) * t);
-
-				if (y >= (center.get(1) - kEpsilon) && y <= (center.get(1) + height + kEpsilon)) {
-					mTmin.set(t);
-					return (true);
-				}
-			}
+		}
 
-			// Greater t for infinite cylinder, check intersection and if within height
-			t = (-b + e) / denom;
-			if (t > kEpsilon) {
-				double y = ray.getOrigin().get(1) + (ray.getDirection().get(1) * t);
-				if (y >= (center.get(1) - kEpsilon) && y <= (center.get(1) + height + kEpsilon)) {
-					mTmin.set(t);
-					return (true);
-				}
+		double e = Math.sqrt(disc);
+		double denom = 2.0 * a;
+		double yBase = center.get(1);
+		double yTop = center.get(1) + height;
+		double tm = record.t;
+		int surface = -1; // 0 side, 1 base, 2 top
+
+		// Both roots of the infinite cylinder, within height
+		double t = (-b - e) / denom;
+		if (t > kEpsilon && t < tm) {
+			double y = oy + dy * t;
+			if (y >= (yBase - kEpsilon) && y <= (yTop + kEpsilon)) {
+				tm = t;
+				surface = 0;
 			}
-
-			// Plane intersection test for plane at base of cylinder w/ check if within
-			// radius
-			Vector3d normal = new Vector3d(0.0, -1.0, 0.0);
-			t = (center.subtract(ray.getOrigin())).dot(normal) / ray.getDirection().dot(normal);
-			if (t > kEpsilon) {
-				Vector3d hit_point = ray.getOrigin().add(ray.getDirection().multiply(t));
-				if (hit_point.get(0) * hit_point.get(0) + hit_point.get(2) * hit_point.get(2) < radius * radius) {
-					mTmin.set(t);
-					return (true);
-				}
+		}
+		t = (-b + e) / denom;
+		if (t > kEpsilon && t < tm) {
+			double y = oy + dy * t;
+			if (y >= (yBase - kEpsilon) && y <= (yTop + kEpsilon)) {
+				tm = t;
+				surface = 0;
 			}
+		}
 
-			// Plane intersection test for plane at top of cylinder w/ check if within
-			// radius
-			normal = new Vector3d(0.0, 1.0, 0.0);
-			Vector3d top_center = new Vector3d(center.get(0), center.get(1) + height, center.get(2));
-			t = (top_center.subtract(ray.getOrigin())).dot(normal) / ray.getDirection().dot(normal);
-			if (t > kEpsilon) {
-				Vector3d hit_point = ray.getOrigin().add(ray.getDirection().multiply(t));
-				if (hit_point.get(0) * hit_point.get(0) + hit_point.get(2) * hit_point.get(2) < radius * radius) {
-					mTmin.set(t);
-					return (true);
-				}
+		// Base and top caps, within radius
+		t = (yBase - oy) / dy;
+		if (t > kEpsilon && t < tm) {
+			double hx = ox + dx * t;
+			double hz = oz + dz * t;
+			if (hx * hx + hz * hz < radius * radius) {
+				tm = t;
+				surface = 1;
 			}
 		}
-		return (false);
+		t = (yTop - oy) / dy;
+		if (t > kEpsilon && t < tm) {
+			double hx = ox + dx * t;
+			double hz = oz + dz * t;
+			if (hx * hx + hz * hz < radius * radius) {
+				tm = t;
+				surface = 2;
+			}
+		}
+
+		if (surface < 0) {
+			return (false);
+		}
+		record.t = tm;
+		if (surface == 0) {
+			record.setNormal((ox + dx * tm) / radius, 0.0, (oz + dz * tm) / radius);
+		} else if (surface == 1) {
+			record.setNormal(0.0, -1.0, 0.0);
+		} else {
+			record.setNormal(0.0, 1.0, 0.0);
+		}
+		return (true);
 	}
 
+	/**
+	 * @see GeometricObject#occluded(Ray, double)
+	 */
 	@Override
-	public boolean hit(Ray ray, Mutable<Double> mTmin, Mutable<Vector3d> mNormal) {
-		double a = ray.getDirection().get(0) * ray.getDirection().get(0)
-				+ ray.getDirection().get(2) * ray.getDirection().get(2);
-		double b = 2 * (ray.getOrigin().get(0) * ray.getDirection().get(0)
-				+ ray.getOrigin().get(2) * ray.getDirection().get(2));
-		double c = ray.getOrigin().get(0) * ray.getOrigin().get(0) + ray.getOrigin().get(2) * ray.getOrigin().get(2)
-				- radius * radius;
+	public boolean occluded(Ray ray, double tMax) {
+		double ox = ray.getOrigin().x - center.get(0);
+		double oy = ray.getOrigin().y;
+		double oz = ray.getOrigin().z - center.get(2);
+		double dx = ray.getDirection().x;
+		double dy = ray.getDirection().y;
+		double dz = ray.getDirection().z;
+
+		double a = dx * dx + dz * dz;
+		double b = 2 * (ox * dx + oz * dz);
+		double c = ox * ox + oz * oz - radius * radius;
 		double disc = b * b - 4.0 * a * c;
 
 		if (disc < 0) {
 			return (false);
-		} else {
-			double e = Math.pow(disc, 0.5);
-			double denom = 2.0 * a;
-
-			Vector3d center = new Vector3d(this.center);
-			double radius = this.radius;
-			double height = this.height;
-			;
-			// Lesser t for infinite cylinder, check intersection and if within height
-			double t = (-b - e) / denom;
-			if (t > kEpsilon) {
-				double y = ray.getHitPoint(t, 1);
-
-				if (y >= (center.get(1) - kEpsilon) && y <= (center.get(1) + height + kEpsilon)) {
-					mTmin.set(t);
-					Vector3d hit_point = ray.getHitPoint(t);
-					Vector3d normal = new Vector3d(hit_point.get(0) / radius, 0, hit_point.get(2) / radius);
-					mNormal.set(normal);
-					return (true);
-				}
-			}
+		}
 
-			// Greater t for infinite cylinder, check intersection and if within height
-			t = (-b + e) / denom;
-			if (t > kEpsilon) {
-				double y = ray.getHitPoint(t, 1);
-				if (y >= (center.get(1) - kEpsilon) && y <= (center.get(1) + height + kEpsilon)) {
-					mTmin.set(t);
-					Vector3d hit_point = ray.getHitPoint(t);
-					Vector3d normal = new Vector3d(hit_point.get(0) / radius, 0, hit_point.get(2) / radius);
-					mNormal.set(normal);
-					return (true);
-				}
+		double e = Math.sqrt(disc);
+		double denom = 2.0 * a;
+		double yBase = center.get(1);
+		double yTop = center.get(1) + height;
+
+		// Both roots of the infinite cylinder, within height
+		double t = (-b - e) / denom;
+		if (t > kEpsilon && t < tMax) {
+			double y = oy + dy * t;
+			if (y >= (yBase - kEpsilon) && y <= (yTop + kEpsilon)) {
+				return (true);
 			}
-
-			// Plane intersection test for plane at base of cylinder w/ check if within
-			// radius
-			Vector3d normal = new Vector3d(0.0, -1.0, 0.0);
-			t = (center.subtract(ray.getOrigin())).dot(normal) / ray.getDirection().dot(normal);
-			if (t > kEpsilon) {
-				Vector3d hit_point = ray.getHitPoint(t);
-				if (hit_point.get(0) * hit_point.get(0) + hit_point.get(2) * hit_point.get(2) < radius * radius) {
-					mTmin.set(t);
-					mNormal.set(normal);
-					return (true);
-				}
+		}
+		t = (-b + e) / denom;
+		if (t > kEpsilon && t < tMax) {
+			double y = oy + dy * t;
+			if (y >= (yBase - kEpsilon) && y <= (yTop + kEpsilon)) {
+				return (true);
 			}
+		}
 
-			// Plane intersection test for plane at top of cylinder w/ check if within
-			// radius
-			normal = new Vector3d(0.0, 1.0, 0.0);
-			Vector3d top_center = new Vector3d(center.get(0), center.get(1) + height, center.get(2));
-			t = (top_center.subtract(ray.getOrigin())).dot(normal) / ray.getDirection().dot(normal);
-			if (t > kEpsilon) {
-				Vector3d hit_point = ray.getHitPoint(t);
-				if (hit_point.get(0) * hit_point.get(0) + hit_point.get(2) * hit_point.get(2) < radius * radius) {
-					mTmin.set(t);
-					mNormal.set(normal);
-					return (true);
-				}
+		// Base and top caps, within radius
+		t = (yBase - oy) / dy;
+		if (t > kEpsilon && t < tMax) {
+			double hx = ox + dx * t;
+			double hz = oz + dz * t;
+			if (hx * hx + hz * hz < radius * radius) {
+				return (true);
+			}
+		}
+		t = (yTop - oy) / dy;
+		if (t > kEpsilon && t < tMax) {
+			double hx = ox + dx * t;
+			double hz = oz + dz * t;
+			if (hx * hx + hz * hz < radius * radius) {
+				return (true);
 			}
 		}
 		return (false);
 	}
+
+	/**
+	 * @see GeometricObject#getBoundingBox()
+	 */
+	@Override
+	public BBox getBoundingBox() {
+		return new BBox(center.get(0) - radius, center.get(1), center.get(2) - radius,
+				center.get(0) + radius, center.get(1) + height, center.get(2) + radius);
+	}
 }
@@ -0,0 +1,21 @@
+package raytracer.geometry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocator of direct buffers, their memory is released by the garbage
+ * collector once they are unreachable.
+ *
+ * @author Manuel Nunes
+ *
+ */
+final class DirectAllocator implements OffHeapAllocator {
+	@Override
+	public ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes);
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -1,30 +1,42 @@
 package raytracer.geometry;
 
-import raytracer.Mutable;
+import java.io.Serializable;
+
+import raytracer.HitRecord;
 import raytracer.Ray;
-import raytracer.Vector3d;
 
-public interface GeometricObject {
+public interface GeometricObject extends Serializable {
 	/**
 	 * hit function
 	 * 
 	 * @param ray ray to test against for intersection
-	 * @param mTmin mutable used to pass back t or distance to object
-	 *   of intersection.
+	 * @param record caller owned record of the closest intersection found so
+	 *   far. The distance and surface normal are only overwritten by an
+	 *   intersection closer than record.t.
 	 * 
-	 * @return boolean Did the ray hit the object?
+	 * @return boolean Did the ray hit the object closer than record.t?
 	 */	
-	boolean hit(Ray ray, Mutable<Double> mTmin);
+	boolean hit(Ray ray, HitRecord record);
 
 	/**
-	 * hit function
+	 * Occlusion function
+	 * 
+	 * Stops at the first intersection found and does not compute the surface
+	 * normal, intended for shadow rays.
 	 * 
 	 * @param ray ray to test against for intersection
-	 * @param mTmin mutable used to pass back t or distance to object
-	 * @param mNormal mutable used to pass back the surface normal at the point
-	 *   of intersection.
+	 * @param tMax distance beyond which intersections are ignored (e.g. the
+	 *   distance to a light).
 	 * 
-	 * @return boolean Did the ray hit the object?
-	 */	
-	boolean hit(Ray ray, Mutable<Double> mTmin, Mutable<Vector3d> mNormal);
+	 * @return boolean Does the object intersect the ray within (kEpsilon, tMax)?
+	 */
+	boolean occluded(Ray ray, double tMax);
+
+	/**
+	 * Bounding box function
+	 * 
+	 * @return Axis aligned box enclosing the object or null if the object is
+	 *   unbounded (e.g. a plane).
+	 */
+	BBox getBoundingBox();
 }
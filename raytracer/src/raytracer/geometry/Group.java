@@ -0,0 +1,172 @@
+package raytracer.geometry;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+
+import raytracer.HitRecord;
+import raytracer.Ray;
+import raytracer.accel.BVH;
+import raytracer.accel.LeafIntersector;
+import raytracer.material.Material;
+
+/**
+ * Class representing a sub-scene, a collection of bounded objects with their
+ * own bounding volume hierarchy that is meant to be shared by Instances.
+ *
+ * An object of a group may be given its own material which is reported in the
+ * hit record, it then takes the place of the material of a primitive without
+ * one (see Primitive). An object without one reports the material its own hit
+ * reported, so the materials of nested groups reach the scene. Objects cannot
+ * be added once the group has been hit.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class Group implements GeometricObject {
+	private static final long serialVersionUID = 1L;
+
+	private int nObjects;
+	private GeometricObject objects[] = new GeometricObject[8];
+	private Material materials[] = new Material[8]; /** < material of every object, null if none */
+	private transient volatile BVH bvh; /** < hierarchy over the objects, null until built */
+	private transient GeometricObject bvhObjects[]; /** < objects in BVH leaf order */
+	private transient Material bvhMaterials[]; /** < materials in BVH leaf order */
+	private transient BBox bounds;
+	private transient ObjectLeaves leaves = new ObjectLeaves();
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		leaves = new ObjectLeaves();
+	}
+
+	/**
+	 * Adds an object without its own material to the group.
+	 *
+	 * @param object Bounded object.
+	 */
+	public void add(GeometricObject object) {
+		add(object, null);
+	}
+
+	/**
+	 * Adds an object to the group.
+	 *
+	 * @param object Bounded object.
+	 * @param material Material of the object, null if none.
+	 */
+	public synchronized void add(GeometricObject object, Material material) {
+		if (object == null || object.getBoundingBox() == null) {
+			throw new IllegalArgumentException("Group objects must be bounded.");
+		}
+		if (bvh != null) {
+			throw new IllegalStateException("Group is already built.");
+		}
+		if (nObjects == objects.length) {
+			objects = Arrays.copyOf(objects, nObjects * 2);
+			materials = Arrays.copyOf(materials, nObjects * 2);
+		}
+		objects[nObjects] = object;
+		materials[nObjects++] = material;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of objects.
+	 */
+	public int getNumObjects() {
+		return (nObjects);
+	}
+
+	/**
+	 * Builds the hierarchy over the objects if it has not been built.
+	 */
+	public void build() {
+		if (bvh == null) {
+			buildSynchronized();
+		}
+	}
+
+	private synchronized void buildSynchronized() {
+		if (bvh != null) {
+			return;
+		}
+		BBox boxes[] = new BBox[nObjects];
+		BBox bounds = new BBox();
+		for (int idx = 0; idx < nObjects; ++idx) {
+			boxes[idx] = objects[idx].getBoundingBox();
+			bounds.include(boxes[idx]);
+		}
+		BVH bvh = new BVH(boxes);
+		bvhObjects = new GeometricObject[nObjects];
+		bvhMaterials = new Material[nObjects];
+		for (int idx = 0; idx < nObjects; ++idx) {
+			bvhObjects[idx] = objects[bvh.getObjectIndex(idx)];
+			bvhMaterials[idx] = materials[bvh.getObjectIndex(idx)];
+		}
+		this.bounds = bounds;
+		this.bvh = bvh;
+	}
+
+	/**
+	 * Intersects the objects of a BVH leaf.
+	 */
+	private class ObjectLeaves implements LeafIntersector {
+		@Override
+		public boolean hit(int first, int count, Ray ray, HitRecord record) {
+			boolean leafHit = false;
+			for (int idx = first; idx < first + count; ++idx) {
+				// an object without a material keeps the one it reported itself (e.g. a nested Group)
+				Material material = record.material;
+				record.material = null;
+				if (bvhObjects[idx].hit(ray, record)) {
+					if (bvhMaterials[idx] != null) {
+						record.material = bvhMaterials[idx];
+					}
+					leafHit = true;
+				} else {
+					record.material = material;
+				}
+			}
+			return (leafHit);
+		}
+
+		@Override
+		public int occluder(int first, int count, Ray ray, double tMax) {
+			for (int idx = first; idx < first + count; ++idx) {
+				if (bvhObjects[idx].occluded(ray, tMax)) {
+					return (idx);
+				}
+			}
+			return (-1);
+		}
+	}
+
+	/**
+	 * @see GeometricObject#hit(Ray, HitRecord)
+	 */
+	@Override
+	public boolean hit(Ray ray, HitRecord record) {
+		build();
+		return bvh.hit(ray, record, leaves);
+	}
+
+	/**
+	 * @see GeometricObject#occluded(Ray, double)
+	 */
+	@Override
+	public boolean occluded(Ray ray, double tMax) {
+		build();
+		return bvh.occluded(ray, tMax, leaves);
+	}
+
+	/**
+	 * @see GeometricObject#getBoundingBox()
+	 */
+	@Override
+	public BBox getBoundingBox() {
+		build();
+		return new BBox(bounds.x0, bounds.y0, bounds.z0, bounds.x1, bounds.y1, bounds.z1);
+	}
+}
@@ -0,0 +1,216 @@
+package raytracer.geometry;
+
+import raytracer.HitRecord;
+import raytracer.Matrix;
+import raytracer.MutableVector3d;
+import raytracer.Quaternion;
+import raytracer.Ray;
+import raytracer.Vector3d;
+
+/**
+ * Class representing a copy of a shared geometric object placed in the world
+ * by an affine transform.
+ *
+ * Any number of instances may reference the same object (e.g. a Group of the
+ * objects making up a tree) so that a forest holds one copy of the geometry.
+ * The scene hierarchy is built over the world bounds of the instances and a
+ * ray reaching an instance is moved into object space with the cached
+ * inverse transform, tested against the object and moved back.
+ *
+ * The ray is transformed in place for the duration of the call, so it must
+ * not be shared with another thread (render threads own their rays).
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class Instance implements GeometricObject {
+	private static final long serialVersionUID = 1L;
+
+	private final GeometricObject object; /** < shared object in object space */
+	private final double transform[] = new double[12]; /** < object to world, rows of a 3x4 matrix */
+	private final double inverse[] = new double[12]; /** < world to object, rows of a 3x4 matrix */
+	private BBox bounds; /** < world bounds, null if the object is unbounded */
+
+	/**
+	 * Constructor
+	 *
+	 * @param object Shared object.
+	 * @param transform Affine object to world transform.
+	 */
+	public Instance(GeometricObject object, Matrix transform) {
+		if (object == null) {
+			throw new IllegalArgumentException("Invalid object.");
+		}
+		this.object = object;
+		setTransform(transform);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * The object is scaled, then rotated and then translated.
+	 *
+	 * @param object Shared object.
+	 * @param translation Position of the object origin in the world.
+	 * @param rotation Rotation of the object.
+	 * @param scale Uniform scale of the object.
+	 */
+	public Instance(GeometricObject object, Vector3d translation, Quaternion rotation, double scale) {
+		this(object, toMatrix(translation, rotation, scale));
+	}
+
+	private static Matrix toMatrix(Vector3d translation, Quaternion rotation, double scale) {
+		Matrix t = new Matrix();
+		t.T(translation.get(0), translation.get(1), translation.get(2));
+		Matrix s = new Matrix();
+		s.S(scale, scale, scale);
+		return t.cross(new Matrix(rotation)).cross(s);
+	}
+
+	/**
+	 * Setter
+	 * An instance in a scene has to be marked dirty with Scene#markDirty after
+	 * it is changed.
+	 *
+	 * @param transform Affine object to world transform.
+	 */
+	public void setTransform(Matrix transform) {
+		double determinant = transform.determinant();
+		if (!(Math.abs(determinant) > transform.kEpsilon)) {
+			throw new IllegalArgumentException("Transform is not invertible.");
+		}
+		Matrix inverse = transform.inverse();
+		for (int row = 0; row < 3; ++row) {
+			for (int column = 0; column < 4; ++column) {
+				this.transform[row * 4 + column] = transform.get(column, row);
+				this.inverse[row * 4 + column] = inverse.get(column, row);
+			}
+		}
+		updateBounds();
+	}
+
+	/**
+	 * Recomputes the world bounds, needed after the shared object has been
+	 * changed.
+	 */
+	public void updateBounds() {
+		BBox box = object.getBoundingBox();
+		if (box == null) {
+			bounds = null;
+			return;
+		}
+		BBox bounds = new BBox();
+		for (int row = 0; row < 3; ++row) {
+			// the extremes of an affine transform of a box are at its corners
+			double lo = transform[row * 4 + 3];
+			double hi = lo;
+			for (int axis = 0; axis < 3; ++axis) {
+				double a = transform[row * 4 + axis] * box.getMin(axis);
+				double b = transform[row * 4 + axis] * box.getMax(axis);
+				lo += Math.min(a, b);
+				hi += Math.max(a, b);
+			}
+			if (row == 0) {
+				bounds.x0 = lo;
+				bounds.x1 = hi;
+			} else if (row == 1) {
+				bounds.y0 = lo;
+				bounds.y1 = hi;
+			} else {
+				bounds.z0 = lo;
+				bounds.z1 = hi;
+			}
+		}
+		this.bounds = bounds;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Shared object.
+	 */
+	public GeometricObject getObject() {
+		return (object);
+	}
+
+	/**
+	 * Moves a world space ray into object space.
+	 *
+	 * @return Length of the transformed direction before normalisation, the
+	 *   ratio of object to world distances along the ray.
+	 */
+	private double toObject(Ray ray) {
+		MutableVector3d origin = ray.getOrigin();
+		MutableVector3d direction = ray.getDirection();
+		double ox = origin.x, oy = origin.y, oz = origin.z;
+		double dx = direction.x, dy = direction.y, dz = direction.z;
+		double m[] = inverse;
+		double tx = m[0] * dx + m[1] * dy + m[2] * dz;
+		double ty = m[4] * dx + m[5] * dy + m[6] * dz;
+		double tz = m[8] * dx + m[9] * dy + m[10] * dz;
+		double scale = Math.sqrt(tx * tx + ty * ty + tz * tz);
+		ray.setNormalized(m[0] * ox + m[1] * oy + m[2] * oz + m[3], m[4] * ox + m[5] * oy + m[6] * oz + m[7],
+				m[8] * ox + m[9] * oy + m[10] * oz + m[11], tx / scale, ty / scale, tz / scale);
+		return (scale);
+	}
+
+	/**
+	 * @see GeometricObject#hit(Ray, HitRecord)
+	 */
+	@Override
+	public boolean hit(Ray ray, HitRecord record) {
+		MutableVector3d origin = ray.getOrigin();
+		MutableVector3d direction = ray.getDirection();
+		double ox = origin.x, oy = origin.y, oz = origin.z;
+		double dx = direction.x, dy = direction.y, dz = direction.z;
+		double t = record.t;
+		boolean is_hit = false;
+		try {
+			double scale = toObject(ray);
+			record.t = t * scale;
+			is_hit = object.hit(ray, record);
+			if (is_hit) {
+				t = record.t / scale;
+				// normals transform by the transpose of the inverse
+				double m[] = inverse;
+				double nx = m[0] * record.nx + m[4] * record.ny + m[8] * record.nz;
+				double ny = m[1] * record.nx + m[5] * record.ny + m[9] * record.nz;
+				double nz = m[2] * record.nx + m[6] * record.ny + m[10] * record.nz;
+				double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+				record.setNormal(nx / length, ny / length, nz / length);
+			}
+		} finally {
+			record.t = t;
+			ray.setNormalized(ox, oy, oz, dx, dy, dz);
+		}
+		return (is_hit);
+	}
+
+	/**
+	 * @see GeometricObject#occluded(Ray, double)
+	 */
+	@Override
+	public boolean occluded(Ray ray, double tMax) {
+		MutableVector3d origin = ray.getOrigin();
+		MutableVector3d direction = ray.getDirection();
+		double ox = origin.x, oy = origin.y, oz = origin.z;
+		double dx = direction.x, dy = direction.y, dz = direction.z;
+		try {
+			double scale = toObject(ray);
+			return object.occluded(ray, tMax * scale);
+		} finally {
+			ray.setNormalized(ox, oy, oz, dx, dy, dz);
+		}
+	}
+
+	/**
+	 * @see GeometricObject#getBoundingBox()
+	 */
+	@Override
+	public BBox getBoundingBox() {
+		if (bounds == null) {
+			return (null);
+		}
+		return new BBox(bounds.x0, bounds.y0, bounds.z0, bounds.x1, bounds.y1, bounds.z1);
+	}
+}
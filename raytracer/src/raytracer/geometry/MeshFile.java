@@ -0,0 +1,222 @@
+package raytracer.geometry;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import raytracer.accel.BVH;
+
+/**
+ * Binary container of a built triangle mesh, so that a mesh used by many
+ * renders is converted once and then loaded without parsing or building.
+ *
+ * The sections are used in place: the mesh and its hierarchy read them
+ * through buffers of a read only memory mapping of the file, so loading only
+ * costs the page faults of the parts that rays touch.
+ *
+ * The file is little endian, every section starts at a multiple of 8 bytes:
+ * a header (MAGIC, flags, number of vertices, number of triangles, number of
+ * hierarchy nodes, padding and the bounds of the mesh as 6 doubles), the
+ * vertex positions (x,y,z floats), the vertex normals if flag 1 is set, the
+ * three vertex indices of every triangle in leaf order and the hierarchy in
+ * the layout of BVH#write. It is written to a temporary file that is then
+ * moved in place, so a concurrent or interrupted run never sees half a file.
+ *
+ * Usage: java raytracer.geometry.MeshFile input.obj output.mesh
+ *
+ * @author Manuel Nunes
+ *
+ */
+public final class MeshFile {
+	private static final int MAGIC = 0x4D534831; /** < "MSH1" */
+	private static final int HEADER_SIZE = 72; /** < bytes before the vertex positions */
+	private static final int HAS_NORMALS = 1; /** < flag of a mesh with vertex normals */
+	private static final int CHUNK_SIZE = 1 << 16; /** < bytes written at a time */
+
+	private MeshFile() {
+	}
+
+	/**
+	 * Load a mesh.
+	 *
+	 * @param file Mesh file.
+	 * @return Mesh backed by a memory mapping of the file.
+	 * @throws IOException if the file cannot be read or is not a valid mesh file.
+	 */
+	public static TriangleMesh load(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw invalid(file);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			int magic = header.getInt();
+			int flags = header.getInt();
+			int numVertices = header.getInt();
+			int numTriangles = header.getInt();
+			int numNodes = header.getInt();
+			header.getInt();
+			BBox bounds = new BBox(header.getDouble(), header.getDouble(), header.getDouble(), header.getDouble(),
+					header.getDouble(), header.getDouble());
+			if (magic != MAGIC || (flags & ~HAS_NORMALS) != 0 || numVertices < 0 || numTriangles < 0
+					|| numNodes < 0) {
+				throw invalid(file);
+			}
+
+			long positionsSize = 3L * numVertices * Float.BYTES;
+			long normalsSize = ((flags & HAS_NORMALS) != 0) ? positionsSize : 0;
+			long indicesSize = 3L * numTriangles * Integer.BYTES;
+			long bvhSize = BVH.getSize(numNodes, numTriangles);
+			long normalsOffset = align(HEADER_SIZE + positionsSize);
+			long indicesOffset = align(normalsOffset + normalsSize);
+			long bvhOffset = align(indicesOffset + indicesSize);
+			if (size != bvhOffset + bvhSize) {
+				throw invalid(file);
+			}
+
+			FloatBuffer positions = map(channel, HEADER_SIZE, positionsSize).asFloatBuffer();
+			FloatBuffer normals = (normalsSize > 0) ? map(channel, normalsOffset, normalsSize).asFloatBuffer() : null;
+			IntBuffer indices = map(channel, indicesOffset, indicesSize).asIntBuffer();
+			BVH bvh = BVH.wrap(map(channel, bvhOffset, bvhSize), numNodes, numTriangles);
+			if (bvh == null) {
+				throw invalid(file);
+			}
+			return new TriangleMesh(positions, normals, indices, bvh, bounds);
+		} catch (IllegalArgumentException | BufferUnderflowException e) {
+			throw new IOException("Invalid mesh file " + file + ".", e);
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Mesh section of " + size + " bytes is too large.");
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return (buffer);
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	private static IOException invalid(Path file) {
+		return new IOException("Invalid mesh file " + file + ".");
+	}
+
+	/**
+	 * Saves a mesh, building its hierarchy if it has not been built.
+	 *
+	 * @param mesh Mesh to save.
+	 * @param file Mesh file, replaced if it exists.
+	 * @throws IOException
+	 */
+	public static void write(TriangleMesh mesh, Path file) throws IOException {
+		BVH bvh = mesh.getBVH();
+		BBox bounds = mesh.getBoundingBox();
+		FloatBuffer positions = mesh.getPositions();
+		FloatBuffer normals = mesh.getNormals();
+		IntBuffer indices = mesh.getIndices();
+
+		Path directory = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.putInt(MAGIC);
+				buffer.putInt((normals != null) ? HAS_NORMALS : 0);
+				buffer.putInt(mesh.getNumVertices());
+				buffer.putInt(mesh.getNumTriangles());
+				buffer.putInt(bvh.getNumNodes());
+				buffer.putInt(0);
+				buffer.putDouble(bounds.x0);
+				buffer.putDouble(bounds.y0);
+				buffer.putDouble(bounds.z0);
+				buffer.putDouble(bounds.x1);
+				buffer.putDouble(bounds.y1);
+				buffer.putDouble(bounds.z1);
+
+				for (int idx = 0; idx < positions.limit(); ++idx) {
+					reserve(channel, buffer, Float.BYTES).putFloat(positions.get(idx));
+				}
+				pad(channel, buffer);
+				if (normals != null) {
+					for (int idx = 0; idx < normals.limit(); ++idx) {
+						reserve(channel, buffer, Float.BYTES).putFloat(normals.get(idx));
+					}
+					pad(channel, buffer);
+				}
+				for (int idx = 0; idx < indices.limit(); ++idx) {
+					reserve(channel, buffer, Integer.BYTES).putInt(indices.get(idx));
+				}
+				pad(channel, buffer);
+				bvh.write(channel, buffer);
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static ByteBuffer reserve(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+		if (buffer.remaining() < size) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+		return (buffer);
+	}
+
+	/**
+	 * Pads the file to the start of the next section.
+	 */
+	private static void pad(FileChannel channel, ByteBuffer buffer) throws IOException {
+		long offset = channel.position() + buffer.position();
+		for (long idx = offset; idx < align(offset); ++idx) {
+			reserve(channel, buffer, 1).put((byte) 0);
+		}
+	}
+
+	/**
+	 * Converts an OBJ file to a mesh file.
+	 *
+	 * @param objFile OBJ file, see ObjLoader.
+	 * @param file Mesh file, replaced if it exists.
+	 * @throws IOException
+	 */
+	public static void convert(Path objFile, Path file) throws IOException {
+		write(ObjLoader.load(objFile), file);
+	}
+
+	/**
+	 * Converts an OBJ file to a mesh file.
+	 *
+	 * @param args OBJ file and mesh file.
+	 * @throws IOException
+	 */
+	public static void main(String args[]) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: java raytracer.geometry.MeshFile input.obj output.mesh");
+			System.exit(1);
+		}
+		convert(Paths.get(args[0]), Paths.get(args[1]));
+	}
+}
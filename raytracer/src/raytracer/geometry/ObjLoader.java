@@ -0,0 +1,397 @@
+package raytracer.geometry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Loader of Wavefront OBJ files into a TriangleMesh.
+ *
+ * The file is streamed through a byte buffer and parsed in place, numbers are
+ * read straight from the bytes without creating a String per line or per
+ * token. Only the geometry is loaded: vertex positions (v), vertex normals
+ * (vn) and faces (f), polygons being split into a fan of triangles. Texture
+ * coordinates, groups, smoothing groups and materials are skipped.
+ *
+ * A vertex of the mesh is a distinct position and normal pair of the faces,
+ * so positions shared by faces with different normals (hard edges) are
+ * duplicated.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public final class ObjLoader {
+	private static final int BUFFER_SIZE = 1 << 20; /** < bytes read at a time */
+	private static final double POWERS_OF_TEN[] = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 }; /** < exactly representable powers */
+
+	private final Path file;
+	private byte line[]; /** < bytes of the buffer being parsed */
+	private int pos; /** < next byte of the line */
+	private int end; /** < end of the line */
+	private long lineNumber;
+
+	private FloatArray positions = new FloatArray(); /** < x,y,z per position of the file */
+	private FloatArray normals = new FloatArray(); /** < x,y,z per normal of the file */
+	private IntArray positionIndices = new IntArray(); /** < position of every triangle corner */
+	private IntArray normalIndices = new IntArray(); /** < normal of every triangle corner, -1 if none */
+	private boolean hasNormals; /** < does any corner have a normal? */
+	private int face[] = new int[16]; /** < position,normal per corner of the face being parsed */
+
+	private ObjLoader(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Load a mesh.
+	 *
+	 * @param file OBJ file.
+	 * @return Mesh of the faces of the file.
+	 * @throws IOException if the file cannot be read or is not a valid OBJ file.
+	 */
+	public static TriangleMesh load(Path file) throws IOException {
+		return new ObjLoader(file).load();
+	}
+
+	private TriangleMesh load() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			line = buffer.array();
+			boolean eof = false;
+			while (!eof) {
+				eof = channel.read(buffer) < 0;
+				if (!eof && buffer.hasRemaining()) {
+					continue;
+				}
+				// parse the whole lines of the buffer, keep the last partial one
+				int limit = buffer.position();
+				int start = 0;
+				for (int idx = 0; idx < limit; ++idx) {
+					if (line[idx] == '\n') {
+						parseLine(start, idx);
+						start = idx + 1;
+					}
+				}
+				if (eof) {
+					if (start < limit) {
+						parseLine(start, limit);
+					}
+				} else if (start == 0) {
+					// a line longer than the buffer
+					buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+					line = buffer.array();
+				} else {
+					buffer.limit(limit).position(start);
+					buffer.compact();
+				}
+			}
+		}
+		return createMesh();
+	}
+
+	private void parseLine(int start, int end) throws IOException {
+		++lineNumber;
+		this.pos = start;
+		this.end = end;
+		skipSpaces();
+		if (pos == end || line[pos] == '#') {
+			return;
+		}
+		int keyword = pos;
+		while (pos < end && !isSpace(line[pos])) {
+			++pos;
+		}
+		int length = pos - keyword;
+		if (length == 1 && line[keyword] == 'v') {
+			positions.add(parseFloat());
+			positions.add(parseFloat());
+			positions.add(parseFloat());
+		} else if (length == 2 && line[keyword] == 'v' && line[keyword + 1] == 'n') {
+			normals.add(parseFloat());
+			normals.add(parseFloat());
+			normals.add(parseFloat());
+		} else if (length == 1 && line[keyword] == 'f') {
+			parseFace();
+		}
+	}
+
+	private void parseFace() throws IOException {
+		int numCorners = 0;
+		skipSpaces();
+		while (pos < end) {
+			int position = resolve(parseInt(), positions.size() / 3);
+			int normal = -1;
+			if (pos < end && line[pos] == '/') {
+				++pos;
+				if (pos < end && line[pos] != '/') {
+					// texture coordinate
+					parseInt();
+				}
+				if (pos < end && line[pos] == '/') {
+					++pos;
+					normal = resolve(parseInt(), normals.size() / 3);
+					hasNormals = true;
+				}
+			}
+			if (pos < end && !isSpace(line[pos])) {
+				throw error();
+			}
+			if (numCorners * 2 == face.length) {
+				face = Arrays.copyOf(face, face.length * 2);
+			}
+			face[numCorners * 2] = position;
+			face[numCorners * 2 + 1] = normal;
+			++numCorners;
+			skipSpaces();
+		}
+		if (numCorners < 3) {
+			throw error();
+		}
+		for (int corner = 1; corner < numCorners - 1; ++corner) {
+			positionIndices.add(face[0]);
+			normalIndices.add(face[1]);
+			positionIndices.add(face[corner * 2]);
+			normalIndices.add(face[corner * 2 + 1]);
+			positionIndices.add(face[corner * 2 + 2]);
+			normalIndices.add(face[corner * 2 + 3]);
+		}
+	}
+
+	/**
+	 * Index of a face vertex, OBJ indices start at 1 and negative ones count
+	 * back from the last element read.
+	 */
+	private int resolve(int index, int count) throws IOException {
+		int resolved = (index < 0) ? count + index : index - 1;
+		if (index == 0 || resolved < 0 || resolved >= count) {
+			throw error();
+		}
+		return (resolved);
+	}
+
+	private TriangleMesh createMesh() {
+		int corners[] = positionIndices.toArray();
+		if (!hasNormals) {
+			return new TriangleMesh(positions.toArray(), null, corners);
+		}
+
+		// one vertex per distinct position and normal pair
+		float p[] = positions.toArray();
+		float n[] = normals.toArray();
+		int cornerNormals[] = normalIndices.toArray();
+		VertexMap vertices = new VertexMap();
+		FloatArray meshPositions = new FloatArray();
+		FloatArray meshNormals = new FloatArray();
+		for (int idx = 0; idx < corners.length; ++idx) {
+			int position = corners[idx];
+			int normal = cornerNormals[idx];
+			long key = ((long) position << 32) | (normal & 0xFFFFFFFFL);
+			int vertex = vertices.get(key);
+			if (vertex < 0) {
+				vertex = meshPositions.size() / 3;
+				vertices.put(key, vertex);
+				meshPositions.add(p[position * 3]);
+				meshPositions.add(p[position * 3 + 1]);
+				meshPositions.add(p[position * 3 + 2]);
+				meshNormals.add(normal < 0 ? 0.0f : n[normal * 3]);
+				meshNormals.add(normal < 0 ? 0.0f : n[normal * 3 + 1]);
+				meshNormals.add(normal < 0 ? 0.0f : n[normal * 3 + 2]);
+			}
+			corners[idx] = vertex;
+		}
+		return new TriangleMesh(meshPositions.toArray(), meshNormals.toArray(), corners);
+	}
+
+	private static boolean isSpace(byte c) {
+		return (c == ' ' || c == '\t' || c == '\r');
+	}
+
+	private void skipSpaces() {
+		while (pos < end && isSpace(line[pos])) {
+			++pos;
+		}
+	}
+
+	private int parseInt() throws IOException {
+		boolean negative = false;
+		if (pos < end && (line[pos] == '-' || line[pos] == '+')) {
+			negative = line[pos++] == '-';
+		}
+		int start = pos;
+		long value = 0;
+		while (pos < end && line[pos] >= '0' && line[pos] <= '9') {
+			value = value * 10 + (line[pos++] - '0');
+			if (value > Integer.MAX_VALUE) {
+				throw error();
+			}
+		}
+		if (pos == start) {
+			throw error();
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Parses a decimal number. The digits and the power of ten of the usual
+	 * numbers of an OBJ file are exact doubles, so one multiplication or
+	 * division rounds them, others fall back to Double.parseDouble.
+	 */
+	private float parseFloat() throws IOException {
+		skipSpaces();
+		boolean negative = false;
+		if (pos < end && (line[pos] == '-' || line[pos] == '+')) {
+			negative = line[pos++] == '-';
+		}
+		long mantissa = 0;
+		int numDigits = 0;
+		int exponent = 0;
+		boolean exact = true;
+		boolean fraction = false;
+		int digits = pos;
+		for (; pos < end; ++pos) {
+			byte c = line[pos];
+			if (c >= '0' && c <= '9') {
+				if (mantissa < 100000000000000000L) {
+					mantissa = mantissa * 10 + (c - '0');
+					numDigits += (mantissa != 0) ? 1 : 0;
+					exponent -= fraction ? 1 : 0;
+				} else {
+					exact = false;
+					exponent += fraction ? 0 : 1;
+				}
+			} else if (c == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+		if (pos == digits || (pos == digits + 1 && fraction)) {
+			throw error();
+		}
+		if (pos < end && (line[pos] == 'e' || line[pos] == 'E')) {
+			++pos;
+			int e = parseInt();
+			if (Math.abs(e) > 1000) {
+				exact = false;
+			} else {
+				exponent += e;
+			}
+		}
+		if (pos < end && !isSpace(line[pos])) {
+			throw error();
+		}
+
+		double value;
+		if (exact && numDigits <= 15 && Math.abs(exponent) < POWERS_OF_TEN.length) {
+			value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		} else {
+			value = Double.parseDouble(new String(line, digits, pos - digits, StandardCharsets.US_ASCII));
+		}
+		return (float) (negative ? -value : value);
+	}
+
+	private IOException error() {
+		return new IOException("Invalid OBJ file " + file + " at line " + lineNumber + ".");
+	}
+
+	/**
+	 * Growable array of floats.
+	 */
+	private static final class FloatArray {
+		private float values[] = new float[1024];
+		private int size;
+
+		void add(float value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int size() {
+			return (size);
+		}
+
+		float[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Growable array of ints.
+	 */
+	private static final class IntArray {
+		private int values[] = new int[1024];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int size() {
+			return (size);
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Open addressing map from a position and normal pair to a mesh vertex,
+	 * kept at most half full.
+	 */
+	private static final class VertexMap {
+		private long keys[] = new long[1024];
+		private int values[] = new int[1024];
+		private int size;
+
+		VertexMap() {
+			Arrays.fill(values, -1);
+		}
+
+		private static int slot(long keys[], int values[], long key) {
+			int mask = keys.length - 1;
+			long h = key * 0x9E3779B97F4A7C15L;
+			int slot = (int) (h ^ (h >>> 32)) & mask;
+			while (values[slot] >= 0 && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return (slot);
+		}
+
+		int get(long key) {
+			return values[slot(keys, values, key)];
+		}
+
+		void put(long key, int value) {
+			if (2 * (size + 1) > keys.length) {
+				long oldKeys[] = keys;
+				int oldValues[] = values;
+				keys = new long[oldKeys.length * 2];
+				values = new int[oldKeys.length * 2];
+				Arrays.fill(values, -1);
+				for (int idx = 0; idx < oldKeys.length; ++idx) {
+					if (oldValues[idx] >= 0) {
+						int slot = slot(keys, values, oldKeys[idx]);
+						keys[slot] = oldKeys[idx];
+						values[slot] = oldValues[idx];
+					}
+				}
+			}
+			int slot = slot(keys, values, key);
+			if (values[slot] < 0) {
+				++size;
+			}
+			keys[slot] = key;
+			values[slot] = value;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package raytracer.geometry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocator of the native memory of an OffHeapStore.
+ *
+ * @author Manuel Nunes
+ *
+ */
+interface OffHeapAllocator {
+	/**
+	 * Allocates native memory aligned to 8 bytes.
+	 *
+	 * @param bytes number of bytes
+	 * @return buffer over the memory
+	 */
+	ByteBuffer allocate(int bytes);
+
+	/**
+	 * Releases the memory allocated, if the allocator can.
+	 */
+	void close();
+}
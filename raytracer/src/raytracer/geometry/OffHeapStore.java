@@ -0,0 +1,133 @@
+package raytracer.geometry;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import raytracer.accel.BVH;
+
+/**
+ * Store of geometry outside of the Java heap.
+ *
+ * A built TriangleMesh or SphereSet is copied into native memory, vertices,
+ * spheres, indices and hierarchy alike, and the copy reads it in place
+ * through buffers. A large scene then only leaves small objects on the heap,
+ * so the heap and the garbage collection pauses do not grow with it.
+ *
+ * The memory is allocated with the Foreign Memory API when the
+ * jdk.incubator.foreign module is present and released at once by close,
+ * otherwise it is held by direct buffers and released by the garbage
+ * collector once the copies are unreachable (also when the tree is built
+ * without the optional src-incubator sources). The copies must not be used
+ * once the store is closed.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public final class OffHeapStore implements Closeable {
+	private final OffHeapAllocator allocator;
+	private long size; /** < bytes allocated */
+
+	/**
+	 * Default constructor
+	 */
+	public OffHeapStore() {
+		allocator = createAllocator();
+	}
+
+	private static OffHeapAllocator createAllocator() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent()) {
+			try {
+				return (OffHeapAllocator) Class.forName("raytracer.geometry.ForeignAllocator")
+						.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// fall back to direct buffers
+			}
+		}
+		return new DirectAllocator();
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Is the memory allocated with the Foreign Memory API?
+	 */
+	public boolean isForeign() {
+		return !(allocator instanceof DirectAllocator);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of bytes stored.
+	 */
+	public synchronized long getSize() {
+		return (size);
+	}
+
+	/**
+	 * Copies a mesh off the heap, building its hierarchy if it has not been
+	 * built.
+	 *
+	 * @param mesh Mesh to copy.
+	 * @return Mesh reading the copy.
+	 */
+	public TriangleMesh store(TriangleMesh mesh) {
+		BVH bvh = mesh.getBVH();
+		IntBuffer indices = mesh.getIndices();
+		FloatBuffer positions = mesh.getPositions();
+		FloatBuffer normals = mesh.getNormals();
+		return new TriangleMesh(copy(positions), (normals != null) ? copy(normals) : null, copy(indices), copy(bvh),
+				mesh.getBoundingBox());
+	}
+
+	/**
+	 * Copies a sphere set off the heap, building its hierarchy if it has not
+	 * been built.
+	 *
+	 * @param sphereSet Sphere set to copy.
+	 * @return Sphere set reading the copy.
+	 */
+	public SphereSet store(SphereSet sphereSet) {
+		BVH bvh = sphereSet.getBVH();
+		FloatBuffer spheres = sphereSet.getSpheres();
+		return new SphereSet(copy(spheres), copy(bvh), sphereSet.getBoundingBox());
+	}
+
+	private FloatBuffer copy(FloatBuffer buffer) {
+		return allocate((long) buffer.limit() * Float.BYTES).asFloatBuffer().put(0, buffer, 0, buffer.limit());
+	}
+
+	private IntBuffer copy(IntBuffer buffer) {
+		return allocate((long) buffer.limit() * Integer.BYTES).asIntBuffer().put(0, buffer, 0, buffer.limit());
+	}
+
+	private BVH copy(BVH bvh) {
+		ByteBuffer buffer = allocate(BVH.getSize(bvh.getNumNodes(), bvh.getNumObjects()));
+		bvh.write(buffer);
+		return BVH.wrap(buffer.flip(), bvh.getNumNodes(), bvh.getNumObjects());
+	}
+
+	private synchronized ByteBuffer allocate(long bytes) {
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Geometry section of " + bytes + " bytes is too large.");
+		}
+		if (bytes == 0) {
+			// not every allocator takes an empty section (e.g. an empty sphere set)
+			return ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		ByteBuffer buffer = allocator.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+		size += bytes;
+		return (buffer);
+	}
+
+	/**
+	 * Releases the memory of the Foreign Memory API.
+	 */
+	@Override
+	public synchronized void close() {
+		allocator.close();
+	}
+}
@@ -1,12 +1,14 @@
 package raytracer.geometry;
 
+import raytracer.HitRecord;
 import raytracer.Matrix;
-import raytracer.Mutable;
 import raytracer.Ray;
 import raytracer.Vector3d;
 import raytracer.Vector3f;
 
 public class Plane implements GeometricObject {
+	private static final long serialVersionUID = 1L;
+
 	private Vector3d point; /** < Point on plane */
 	private Vector3d normal; /** < Normal of plane */
 	public double kEpsilon = 0.000000001; /** < maximum floating point error for equality */
@@ -37,30 +39,52 @@ public class Plane implements GeometricObject {
 	}
 
 	/**
-	 * @see GeometricObject#hit(Ray, Mutable)
+	 * @see GeometricObject#hit(Ray, HitRecord)
 	 */
 	@Override
-	public boolean hit(Ray ray, Mutable<Double> mTmin) {
-		double t = (point.subtract(ray.getOrigin())).dot(normal) / ray.getDirection().dot(normal);
-		if (t > kEpsilon) {
-			mTmin.set(t);
+	public boolean hit(Ray ray, HitRecord record) {
+		double t = distance(ray);
+		if (t > kEpsilon && t < record.t) {
+			record.t = t;
+			record.setNormal(normal.get(0), normal.get(1), normal.get(2));
 			return (true);
 		}
 		return (false);
 	}
 
 	/**
-	 * @see GeometricObject#hit(Ray, Mutable, Mutable)
-	 */	
+	 * @see GeometricObject#occluded(Ray, double)
+	 */
 	@Override
-	public boolean hit(Ray ray, Mutable<Double> mTmin, Mutable<Vector3d> mNormal) {
-		double t = (point.subtract(ray.getOrigin())).dot(normal) / ray.getDirection().dot(normal);
-		if (t > kEpsilon) {
-			mTmin.set(t);
-			mNormal.set(normal);
-			return (true);
+	public boolean occluded(Ray ray, double tMax) {
+		double t = distance(ray);
+		return (t > kEpsilon && t < tMax);
+	}
+
+	/**
+	 * Distance along the ray to the plane.
+	 * 
+	 * @param ray
+	 * @return t of the intersection, negative or not finite if the ray points
+	 *   away from or along the plane.
+	 */
+	private double distance(Ray ray) {
+		double numerator = 0.0;
+		double denominator = 0.0;
+		for (int idx = 0; idx < 3; ++idx) {
+			numerator += (point.get(idx) - ray.getOrigin().get(idx)) * normal.get(idx);
+			denominator += ray.getDirection().get(idx) * normal.get(idx);
 		}
-		return (false);
+		return numerator / denominator;
 	}
 
+	/**
+	 * A plane is unbounded.
+	 * 
+	 * @see GeometricObject#getBoundingBox()
+	 */
+	@Override
+	public BBox getBoundingBox() {
+		return (null);
+	}
 }
@@ -2,12 +2,14 @@ package raytracer.geometry;
 
 import java.lang.Math;
 
-import raytracer.Mutable;
+import raytracer.HitRecord;
 import raytracer.Ray;
 import raytracer.Vector3d;
 import raytracer.Vector3f;
 
 public class Sphere implements GeometricObject {
+	private static final long serialVersionUID = 1L;
+
 	private Vector3d center; /** < position of sphere */
 	private double radius; /** < radius of sphere */
 	public final double kEpsilon = 0.00000001f; /** < maximum permissible error for comparisons */
@@ -31,71 +33,101 @@ public class Sphere implements GeometricObject {
 	}
 
 	/**
-	 * @see GeometricObject#hit(Ray, Mutable)
+	 * Setter
+	 * A sphere in a scene has to be marked dirty with Scene#markDirty after it
+	 * is changed.
+	 * @param center Sphere position.
+	 */
+	public void setCenter(Vector3f center) {
+		this.center = new Vector3d(center);
+	}
+
+	/**
+	 * Setter
+	 * A sphere in a scene has to be marked dirty with Scene#markDirty after it
+	 * is changed.
+	 * @param radius Sphere radius.
+	 */
+	public void setRadius(float radius) {
+		this.radius = (double) radius;
+	}
+
+	/**
+	 * @see GeometricObject#hit(Ray, HitRecord)
 	 */
 	@Override
-	public boolean hit(Ray ray, Mutable<Double> tmin) {
-		double t = 0.0;
+	public boolean hit(Ray ray, HitRecord record) {
+		double ox = ray.getOrigin().x - center.get(0);
+		double oy = ray.getOrigin().y - center.get(1);
+		double oz = ray.getOrigin().z - center.get(2);
+		double dx = ray.getDirection().x;
+		double dy = ray.getDirection().y;
+		double dz = ray.getDirection().z;
 
-		Vector3d temp = ray.getOrigin().subtract(center);
-		double a = ray.getDirection().dot(ray.getDirection());
-		double b = temp.multiply(2.0).dot(ray.getDirection());
-		double c = temp.dot(temp) - radius * radius;
+		double a = dx * dx + dy * dy + dz * dz;
+		double b = 2.0 * (ox * dx + oy * dy + oz * dz);
+		double c = ox * ox + oy * oy + oz * oz - radius * radius;
 		double disc = (b * b - 4.0 * a * c);
 
-		if (disc < 0.0f) {
+		if (disc < 0.0) {
 			return (false);
-		} else {
-			double e = Math.pow(disc, 0.5);
-			double denom = 2.0 * a;
+		}
 
-			t = (-b - e) / denom;
-			if (t > kEpsilon) {
-				tmin.set(t);
-				return (true);
-			}
+		double e = Math.sqrt(disc);
+		double denom = 2.0 * a;
 
+		double t = (-b - e) / denom;
+		if (t <= kEpsilon) {
 			t = (-b + e) / denom;
-			if (t > kEpsilon) {
-				tmin.set(t);
-				return (true);
-			}
 		}
-		return (false);
+		if (t <= kEpsilon || t >= record.t) {
+			return (false);
+		}
+
+		record.t = t;
+		record.setNormal((ox + dx * t) / radius, (oy + dy * t) / radius, (oz + dz * t) / radius);
+		return (true);
 	}
 
 	/**
-	 * @see GeometricObject#hit(Ray, Mutable, Mutable)
+	 * @see GeometricObject#occluded(Ray, double)
 	 */
 	@Override
-	public boolean hit(Ray ray, Mutable<Double> tmin, Mutable<Vector3d> normal) {
-		double t = 0.0f;
-		Vector3d temp = ray.getOrigin().subtract(center);
-		double a = ray.getDirection().dot(ray.getDirection());
-		double b = temp.multiply(2.0f).dot(ray.getDirection());
-		double c = temp.dot(temp) - radius * radius;
-		double disc = (b * b - 4.0f * a * c);
+	public boolean occluded(Ray ray, double tMax) {
+		double ox = ray.getOrigin().x - center.get(0);
+		double oy = ray.getOrigin().y - center.get(1);
+		double oz = ray.getOrigin().z - center.get(2);
+		double dx = ray.getDirection().x;
+		double dy = ray.getDirection().y;
+		double dz = ray.getDirection().z;
+
+		double a = dx * dx + dy * dy + dz * dz;
+		double b = 2.0 * (ox * dx + oy * dy + oz * dz);
+		double c = ox * ox + oy * oy + oz * oz - radius * radius;
+		double disc = (b * b - 4.0 * a * c);
 
 		if (disc < 0.0) {
 			return (false);
-		} else {
-			double e = Math.pow(disc, 0.5);
-			double denom = 2.0f * a;
+		}
 
-			t = (-b - e) / denom;
-			if (t > kEpsilon) {
-				tmin.set(t);
-				normal.set(temp.add(ray.getDirection().multiply(t)).divide(radius));
-				return (true);
-			}
+		double e = Math.sqrt(disc);
+		double denom = 2.0 * a;
 
-			t = (-b + e) / denom;
-			if (t > kEpsilon) {
-				tmin.set(t);
-				normal.set(temp.add(ray.getDirection().multiply(t)).divide(radius));
-				return (true);
-			}
+		double t = (-b - e) / denom;
+		if (t > kEpsilon) {
+			return (t < tMax);
 		}
-		return (false);
+
+		t = (-b + e) / denom;
+		return (t > kEpsilon && t < tMax);
+	}
+
+	/**
+	 * @see GeometricObject#getBoundingBox()
+	 */
+	@Override
+	public BBox getBoundingBox() {
+		return new BBox(center.get(0) - radius, center.get(1) - radius, center.get(2) - radius,
+				center.get(0) + radius, center.get(1) + radius, center.get(2) + radius);
 	}
 }
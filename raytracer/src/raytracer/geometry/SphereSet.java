@@ -0,0 +1,314 @@
+package raytracer.geometry;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.FloatBuffer;
+
+import raytracer.HitRecord;
+import raytracer.Ray;
+import raytracer.Vector3f;
+import raytracer.accel.BVH;
+import raytracer.accel.LeafIntersector;
+
+/**
+ * Class representing a large number of spheres (e.g. particles or a point
+ * cloud) as a single object.
+ *
+ * The spheres are kept in one packed array of x,y,z,radius floats, 16 bytes
+ * per sphere instead of a Sphere, its Vector3d and a Primitive each, and are
+ * intersected through their own bounding volume hierarchy. Once built the
+ * spheres are stored in leaf order, so a leaf is a contiguous run of the array
+ * that is tested in one loop. Spheres cannot be added once the set has been
+ * hit. The array is read through a buffer, so that a built set can also be
+ * moved off the heap (see OffHeapStore).
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class SphereSet implements GeometricObject {
+	private static final long serialVersionUID = 1L;
+	private static final double kEpsilon = 0.00000001f; /** < maximum permissible error for comparisons */
+
+	private int nSpheres;
+	private transient FloatBuffer spheres; /** < x,y,z,radius per sphere, in leaf order once built */
+	private transient volatile BVH bvh; /** < hierarchy over the spheres, null until built */
+	private transient BBox bounds;
+	private transient SphereLeaves leaves = new SphereLeaves();
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		float array[] = new float[nSpheres * 4];
+		spheres.get(0, array);
+		out.writeObject(array);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		spheres = FloatBuffer.wrap((float[]) in.readObject());
+		leaves = new SphereLeaves();
+	}
+
+	/**
+	 * Default constructor
+	 */
+	public SphereSet() {
+		this(8);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity Number of spheres to reserve space for.
+	 */
+	public SphereSet(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		}
+		spheres = FloatBuffer.wrap(new float[capacity * 4]);
+	}
+
+	/**
+	 * Constructor for a set that has already been built, its spheres in the
+	 * leaf order of the hierarchy.
+	 *
+	 * @param spheres x,y,z,radius per sphere.
+	 * @param bvh Hierarchy over the spheres.
+	 * @param bounds Bounds of the spheres.
+	 */
+	SphereSet(FloatBuffer spheres, BVH bvh, BBox bounds) {
+		if (spheres.limit() % 4 != 0 || bvh.getNumObjects() != spheres.limit() / 4) {
+			throw new IllegalArgumentException("Invalid spheres.");
+		}
+		this.nSpheres = spheres.limit() / 4;
+		this.spheres = spheres;
+		this.bvh = bvh;
+		this.bounds = bounds;
+	}
+
+	/**
+	 * Adds a sphere to the set.
+	 *
+	 * @param center Sphere position.
+	 * @param radius Sphere radius.
+	 */
+	public void add(Vector3f center, float radius) {
+		add(center.get(0), center.get(1), center.get(2), radius);
+	}
+
+	/**
+	 * Adds a sphere to the set.
+	 *
+	 * @param x Sphere position.
+	 * @param y Sphere position.
+	 * @param z Sphere position.
+	 * @param radius Sphere radius.
+	 */
+	public synchronized void add(float x, float y, float z, float radius) {
+		if (!(radius > 0.0f)) {
+			throw new IllegalArgumentException("Sphere radius must be positive.");
+		}
+		if (bvh != null) {
+			throw new IllegalStateException("Sphere set is already built.");
+		}
+		if (nSpheres * 4 == spheres.limit()) {
+			float grown[] = new float[Math.max(4, spheres.limit() * 2)];
+			spheres.get(0, grown, 0, nSpheres * 4);
+			spheres = FloatBuffer.wrap(grown);
+		}
+		int s = nSpheres++ * 4;
+		spheres.put(s, x);
+		spheres.put(s + 1, y);
+		spheres.put(s + 2, z);
+		spheres.put(s + 3, radius);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of spheres.
+	 */
+	public int getNumSpheres() {
+		return (nSpheres);
+	}
+
+	/**
+	 * Getter, builds the hierarchy if it has not been built.
+	 *
+	 * @return x,y,z,radius per sphere, in leaf order.
+	 */
+	FloatBuffer getSpheres() {
+		build();
+		return spheres.slice(0, nSpheres * 4);
+	}
+
+	/**
+	 * Getter, builds the hierarchy if it has not been built.
+	 *
+	 * @return Hierarchy over the spheres.
+	 */
+	BVH getBVH() {
+		build();
+		return (bvh);
+	}
+
+	/**
+	 * Builds the hierarchy over the spheres if it has not been built.
+	 */
+	public void build() {
+		if (bvh == null) {
+			buildSynchronized();
+		}
+	}
+
+	private synchronized void buildSynchronized() {
+		if (bvh != null) {
+			return;
+		}
+		double objectBounds[] = new double[nSpheres * 6];
+		BBox bounds = new BBox();
+		for (int idx = 0; idx < nSpheres; ++idx) {
+			int s = idx * 4;
+			int b = idx * 6;
+			double r = spheres.get(s + 3);
+			objectBounds[b] = spheres.get(s) - r;
+			objectBounds[b + 1] = spheres.get(s + 1) - r;
+			objectBounds[b + 2] = spheres.get(s + 2) - r;
+			objectBounds[b + 3] = spheres.get(s) + r;
+			objectBounds[b + 4] = spheres.get(s + 1) + r;
+			objectBounds[b + 5] = spheres.get(s + 2) + r;
+			bounds.x0 = Math.min(bounds.x0, objectBounds[b]);
+			bounds.y0 = Math.min(bounds.y0, objectBounds[b + 1]);
+			bounds.z0 = Math.min(bounds.z0, objectBounds[b + 2]);
+			bounds.x1 = Math.max(bounds.x1, objectBounds[b + 3]);
+			bounds.y1 = Math.max(bounds.y1, objectBounds[b + 4]);
+			bounds.z1 = Math.max(bounds.z1, objectBounds[b + 5]);
+		}
+		BVH bvh = new BVH(objectBounds, nSpheres);
+
+		float sorted[] = new float[nSpheres * 4];
+		for (int idx = 0; idx < nSpheres; ++idx) {
+			spheres.get(bvh.getObjectIndex(idx) * 4, sorted, idx * 4, 4);
+		}
+		spheres = FloatBuffer.wrap(sorted);
+		this.bounds = bounds;
+		this.bvh = bvh;
+	}
+
+	/**
+	 * Intersects the spheres of a BVH leaf.
+	 */
+	private class SphereLeaves implements LeafIntersector {
+		@Override
+		public boolean hit(int first, int count, Ray ray, HitRecord record) {
+			FloatBuffer spheres = SphereSet.this.spheres;
+			double px = ray.getOrigin().x;
+			double py = ray.getOrigin().y;
+			double pz = ray.getOrigin().z;
+			double dx = ray.getDirection().x;
+			double dy = ray.getDirection().y;
+			double dz = ray.getDirection().z;
+			double a = dx * dx + dy * dy + dz * dz;
+			double denom = 2.0 * a;
+
+			int closest = -1;
+			double tClosest = record.t;
+			for (int s = first * 4; s < (first + count) * 4; s += 4) {
+				double ox = px - spheres.get(s);
+				double oy = py - spheres.get(s + 1);
+				double oz = pz - spheres.get(s + 2);
+				double radius = spheres.get(s + 3);
+				double b = 2.0 * (ox * dx + oy * dy + oz * dz);
+				double c = ox * ox + oy * oy + oz * oz - radius * radius;
+				double disc = (b * b - 4.0 * a * c);
+				if (disc < 0.0) {
+					continue;
+				}
+
+				double e = Math.sqrt(disc);
+				double t = (-b - e) / denom;
+				if (t <= kEpsilon) {
+					t = (-b + e) / denom;
+				}
+				if (t > kEpsilon && t < tClosest) {
+					tClosest = t;
+					closest = s;
+				}
+			}
+			if (closest < 0) {
+				return (false);
+			}
+
+			double radius = spheres.get(closest + 3);
+			record.t = tClosest;
+			record.setNormal((px - spheres.get(closest) + dx * tClosest) / radius,
+					(py - spheres.get(closest + 1) + dy * tClosest) / radius,
+					(pz - spheres.get(closest + 2) + dz * tClosest) / radius);
+			return (true);
+		}
+
+		@Override
+		public int occluder(int first, int count, Ray ray, double tMax) {
+			FloatBuffer spheres = SphereSet.this.spheres;
+			double px = ray.getOrigin().x;
+			double py = ray.getOrigin().y;
+			double pz = ray.getOrigin().z;
+			double dx = ray.getDirection().x;
+			double dy = ray.getDirection().y;
+			double dz = ray.getDirection().z;
+			double a = dx * dx + dy * dy + dz * dz;
+			double denom = 2.0 * a;
+
+			for (int idx = first; idx < first + count; ++idx) {
+				int s = idx * 4;
+				double ox = px - spheres.get(s);
+				double oy = py - spheres.get(s + 1);
+				double oz = pz - spheres.get(s + 2);
+				double radius = spheres.get(s + 3);
+				double b = 2.0 * (ox * dx + oy * dy + oz * dz);
+				double c = ox * ox + oy * oy + oz * oz - radius * radius;
+				double disc = (b * b - 4.0 * a * c);
+				if (disc < 0.0) {
+					continue;
+				}
+
+				double e = Math.sqrt(disc);
+				double t = (-b - e) / denom;
+				if (t <= kEpsilon) {
+					t = (-b + e) / denom;
+				}
+				if (t > kEpsilon && t < tMax) {
+					return (idx);
+				}
+			}
+			return (-1);
+		}
+	}
+
+	/**
+	 * @see GeometricObject#hit(Ray, HitRecord)
+	 */
+	@Override
+	public boolean hit(Ray ray, HitRecord record) {
+		build();
+		return bvh.hit(ray, record, leaves);
+	}
+
+	/**
+	 * @see GeometricObject#occluded(Ray, double)
+	 */
+	@Override
+	public boolean occluded(Ray ray, double tMax) {
+		build();
+		return bvh.occluded(ray, tMax, leaves);
+	}
+
+	/**
+	 * @see GeometricObject#getBoundingBox()
+	 */
+	@Override
+	public BBox getBoundingBox() {
+		build();
+		return new BBox(bounds.x0, bounds.y0, bounds.z0, bounds.x1, bounds.y1, bounds.z1);
+	}
+}
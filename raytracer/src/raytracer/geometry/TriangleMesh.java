@@ -0,0 +1,471 @@
+package raytracer.geometry;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import raytracer.HitRecord;
+import raytracer.Ray;
+import raytracer.accel.BVH;
+import raytracer.accel.BVHBuilder;
+import raytracer.accel.LeafIntersector;
+
+/**
+ * Class representing an indexed triangle mesh.
+ *
+ * Vertex positions, vertex normals and the three vertex indices of every
+ * triangle are kept in flat arrays and the triangles are intersected through
+ * their own bounding volume hierarchy. Once built the triangles are stored in
+ * leaf order, so a leaf is a contiguous run of the index array. The arrays
+ * are read through buffers, so that a mesh can also be used in place from a
+ * memory mapped file (see MeshFile).
+ *
+ * Rays are intersected with the watertight algorithm of Woop, Benthin and
+ * Wald ("Watertight Ray/Triangle Intersection", JCGT 2013): a ray that hits
+ * an edge or a vertex shared by triangles hits at least one of them, so there
+ * are no cracks between the triangles of a closed mesh. Triangles are two
+ * sided, the normal reported faces the origin of the ray.
+ *
+ * @author Manuel Nunes
+ *
+ */
+public class TriangleMesh implements GeometricObject {
+	private static final long serialVersionUID = 1L;
+	private static final double kEpsilon = 0.000000001; /** < maximum permissible error for comparisons */
+
+	private transient FloatBuffer positions; /** < x,y,z per vertex */
+	private transient FloatBuffer normals; /** < x,y,z per vertex, null if none */
+	private transient IntBuffer indices; /** < vertices of every triangle, in leaf order once built */
+	private BVHBuilder bvhBuilder = BVHBuilder.SAH; /** < method used to build the hierarchy */
+	private transient volatile BVH bvh; /** < hierarchy over the triangles, null until built */
+	private transient BBox bounds;
+	private transient TriangleLeaves leaves = new TriangleLeaves();
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeObject(toArray(positions));
+		out.writeObject(normals != null ? toArray(normals) : null);
+		int array[] = new int[indices.limit()];
+		indices.get(0, array);
+		out.writeObject(array);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		positions = FloatBuffer.wrap((float[]) in.readObject());
+		float normals[] = (float[]) in.readObject();
+		this.normals = (normals != null) ? FloatBuffer.wrap(normals) : null;
+		indices = IntBuffer.wrap((int[]) in.readObject());
+		leaves = new TriangleLeaves();
+	}
+
+	private static float[] toArray(FloatBuffer buffer) {
+		float array[] = new float[buffer.limit()];
+		buffer.get(0, array);
+		return (array);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * The mesh keeps the arrays, they must not be changed afterwards.
+	 *
+	 * @param positions x,y,z per vertex.
+	 * @param normals x,y,z per vertex, interpolated across the triangles, null
+	 *   for the geometric normal of every triangle. A vertex with a zero normal
+	 *   also uses the geometric normal.
+	 * @param indices Three vertex indices per triangle.
+	 */
+	public TriangleMesh(float positions[], float normals[], int indices[]) {
+		this(positions != null ? FloatBuffer.wrap(positions) : null,
+				normals != null ? FloatBuffer.wrap(normals) : null,
+				indices != null ? IntBuffer.wrap(indices) : null, null, null);
+	}
+
+	/**
+	 * Constructor for a mesh that has already been built, its triangles in
+	 * the leaf order of the hierarchy.
+	 *
+	 * @param positions x,y,z per vertex.
+	 * @param normals x,y,z per vertex, null if none.
+	 * @param indices Three vertex indices per triangle.
+	 * @param bvh Hierarchy over the triangles, null to build one when needed.
+	 * @param bounds Bounds of the triangles, null if bvh is null.
+	 */
+	TriangleMesh(FloatBuffer positions, FloatBuffer normals, IntBuffer indices, BVH bvh, BBox bounds) {
+		if (positions == null || positions.limit() % 3 != 0) {
+			throw new IllegalArgumentException("Invalid vertex positions.");
+		}
+		if (normals != null && normals.limit() != positions.limit()) {
+			throw new IllegalArgumentException("Invalid vertex normals.");
+		}
+		if (indices == null || indices.limit() % 3 != 0
+				|| (bvh != null && bvh.getNumObjects() != indices.limit() / 3)) {
+			throw new IllegalArgumentException("Invalid triangle indices.");
+		}
+		int numVertices = positions.limit() / 3;
+		for (int idx = 0; idx < indices.limit(); ++idx) {
+			int index = indices.get(idx);
+			if (index < 0 || index >= numVertices) {
+				throw new IllegalArgumentException("Invalid vertex index " + index + ".");
+			}
+		}
+		this.positions = positions;
+		this.normals = normals;
+		this.indices = indices;
+		this.bounds = bounds;
+		this.bvh = bvh;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of vertices.
+	 */
+	public int getNumVertices() {
+		return (positions.limit() / 3);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Number of triangles.
+	 */
+	public int getNumTriangles() {
+		return (indices.limit() / 3);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Does the mesh have vertex normals?
+	 */
+	public boolean hasNormals() {
+		return (normals != null);
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return x,y,z per vertex.
+	 */
+	FloatBuffer getPositions() {
+		return positions.duplicate();
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return x,y,z per vertex, null if none.
+	 */
+	FloatBuffer getNormals() {
+		return (normals != null) ? normals.duplicate() : null;
+	}
+
+	/**
+	 * Getter, builds the hierarchy if it has not been built.
+	 *
+	 * @return Three vertex indices per triangle, in leaf order.
+	 */
+	IntBuffer getIndices() {
+		build();
+		return indices.duplicate();
+	}
+
+	/**
+	 * Getter, builds the hierarchy if it has not been built.
+	 *
+	 * @return Hierarchy over the triangles.
+	 */
+	BVH getBVH() {
+		build();
+		return (bvh);
+	}
+
+	/**
+	 * Setter
+	 *
+	 * @param bvhBuilder Method used to build the hierarchy, LBVH builds large
+	 *   meshes fastest.
+	 */
+	public synchronized void setBVHBuilder(BVHBuilder bvhBuilder) {
+		if (bvhBuilder == null) {
+			throw new IllegalArgumentException("Invalid BVH builder.");
+		}
+		if (bvh != null) {
+			throw new IllegalStateException("Triangle mesh is already built.");
+		}
+		this.bvhBuilder = bvhBuilder;
+	}
+
+	/**
+	 * Getter
+	 *
+	 * @return Method used to build the hierarchy.
+	 */
+	public BVHBuilder getBVHBuilder() {
+		return (bvhBuilder);
+	}
+
+	/**
+	 * Builds the hierarchy over the triangles if it has not been built.
+	 */
+	public void build() {
+		if (bvh == null) {
+			buildSynchronized();
+		}
+	}
+
+	private synchronized void buildSynchronized() {
+		if (bvh != null) {
+			return;
+		}
+		int numTriangles = getNumTriangles();
+		double objectBounds[] = new double[numTriangles * 6];
+		BBox bounds = new BBox();
+		for (int idx = 0; idx < numTriangles; ++idx) {
+			int b = idx * 6;
+			for (int axis = 0; axis < 3; ++axis) {
+				double p0 = positions.get(indices.get(idx * 3) * 3 + axis);
+				double p1 = positions.get(indices.get(idx * 3 + 1) * 3 + axis);
+				double p2 = positions.get(indices.get(idx * 3 + 2) * 3 + axis);
+				objectBounds[b + axis] = Math.min(p0, Math.min(p1, p2));
+				objectBounds[b + 3 + axis] = Math.max(p0, Math.max(p1, p2));
+			}
+			bounds.x0 = Math.min(bounds.x0, objectBounds[b]);
+			bounds.y0 = Math.min(bounds.y0, objectBounds[b + 1]);
+			bounds.z0 = Math.min(bounds.z0, objectBounds[b + 2]);
+			bounds.x1 = Math.max(bounds.x1, objectBounds[b + 3]);
+			bounds.y1 = Math.max(bounds.y1, objectBounds[b + 4]);
+			bounds.z1 = Math.max(bounds.z1, objectBounds[b + 5]);
+		}
+		BVH bvh = bvhBuilder.build(objectBounds, numTriangles);
+
+		int sorted[] = new int[numTriangles * 3];
+		for (int idx = 0; idx < numTriangles; ++idx) {
+			indices.get(bvh.getObjectIndex(idx) * 3, sorted, idx * 3, 3);
+		}
+		indices = IntBuffer.wrap(sorted);
+		this.bounds = bounds;
+		this.bvh = bvh;
+	}
+
+	/**
+	 * Intersects the triangles of a BVH leaf.
+	 *
+	 * The ray is transformed so that it starts at the origin and runs along
+	 * +z, the triangles are then tested in 2D with signed edge functions.
+	 */
+	private class TriangleLeaves implements LeafIntersector {
+		@Override
+		public boolean hit(int first, int count, Ray ray, HitRecord record) {
+			FloatBuffer positions = TriangleMesh.this.positions;
+			IntBuffer indices = TriangleMesh.this.indices;
+			double px = ray.getOrigin().x;
+			double py = ray.getOrigin().y;
+			double pz = ray.getOrigin().z;
+			double dx = ray.getDirection().x;
+			double dy = ray.getDirection().y;
+			double dz = ray.getDirection().z;
+
+			// dominant axis of the direction is z, kept right handed
+			int kz = Math.abs(dx) > Math.abs(dy) ? (Math.abs(dx) > Math.abs(dz) ? 0 : 2)
+					: (Math.abs(dy) > Math.abs(dz) ? 1 : 2);
+			int kx = (kz == 2) ? 0 : kz + 1;
+			int ky = (kx == 2) ? 0 : kx + 1;
+			if (component(dx, dy, dz, kz) < 0.0) {
+				int swap = kx;
+				kx = ky;
+				ky = swap;
+			}
+			double sz = 1.0 / component(dx, dy, dz, kz);
+			double sx = component(dx, dy, dz, kx) * sz;
+			double sy = component(dx, dy, dz, ky) * sz;
+			double ox = component(px, py, pz, kx);
+			double oy = component(px, py, pz, ky);
+			double oz = component(px, py, pz, kz);
+
+			int closest = -1;
+			double tClosest = record.t;
+			double u = 0.0, v = 0.0, w = 0.0;
+			for (int tri = first * 3; tri < (first + count) * 3; tri += 3) {
+				int a = indices.get(tri) * 3;
+				int b = indices.get(tri + 1) * 3;
+				int c = indices.get(tri + 2) * 3;
+
+				double az = positions.get(a + kz) - oz;
+				double bz = positions.get(b + kz) - oz;
+				double cz = positions.get(c + kz) - oz;
+				double ax = positions.get(a + kx) - ox - sx * az;
+				double ay = positions.get(a + ky) - oy - sy * az;
+				double bx = positions.get(b + kx) - ox - sx * bz;
+				double by = positions.get(b + ky) - oy - sy * bz;
+				double cx = positions.get(c + kx) - ox - sx * cz;
+				double cy = positions.get(c + ky) - oy - sy * cz;
+
+				double e0 = cx * by - cy * bx;
+				double e1 = ax * cy - ay * cx;
+				double e2 = bx * ay - by * ax;
+				if ((e0 < 0.0 || e1 < 0.0 || e2 < 0.0) && (e0 > 0.0 || e1 > 0.0 || e2 > 0.0)) {
+					continue;
+				}
+				double det = e0 + e1 + e2;
+				if (det == 0.0) {
+					continue;
+				}
+
+				double t = (e0 * az + e1 * bz + e2 * cz) * sz / det;
+				if (t > kEpsilon && t < tClosest) {
+					tClosest = t;
+					closest = tri;
+					u = e0 / det;
+					v = e1 / det;
+					w = e2 / det;
+				}
+			}
+			if (closest < 0) {
+				return (false);
+			}
+
+			record.t = tClosest;
+			setNormal(closest, u, v, w, dx, dy, dz, record);
+			return (true);
+		}
+
+		@Override
+		public int occluder(int first, int count, Ray ray, double tMax) {
+			FloatBuffer positions = TriangleMesh.this.positions;
+			IntBuffer indices = TriangleMesh.this.indices;
+			double px = ray.getOrigin().x;
+			double py = ray.getOrigin().y;
+			double pz = ray.getOrigin().z;
+			double dx = ray.getDirection().x;
+			double dy = ray.getDirection().y;
+			double dz = ray.getDirection().z;
+
+			int kz = Math.abs(dx) > Math.abs(dy) ? (Math.abs(dx) > Math.abs(dz) ? 0 : 2)
+					: (Math.abs(dy) > Math.abs(dz) ? 1 : 2);
+			int kx = (kz == 2) ? 0 : kz + 1;
+			int ky = (kx == 2) ? 0 : kx + 1;
+			if (component(dx, dy, dz, kz) < 0.0) {
+				int swap = kx;
+				kx = ky;
+				ky = swap;
+			}
+			double sz = 1.0 / component(dx, dy, dz, kz);
+			double sx = component(dx, dy, dz, kx) * sz;
+			double sy = component(dx, dy, dz, ky) * sz;
+			double ox = component(px, py, pz, kx);
+			double oy = component(px, py, pz, ky);
+			double oz = component(px, py, pz, kz);
+
+			for (int idx = first; idx < first + count; ++idx) {
+				int tri = idx * 3;
+				int a = indices.get(tri) * 3;
+				int b = indices.get(tri + 1) * 3;
+				int c = indices.get(tri + 2) * 3;
+
+				double az = positions.get(a + kz) - oz;
+				double bz = positions.get(b + kz) - oz;
+				double cz = positions.get(c + kz) - oz;
+				double ax = positions.get(a + kx) - ox - sx * az;
+				double ay = positions.get(a + ky) - oy - sy * az;
+				double bx = positions.get(b + kx) - ox - sx * bz;
+				double by = positions.get(b + ky) - oy - sy * bz;
+				double cx = positions.get(c + kx) - ox - sx * cz;
+				double cy = positions.get(c + ky) - oy - sy * cz;
+
+				double e0 = cx * by - cy * bx;
+				double e1 = ax * cy - ay * cx;
+				double e2 = bx * ay - by * ax;
+				if ((e0 < 0.0 || e1 < 0.0 || e2 < 0.0) && (e0 > 0.0 || e1 > 0.0 || e2 > 0.0)) {
+					continue;
+				}
+				double det = e0 + e1 + e2;
+				if (det == 0.0) {
+					continue;
+				}
+
+				double t = (e0 * az + e1 * bz + e2 * cz) * sz / det;
+				if (t > kEpsilon && t < tMax) {
+					return (idx);
+				}
+			}
+			return (-1);
+		}
+	}
+
+	private static double component(double x, double y, double z, int axis) {
+		return (axis == 0) ? x : (axis == 1) ? y : z;
+	}
+
+	/**
+	 * Normal of a hit, facing the origin of the ray.
+	 *
+	 * @param tri Offset of the triangle in the index array.
+	 * @param u Barycentric coordinate of the first vertex.
+	 * @param v Barycentric coordinate of the second vertex.
+	 * @param w Barycentric coordinate of the third vertex.
+	 */
+	private void setNormal(int tri, double u, double v, double w, double dx, double dy, double dz,
+			HitRecord record) {
+		int a = indices.get(tri) * 3;
+		int b = indices.get(tri + 1) * 3;
+		int c = indices.get(tri + 2) * 3;
+		double e1x = positions.get(b) - positions.get(a);
+		double e1y = positions.get(b + 1) - positions.get(a + 1);
+		double e1z = positions.get(b + 2) - positions.get(a + 2);
+		double e2x = positions.get(c) - positions.get(a);
+		double e2y = positions.get(c + 1) - positions.get(a + 1);
+		double e2z = positions.get(c + 2) - positions.get(a + 2);
+		double gx = e1y * e2z - e1z * e2y;
+		double gy = e1z * e2x - e1x * e2z;
+		double gz = e1x * e2y - e1y * e2x;
+		boolean back = gx * dx + gy * dy + gz * dz > 0.0;
+
+		double nx = gx, ny = gy, nz = gz;
+		if (normals != null) {
+			double sx = u * normals.get(a) + v * normals.get(b) + w * normals.get(c);
+			double sy = u * normals.get(a + 1) + v * normals.get(b + 1) + w * normals.get(c + 1);
+			double sz = u * normals.get(a + 2) + v * normals.get(b + 2) + w * normals.get(c + 2);
+			if (sx * sx + sy * sy + sz * sz > 0.0) {
+				// same side as the geometric normal
+				double sign = (sx * gx + sy * gy + sz * gz < 0.0) ? -1.0 : 1.0;
+				nx = sign * sx;
+				ny = sign * sy;
+				nz = sign * sz;
+			}
+		}
+		double scale = (back ? -1.0 : 1.0) / Math.sqrt(nx * nx + ny * ny + nz * nz);
+		record.setNormal(nx * scale, ny * scale, nz * scale);
+	}
+
+	/**
+	 * @see GeometricObject#hit(Ray, HitRecord)
+	 */
+	@Override
+	public boolean hit(Ray ray, HitRecord record) {
+		build();
+		return bvh.hit(ray, record, leaves);
+	}
+
+	/**
+	 * @see GeometricObject#occluded(Ray, double)
+	 */
+	@Override
+	public boolean occluded(Ray ray, double tMax) {
+		build();
+		return bvh.occluded(ray, tMax, leaves);
+	}
+
+	/**
+	 * @see GeometricObject#getBoundingBox()
+	 */
+	@Override
+	public BBox getBoundingBox() {
+		build();
+		return new BBox(bounds.x0, bounds.y0, bounds.z0, bounds.x1, bounds.y1, bounds.z1);
+	}
+}
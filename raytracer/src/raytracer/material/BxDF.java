@@ -1,10 +1,14 @@
 package raytracer.material;
 
-import raytracer.Mutable;
-import raytracer.Vector3d;
+import java.io.Serializable;
+
+import raytracer.MutableVector3d;
+import raytracer.Sampler;
 import raytracer.Vector3f;
 
-public abstract class BxDF {
+public abstract class BxDF implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	public final static int REFLECTIVE = 1 << 0; /** < reflective type */
 	public final static int TRANSMISSIVE = 1 << 1; /** < transmissive type */
 	public final static int DIFFUSE = 1 << 2; /** < diffuse type */
@@ -72,20 +76,24 @@ public abstract class BxDF {
 	 * @param normal surface normal
 	 * @param wo outgoing light direction
 	 * @param wi incoming light direction
-	 * @return percentage [0,1] of the spectral components (r,g,b) to reflect/transmit.
+	 * @param f vector the percentage [0,1] of the spectral components (r,g,b)
+	 *   to reflect/transmit is added to.
 	 */
-	abstract public Vector3d f(Vector3d normal, Vector3d wo, Vector3d wi);
+	abstract public void f(MutableVector3d normal, MutableVector3d wo, MutableVector3d wi, MutableVector3d f);
 
 	/**
 	 * sampling bidirection distribution reflectance function
 	 * 
 	 * @param normal surface normal
 	 * @param wo outgoing light direction
-	 * @param mWi mutable returning a sampled incoming light direction
-	 * @param mPdf mutable returning the value of the probability density function
-	 * @return
+	 * @param sampler source of the random numbers used to choose the direction
+	 * @param wi vector set to a sampled incoming light direction
+	 * @param f vector set to the percentage [0,1] of the spectral components
+	 *   (r,g,b) to reflect/transmit.
+	 * @return value of the probability density function
 	 */
-	abstract public Vector3d fSample(Vector3d normal, Vector3d wo, Mutable<Vector3d> mWi, Mutable<Double> mPdf);
+	abstract public double fSample(MutableVector3d normal, MutableVector3d wo, Sampler sampler, MutableVector3d wi,
+			MutableVector3d f);
 
 	/**
 	 * Calculate bi-hemispherical reflectance.
@@ -93,9 +101,10 @@ public abstract class BxDF {
 	 * 
 	 * @param normal surface normal
 	 * @param wo outgoing light direction
-	 * @return percentage [0,1] of the spectral components (r,g,b) to reflect/transmit.
+	 * @param rho vector the percentage [0,1] of the spectral components (r,g,b)
+	 *   to reflect/transmit is added to.
 	 */
-	abstract public Vector3d rho(Vector3d normal, Vector3d wo);
+	abstract public void rho(MutableVector3d normal, MutableVector3d wo, MutableVector3d rho);
 
 	/**
 	 * Evaluate the probability density function.
@@ -105,5 +114,48 @@ public abstract class BxDF {
 	 * @param wi incoming light direction
 	 * @return value of the probability density function
 	 */	
-	abstract double pdf(Vector3d normal, Vector3d wo, Vector3d wi);
+	abstract double pdf(MutableVector3d normal, MutableVector3d wo, MutableVector3d wi);
+
+	/**
+	 * Set a direction on the hemisphere around w, in the same orthonormal basis
+	 * as Vector3d#orthonormalBasis.
+	 * 
+	 * @param w axis of the hemisphere
+	 * @param sinTheta sine of the angle to w
+	 * @param cosTheta cosine of the angle to w
+	 * @param cosPhi cosine of the angle around w
+	 * @param sinPhi sine of the angle around w
+	 * @param wi vector set to the direction
+	 * @return wi
+	 */
+	static MutableVector3d hemisphereDirection(MutableVector3d w, double sinTheta, double cosTheta, double cosPhi,
+			double sinPhi, MutableVector3d wi) {
+		return hemisphereDirection(w.x, w.y, w.z, sinTheta, cosTheta, cosPhi, sinPhi, wi);
+	}
+
+	/**
+	 * Set a direction on the hemisphere around an axis given by its elements,
+	 * e.g. one computed on the fly while sampling.
+	 * 
+	 * @see #hemisphereDirection(MutableVector3d, double, double, double, double, MutableVector3d)
+	 */
+	static MutableVector3d hemisphereDirection(double wx, double wy, double wz, double sinTheta, double cosTheta,
+			double cosPhi, double sinPhi, MutableVector3d wi) {
+		// v = normalize((0.00424, 1.0, 0.00764) x w), u = v x w
+		double vx = 1.0 * wz - 0.00764 * wy;
+		double vy = 0.00764 * wx - 0.00424 * wz;
+		double vz = 0.00424 * wy - 1.0 * wx;
+		double vm = Math.sqrt(vx * vx + vy * vy + vz * vz);
+		vx /= vm;
+		vy /= vm;
+		vz /= vm;
+		double ux = vy * wz - vz * wy;
+		double uy = vz * wx - vx * wz;
+		double uz = vx * wy - vy * wx;
+
+		double sx = sinTheta * cosPhi;
+		double sy = sinTheta * sinPhi;
+		double sz = cosTheta; // z is up
+		return wi.set(ux * sx + vx * sy + wx * sz, uy * sx + vy * sy + wy * sz, uz * sx + vz * sy + wz * sz);
+	}
 }
@@ -1,7 +1,7 @@
 package raytracer.material;
 
-import raytracer.Mutable;
-import raytracer.Vector3d;
+import raytracer.MutableVector3d;
+import raytracer.Sampler;
 import raytracer.Vector3f;
 
 /**
@@ -11,6 +11,8 @@ import raytracer.Vector3f;
  *
  */
 public class GlossySpecularBRDF extends BxDF {
+	private static final long serialVersionUID = 1L;
+
 	private Vector3f color;
 	double e;
 	
@@ -56,92 +58,80 @@ public class GlossySpecularBRDF extends BxDF {
 	}
 	
 	/**
-	 * @see BxDF#f(Vector3d, Vector3d, Vector3d)
+	 * @see BxDF#f(MutableVector3d, MutableVector3d, MutableVector3d, MutableVector3d)
 	 */
 	@Override
-	public Vector3d f(Vector3d normal, Vector3d wo, Vector3d wi) {
-		Vector3d L;
-		
-		// Calculate reflection of wi
+	public void f(MutableVector3d normal, MutableVector3d wo, MutableVector3d wi, MutableVector3d f) {
+		// Calculate reflection of wi, r = -wi + normal * 2 (normal . wi)
 		double nDotWi = normal.dot(wi); // was wi.dot(normal)
-		Vector3d reflectionOfWi = wi.negated().add(normal.multiply(nDotWi*2.0));
+		double rx = -wi.x + normal.x * nDotWi * 2.0;
+		double ry = -wi.y + normal.y * nDotWi * 2.0;
+		double rz = -wi.z + normal.z * nDotWi * 2.0;
 
-		double rDotWo = reflectionOfWi.dot(wo);
+		double rDotWo = rx * wo.x + ry * wo.y + rz * wo.z;
 		if (rDotWo > 0.0) {
-			Vector3d color = new Vector3d(this.color);
-			L = color.multiply(Math.pow(rDotWo, e));
+			double scale = Math.pow(rDotWo, e);
+			f.x += color.get(0) * scale;
+			f.y += color.get(1) * scale;
+			f.z += color.get(2) * scale;
 		}
-		else {
-			L = new Vector3d(0);
-		}
-		return L;
 	}
 
 	/**
-	 * @see BxDF#fSample(Vector3d, Vector3d, Mutable, Mutable)
+	 * @see BxDF#fSample(MutableVector3d, MutableVector3d, Sampler, MutableVector3d, MutableVector3d)
 	 */
 	@Override
-	public Vector3d fSample(Vector3d normal, Vector3d wo, Mutable<Vector3d> mWi, Mutable<Double> mPdf) {
+	public double fSample(MutableVector3d normal, MutableVector3d wo, Sampler sampler, MutableVector3d wi,
+			MutableVector3d f) {
+		// w is the reflection of wo, r = -wo + normal * 2 (normal . wo)
 		double nDotWo = normal.dot(wo);
-
-		Vector3d reflectionOfWo = wo.negated().add(normal.multiply(nDotWo*2.0));
-		Vector3d w = reflectionOfWo;
-
-		Mutable<Vector3d> mu = Mutable.valueOf(null);
-		Mutable<Vector3d> mv = Mutable.valueOf(null);
-		w.orthonormalBasis(mu, mv);
-		Vector3d u = mu.get();
-		Vector3d v = mv.get();
+		double wx = -wo.x + normal.x * nDotWo * 2.0;
+		double wy = -wo.y + normal.y * nDotWo * 2.0;
+		double wz = -wo.z + normal.z * nDotWo * 2.0;
 
 		// hemisphere sample
 		double e = 0.0;
-		double sampleX = Math.random();
-		double sampleY = Math.random();
+		double sampleX = sampler.nextDouble();
+		double sampleY = sampler.nextDouble();
 		double phi = 2.0 * Math.PI * sampleY;
 		double cosPhi = Math.cos(phi);
 		double sinPhi = Math.sin(phi);
 		double cosTheta = Math.pow(sampleX, 1.0 / (e + 1.0f));
 		double sinTheta = Math.sqrt(1.0 - cosTheta * cosTheta);
-		Vector3d sample = new Vector3d(sinTheta * cosPhi,
-			sinTheta * sinPhi,
-			cosTheta); // z is up
 
-		Vector3d wi = u.multiply(sample.get(0));
-		wi = wi.add(v.multiply(sample.get(1)));
-		wi = wi.add(w.multiply(sample.get(2)));
+		hemisphereDirection(wx, wy, wz, sinTheta, cosTheta, cosPhi, sinPhi, wi);
 
 		double nDotWi = normal.dot(wi);
 		if (nDotWi < 0.0) {
-			wi = u.multiply(-sample.get(0));
-			wi = wi.add(v.multiply(-sample.get(1)));
-			wi = wi.add(w.multiply(sample.get(2)));
+			hemisphereDirection(wx, wy, wz, sinTheta, cosTheta, -cosPhi, -sinPhi, wi);
 			nDotWi = normal.dot(wi);
 		}
 
-		double phongLobe = Math.pow(reflectionOfWo.dot(wi), Math.E);
-		mPdf.set(phongLobe * nDotWi);
-		
-		Vector3d color = new Vector3d(this.color);
-		return color.multiply(phongLobe);
+		double phongLobe = Math.pow(wx * wi.x + wy * wi.y + wz * wi.z, Math.E);
+
+		f.set(color).multiply(phongLobe);
+		return phongLobe * nDotWi;
 	}
 
 	/**
-	 * @see BxDF#rho(Vector3d, Vector3d)
+	 * @see BxDF#rho(MutableVector3d, MutableVector3d, MutableVector3d)
 	 */
 	@Override
-	public Vector3d rho(Vector3d normal, Vector3d wo) {
-		return new Vector3d(0);
+	public void rho(MutableVector3d normal, MutableVector3d wo, MutableVector3d rho) {
 	}
 
 	/**
-	 * @see BxDF#pdf(Vector3d, Vector3d, Vector3d)
+	 * @see BxDF#pdf(MutableVector3d, MutableVector3d, MutableVector3d)
 	 */
 	@Override
-	double pdf(Vector3d normal, Vector3d wo, Vector3d wi) {
+	double pdf(MutableVector3d normal, MutableVector3d wo, MutableVector3d wi) {
+		// r = -wo + normal * 2 (normal . wo)
 		double nDotWo = normal.dot(wo);
-		Vector3d reflectionOfWo = wo.negated().add(normal.multiply(nDotWo*2.0));
+		double rx = -wo.x + normal.x * nDotWo * 2.0;
+		double ry = -wo.y + normal.y * nDotWo * 2.0;
+		double rz = -wo.z + normal.z * nDotWo * 2.0;
 		
-		double phongLobe = Math.pow(reflectionOfWo.dot(wi), Math.E);
+		double phongLobe = Math.pow(rx * wi.x + ry * wi.y + rz * wi.z, Math.E);
 		double nDotWi = normal.dot(wi);
 		
 		return phongLobe * nDotWi;
@@ -1,7 +1,7 @@
 package raytracer.material;
 
-import raytracer.Mutable;
-import raytracer.Vector3d;
+import raytracer.MutableVector3d;
+import raytracer.Sampler;
 import raytracer.Vector3f;
 
 /**
@@ -11,6 +11,8 @@ import raytracer.Vector3f;
  *
  */
 public class LambertianBRDF extends BxDF {
+	private static final long serialVersionUID = 1L;
+
 	private Vector3f color;
 
 	/**
@@ -44,73 +46,54 @@ public class LambertianBRDF extends BxDF {
 	}
 			
 	/**
-	 * @see BxDF#f(Vector3d, Vector3d, Vector3d)
+	 * @see BxDF#f(MutableVector3d, MutableVector3d, MutableVector3d, MutableVector3d)
 	 */
 	@Override
-	public Vector3d f(Vector3d normal, Vector3d wo, Vector3d wi) {	
-		Vector3d c = new Vector3d(color);
-		
-		return c.multiply(1.0/Math.PI);
+	public void f(MutableVector3d normal, MutableVector3d wo, MutableVector3d wi, MutableVector3d f) {
+		double scale = 1.0 / Math.PI;
+		f.x += color.get(0) * scale;
+		f.y += color.get(1) * scale;
+		f.z += color.get(2) * scale;
 	}
 
 	/**
-	 * @see BxDF#fSample(Vector3d, Vector3d, Mutable, Mutable)
+	 * @see BxDF#fSample(MutableVector3d, MutableVector3d, Sampler, MutableVector3d, MutableVector3d)
 	 */
 	@Override
-	public Vector3d fSample(Vector3d normal, Vector3d wo, Mutable<Vector3d> mWi, Mutable<Double> mPdf) {
-		Vector3d w = normal;
-		
-		Mutable<Vector3d> mu = Mutable.valueOf(null);
-		Mutable<Vector3d> mv = Mutable.valueOf(null);
-		w.orthonormalBasis(mu, mv);
-		Vector3d u = mu.get();
-		Vector3d v = mv.get();
-
+	public double fSample(MutableVector3d normal, MutableVector3d wo, Sampler sampler, MutableVector3d wi,
+			MutableVector3d f) {
 		// hemisphere sample
 		double e = 0.0;
-		double sample_x = Math.random();
-		double sample_y = Math.random();
+		double sample_x = sampler.nextDouble();
+		double sample_y = sampler.nextDouble();
 		double phi = 2.0 * Math.PI * sample_y;
 		double cos_phi = Math.cos(phi);
 		double sin_phi = Math.sin(phi);
 		double cos_theta = Math.pow(sample_x, 1.0 / (e + 1.0f));
 		double sin_theta = Math.sqrt(1.0 - cos_theta * cos_theta);
-		Vector3d sample = new Vector3d(sin_theta * cos_phi,
-			sin_theta * sin_phi,
-			cos_theta); // z is up
-		
-		Vector3d wi = u.multiply(sample.get(0));
-		wi = wi.add(v.multiply(sample.get(1)));
-		wi = wi.add(w.multiply(sample.get(2)));
-		wi = wi.normalize();
-		
-		//wi = (u * sample.x) + (v * sample.y) + (w * sample.z);
-		double pdf = wi.dot(normal) / Math.PI;
 
-		mWi.set(wi);
-		mPdf.set(pdf);
-		
-		Vector3d c = new Vector3d(color);
-		c = c.multiply(1.0/Math.PI);
-		
-		return (c);
+		hemisphereDirection(normal, sin_theta, cos_theta, cos_phi, sin_phi, wi).normalize();
+
+		f.set(color).multiply(1.0 / Math.PI);
+
+		return wi.dot(normal) / Math.PI;
 	}
 
 	/**
-	 * @see BxDF#rho(Vector3d, Vector3d)
+	 * @see BxDF#rho(MutableVector3d, MutableVector3d, MutableVector3d)
 	 */
 	@Override
-	public Vector3d rho(Vector3d normal, Vector3d wo) {
-		Vector3d c = new Vector3d(color);
-		
-		return (c);
+	public void rho(MutableVector3d normal, MutableVector3d wo, MutableVector3d rho) {
+		rho.x += color.get(0);
+		rho.y += color.get(1);
+		rho.z += color.get(2);
 	}
 
 	/**
-	 * @see BxDF#pdf(Vector3d, Vector3d, Vector3d)
+	 * @see BxDF#pdf(MutableVector3d, MutableVector3d, MutableVector3d)
 	 */
 	@Override
-	double pdf(Vector3d normal, Vector3d wo, Vector3d wi) {
+	double pdf(MutableVector3d normal, MutableVector3d wo, MutableVector3d wi) {
 		double pdf = wi.dot(normal) / Math.PI;
 		
 		return (pdf);
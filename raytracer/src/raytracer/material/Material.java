@@ -1,10 +1,13 @@
 package raytracer.material;
 
-import raytracer.Mutable;
-import raytracer.Vector3d;
-import raytracer.Vector3f;
+import java.io.Serializable;
+
+import raytracer.MutableVector3d;
+import raytracer.Sampler;
+
+public class Material implements Serializable {
+	private static final long serialVersionUID = 1L;
 
-public class Material {
 	private int numBxdf;
 	final private int NUM_MAX_BXDF = 4;
 	private BxDF bxdf[] = new BxDF[NUM_MAX_BXDF];
@@ -27,15 +30,18 @@ public class Material {
 	/**
 	 * Composite bidirectional reflectance distribution function.
 	 * 
-	 * @see BxDF#f(Vector3d, Vector3d, Vector3d)
+	 * @param f vector set to the sum of the matching BxDFs.
+	 * @return f
+	 * @see BxDF#f(MutableVector3d, MutableVector3d, MutableVector3d, MutableVector3d)
 	 */	
-	public Vector3d f(Vector3d normal, Vector3d wo, Vector3d wi, int type) {
-		Vector3d f = new Vector3d();
+	public MutableVector3d f(MutableVector3d normal, MutableVector3d wo, MutableVector3d wi, int type,
+			MutableVector3d f) {
+		f.set(0.0, 0.0, 0.0);
 		boolean is_reflected = wi.dot(normal) * wo.dot(normal) > 0;
 		for (int idx = 0; idx < numBxdf; ++idx) {
 			if (bxdf[idx].matchesType(type) && ((is_reflected && (bxdf[idx].getType() & BxDF.REFLECTIVE) != 0)
 					|| (!is_reflected && (bxdf[idx].getType() & BxDF.TRANSMISSIVE) != 0))) {
-				f = f.add(bxdf[idx].f(normal, wi, wo));
+				bxdf[idx].f(normal, wi, wo, f);
 			}
 		}
 		return (f);
@@ -44,21 +50,19 @@ public class Material {
 	/**
 	 * Composite sampling bidirectional reflectance distribution function.
 	 * 
-	 * @see BxDF#fSample(Vector3d, Vector3d, Mutable, Mutable)
+	 * @see BxDF#fSample(MutableVector3d, MutableVector3d, Sampler, MutableVector3d, MutableVector3d)
 	 */		
-	public Vector3d fSample(Vector3d normal, Vector3d wo, Vector3f sample, int type, Mutable<Vector3d> wi,
-			Mutable<Double> pdf) {
-		Vector3d f;
-
+	public double fSample(MutableVector3d normal, MutableVector3d wo, Sampler sampler, int type, MutableVector3d wi,
+			MutableVector3d f) {
 		int numMatches = numMatchesType(type);
 		if (numMatches == 0) {
-			pdf.set(Double.valueOf(0));
-			return new Vector3d(0.0);
+			f.set(0.0, 0.0, 0.0);
+			return (0.0);
 		}
 
 		int matchesIdx = 0;
 		BxDF matchedBxdf = null;
-		int rndIdx = (int) (numMatches * Math.random());
+		int rndIdx = (int) (numMatches * sampler.nextDouble());
 		for (int idx = 0; idx < numBxdf; ++idx) {
 			if (bxdf[idx].matchesType(type)) {
 				if (matchesIdx == rndIdx) {
@@ -69,43 +73,45 @@ public class Material {
 			}
 		}
 
-		f = matchedBxdf.fSample(normal, wo, wi, pdf);
+		double pdf = matchedBxdf.fSample(normal, wo, sampler, wi, f);
 
 		if (numMatches > 1) {
 			if ((matchedBxdf.getType() & BxDF.SPECULAR) != 0) {
-				boolean is_reflected = (wi.get()).dot(normal) * wo.dot(normal) > 0;
-				f = new Vector3d(0.0);
+				boolean is_reflected = wi.dot(normal) * wo.dot(normal) > 0;
+				f.set(0.0, 0.0, 0.0);
 				for (int idx = 0; idx < numBxdf; ++idx) {
 					if (bxdf[idx].matchesType(type)) {
 						if (((is_reflected && (bxdf[idx].getType() & BxDF.REFLECTIVE) != 0)
 								|| (!is_reflected && (bxdf[idx].getType() & BxDF.TRANSMISSIVE) != 0))) {
-							f = f.add(bxdf[idx].f(normal, wi.get(), wo));
+							bxdf[idx].f(normal, wi, wo, f);
 						}
 						if (bxdf[idx] != matchedBxdf) {
-							pdf.set(pdf.get() + bxdf[idx].pdf(normal, wi.get(), wo));
+							pdf += bxdf[idx].pdf(normal, wi, wo);
 						}
 					}
 				}
 			}
-			pdf.set(pdf.get() / numMatches);
+			pdf /= numMatches;
 		}
 
-		return (f);
+		return (pdf);
 	}
 
 	/**
 	 * Composite rho function.
 	 * 
-	 * @see BxDF#rho(Vector3d, Vector3d)
+	 * @param rho vector set to the sum of the matching BxDFs.
+	 * @return rho
+	 * @see BxDF#rho(MutableVector3d, MutableVector3d, MutableVector3d)
 	 */			
-	public Vector3d rho(Vector3d normal, Vector3d wo, int type) {
-		Vector3d f = new Vector3d();
+	public MutableVector3d rho(MutableVector3d normal, MutableVector3d wo, int type, MutableVector3d rho) {
+		rho.set(0.0, 0.0, 0.0);
 		for (int idx = 0; idx < numBxdf; ++idx) {
 			if (bxdf[idx].matchesType(type) && (bxdf[idx].getType() & BxDF.REFLECTIVE) != 0) {
-				f = f.add(bxdf[idx].rho(normal, wo));
+				bxdf[idx].rho(normal, wo, rho);
 			}
 		}
-		return (f);
+		return (rho);
 	}
 
 	/**
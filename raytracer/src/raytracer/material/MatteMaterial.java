@@ -8,6 +8,8 @@ import raytracer.Vector3f;
  *
  */
 public class MatteMaterial extends Material {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Default constructor
 	 */
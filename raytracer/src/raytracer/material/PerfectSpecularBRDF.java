@@ -1,10 +1,12 @@
 package raytracer.material;
 
-import raytracer.Mutable;
-import raytracer.Vector3d;
+import raytracer.MutableVector3d;
+import raytracer.Sampler;
 import raytracer.Vector3f;
 
 public class PerfectSpecularBRDF extends BxDF {
+	private static final long serialVersionUID = 1L;
+
 	private Vector3f color;
 
 	/**
@@ -38,41 +40,38 @@ public class PerfectSpecularBRDF extends BxDF {
 	}
 
 	/**
-	 * @see BxDF#f(Vector3d, Vector3d, Vector3d)
+	 * @see BxDF#f(MutableVector3d, MutableVector3d, MutableVector3d, MutableVector3d)
 	 */		
 	@Override
-	public Vector3d f(Vector3d normal, Vector3d wo, Vector3d wi) {
-		return new Vector3d(0);
+	public void f(MutableVector3d normal, MutableVector3d wo, MutableVector3d wi, MutableVector3d f) {
 	}
 
 	/**
-	 * @see BxDF#fSample(Vector3d, Vector3d, Mutable, Mutable)
+	 * @see BxDF#fSample(MutableVector3d, MutableVector3d, Sampler, MutableVector3d, MutableVector3d)
 	 */		
 	@Override
-	public Vector3d fSample(Vector3d normal, Vector3d wo, Mutable<Vector3d> mWi, Mutable<Double> mPdf) {
+	public double fSample(MutableVector3d normal, MutableVector3d wo, Sampler sampler, MutableVector3d wi,
+			MutableVector3d f) {
+		// wi = -wo + normal * 2 (normal . wo)
 		double nDotWo = normal.dot(wo);
-		Vector3d wi = wo.negated().add(normal.multiply(nDotWo * 2.0));
-
-		mWi.set(wi);
-		mPdf.set(1.0);
+		wi.set(wo).negate().addScaled(normal, nDotWo * 2.0);
 
-		Vector3d color = new Vector3d(this.color);
-		return color.multiply(normal.dot(wi));
+		f.set(color).multiply(normal.dot(wi));
+		return 1.0;
 	}
 
 	/**
-	 * @see BxDF#rho(Vector3d, Vector3d)
+	 * @see BxDF#rho(MutableVector3d, MutableVector3d, MutableVector3d)
 	 */		
 	@Override
-	public Vector3d rho(Vector3d normal, Vector3d wo) {
-		return new Vector3d(0);
+	public void rho(MutableVector3d normal, MutableVector3d wo, MutableVector3d rho) {
 	}
 
 	/**
-	 * @see BxDF#pdf(Vector3d, Vector3d, Vector3d)
+	 * @see BxDF#pdf(MutableVector3d, MutableVector3d, MutableVector3d)
 	 */		
 	@Override
-	double pdf(Vector3d normal, Vector3d wo, Vector3d wi) {
+	double pdf(MutableVector3d normal, MutableVector3d wo, MutableVector3d wi) {
 		return 1.0;
 	}
 }
@@ -9,6 +9,8 @@ import raytracer.Vector3f;
  *
  */
 public class ReflectiveMaterial extends Material {
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Default constructor.
 	 */